@@ -0,0 +1,148 @@
+package telecom.basestation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringTokenizer;
+
+/**
+ * Antenna radiation pattern read from a MSI (Planet) file, the format used by most vendors
+ * (e.g., Kathrein). The file has a header with keywords (NAME, FREQUENCY, GAIN <value> [dBd|dBi],
+ * TILT [ELECTRICAL|MECHANICAL] <value>, ...) followed by two cuts:
+ * 
+ * 	HORIZONTAL <n>		n lines "<angle> <attenuation>"; the angle is measured clockwise from the
+ * 						boresight
+ * 	VERTICAL <n>		n lines "<angle> <attenuation>"; the angle is 0 at the horizon and increases
+ * 						downwards (90 = nadir, 270 = zenith)
+ * 
+ * Attenuations are positive dB values relative to the maximum gain. Both cuts are resampled
+ * every degree (0..359). The tilts of the header are kept as information: the electrical tilt is
+ * already in the vertical cut, and the mechanical tilt of an installation is a parameter of the
+ * base station (PatternFileBS), not of the pattern.
+ * 
+ * The SHA-256 of the file contents identifies the pattern, so identical files loaded for
+ * several base stations share the same compiled GainTable.
+ */
+public class AntennaPattern {
+	private String name = "";
+	private double frequencyMHz = 0;
+	private double gaindBi = 0;
+	private double electricalTiltDegree = 0;
+	private double mechanicalTiltDegree = 0;
+	private double[] horizontal = new double[360];
+	private double[] vertical = new double[360];
+	private String contentHash;
+
+	private AntennaPattern() { }
+
+	public static AntennaPattern load(Path file) throws IOException {
+		return parse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1));
+	}
+	public static AntennaPattern parse(String contents) {
+		AntennaPattern pattern = new AntennaPattern();
+		pattern.contentHash = sha256(contents);
+
+		String[] lines = contents.split("\r?\n");
+		for (int l = 0; l < lines.length; l++) {
+			StringTokenizer tokenizer = new StringTokenizer(lines[l], " \t");
+			if (!tokenizer.hasMoreTokens())
+				continue;
+			String keyword = tokenizer.nextToken().toUpperCase(Locale.ROOT);
+			String value = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : "";
+
+			if (keyword.equals("NAME")) {
+				pattern.name = lines[l].trim().substring(4).trim();
+			} else if (keyword.equals("FREQUENCY")) {
+				pattern.frequencyMHz = Double.parseDouble(value);
+			} else if (keyword.equals("GAIN")) {
+				double gain = Double.parseDouble(value);
+				String unit = tokenizer.hasMoreTokens() ? tokenizer.nextToken() : "dBd";
+				// MSI gains are in dBd unless stated otherwise
+				pattern.gaindBi = unit.equalsIgnoreCase("dBi") ? gain : gain + 2.15;
+			} else if (keyword.equals("TILT")) {
+				// "TILT ELECTRICAL 2", "TILT MECHANICAL 2" or "TILT 2" (electrical)
+				boolean mechanical = value.equalsIgnoreCase("MECHANICAL");
+				String tilt = mechanical || value.equalsIgnoreCase("ELECTRICAL") ? 
+						(tokenizer.hasMoreTokens() ? tokenizer.nextToken() : "0") : value;
+				if (mechanical)
+					pattern.mechanicalTiltDegree = Double.parseDouble(tilt);
+				else
+					pattern.electricalTiltDegree = Double.parseDouble(tilt);
+			} else if (keyword.equals("HORIZONTAL") || keyword.equals("VERTICAL")) {
+				int n = Integer.parseInt(value);
+				List<double[]> points = new ArrayList<double[]>(n);
+				for (int i = 0; i < n; i++) {
+					StringTokenizer point = new StringTokenizer(lines[++l], " \t");
+					points.add(new double[] {Double.parseDouble(point.nextToken()), Double.parseDouble(point.nextToken())});
+				}
+				double[] cut = resample(points);
+				if (keyword.equals("HORIZONTAL"))
+					pattern.horizontal = cut;
+				else
+					pattern.vertical = cut;
+			}
+		}
+		return pattern;
+	}
+	// Linear (circular) interpolation of the cut at every integer degree
+	private static double[] resample(List<double[]> points) {
+		points.sort((a, b) -> Double.compare(a[0], b[0]));
+		double[] cut = new double[360];
+		int n = points.size();
+		for (int deg = 0; deg < 360; deg++) {
+			int j = 0;
+			while (j < n && points.get(j)[0] < deg)
+				j++;
+			double[] next = points.get(j % n);
+			double[] prev = points.get((j - 1 + n) % n);
+			double a0 = prev[0] > deg ? prev[0] - 360 : prev[0];
+			double a1 = next[0] < deg ? next[0] + 360 : next[0];
+			cut[deg] = a1 == a0 ? next[1] : prev[1] + (deg - a0)/(a1 - a0)*(next[1] - prev[1]);
+		}
+		return cut;
+	}
+	private static String sha256(String contents) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(contents.getBytes(StandardCharsets.ISO_8859_1));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest)
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+	public double getFrequencyMHz() {
+		return frequencyMHz;
+	}
+	public double getGaindBi() {
+		return gaindBi;
+	}
+	public double getElectricalTiltDegree() {
+		return electricalTiltDegree;
+	}
+	public double getMechanicalTiltDegree() {
+		return mechanicalTiltDegree;
+	}
+	// Attenuation (dB) every degree, clockwise from the boresight
+	public double[] getHorizontalCut() {
+		return horizontal;
+	}
+	// Attenuation (dB) every degree, 0 at the horizon and increasing downwards
+	public double[] getVerticalCut() {
+		return vertical;
+	}
+	public String getContentHash() {
+		return contentHash;
+	}
+}
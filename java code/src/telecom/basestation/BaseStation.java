@@ -2,14 +2,16 @@ package telecom.basestation;
 
 import java.util.ArrayList;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicLong;
 
+import telecom.util.LocalProjection;
 import telecom.util.Parser;
 import telecom.util.Point2D;
 import telecom.util.Point3D;
 
 public abstract class BaseStation {
 	private long id;
-	private static long lastID = 0;
+	private static final AtomicLong lastID = new AtomicLong();
 	private String name;
 	private Point2D pos;
 	private double[] height;
@@ -50,6 +52,22 @@ public abstract class BaseStation {
 	 * @return
 	 */
 	public abstract double[] getEIRPdBm(Point3D probe);
+	/**
+	 * Returns an upper bound of getEIRPdBm (for any probe position) for each radio source.
+	 * It is used to bound the exposure over a region without evaluating it.
+	 */
+	public abstract double[] getMaxEIRPdBm();
+	/**
+	 * Returns an upper bound of getEIRPdBm for each radio source, for the probes whose elevation
+	 * angle (see Functions.getThetaRad) is between theta_min_rad and theta_max_rad and whose
+	 * azimuth (see Functions.getPhiDegree) is in the clockwise arc from phi_min_degree to 
+	 * phi_max_degree (phi_max_degree >= phi_min_degree; it can be above 360 when the arc contains
+	 * the north). Subclasses should override it with a tighter bound than getMaxEIRPdBm().
+	 */
+	public double[] getMaxEIRPdBm(double theta_min_rad, double theta_max_rad, 
+			double phi_min_degree, double phi_max_degree) {
+		return getMaxEIRPdBm();
+	}
 	
 	public Point2D getPosition() {
 		if (pos == null)
@@ -117,13 +135,13 @@ public abstract class BaseStation {
 		BaseStation bs = null;
 		bs = (BaseStation) Class.forName(classNameString).newInstance();
 		String name = Parser.uncodeWhitespaces(tokenizer.nextToken());
-		double latitude = Double.parseDouble(tokenizer.nextToken());
-		double longitude = Double.parseDouble(tokenizer.nextToken());
+		double x = Double.parseDouble(tokenizer.nextToken());
+		double y = Double.parseDouble(tokenizer.nextToken());
 		double[] height = Parser.uncodeDoubleArray(tokenizer.nextToken());
 		double[] freqMHz = Parser.uncodeDoubleArray(tokenizer.nextToken());
 		
 		bs.setName(name);
-		bs.setPosition(new Point2D(latitude, longitude));
+		bs.setPosition(new Point2D(x, y));
 		bs.setHeight(height);
 		bs.setFrequencyMHz(freqMHz);
 		
@@ -134,11 +152,18 @@ public abstract class BaseStation {
 
 		return bs;
 	}
+	// Same as fromString, but the position is (latitude, longitude) in degrees, as in the files
+	// of the original emf-exposure app. It is projected to the local (x, y) plane.
+	public static BaseStation fromGeographicString(String str, LocalProjection projection) throws Exception {
+		BaseStation bs = fromString(str);
+		bs.setPosition(projection.project(bs.getX(), bs.getY()));
+		return bs;
+	}
 	public void doFromString(ArrayList<String> strings) {
 	}
+	// Unique even when base stations are created by several threads
 	private void setId() {
-		lastID++;
-		id = lastID;
+		id = lastID.incrementAndGet();
 	}
 	public String getId() {
 		return "" + id;
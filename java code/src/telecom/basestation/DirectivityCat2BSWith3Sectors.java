@@ -1,9 +1,9 @@
 package telecom.basestation;
 
 import static java.lang.Math.pow;
-import static java.lang.Math.sin;
 import static telecom.util.Functions.between;
 import static telecom.util.Functions.deg2rad;
+import static telecom.util.Functions.sin;
 import static telecom.util.Functions.watt2dB;
 
 import java.util.ArrayList;
@@ -46,6 +46,7 @@ public class DirectivityCat2BSWith3Sectors extends BaseStation {
 	private double[] envelope_db;
 	private double[] horizontal_rp = DirectivityCat2BSWith3Sectors.get3GPPHorizontalRP();
 	private boolean useHorizontalRP = false;
+	private double max_horizontal_rp_db = Double.NaN;
 	
 	public DirectivityCat2BSWith3Sectors() {
 		
@@ -87,8 +88,56 @@ public class DirectivityCat2BSWith3Sectors extends BaseStation {
 		}
 		return eirp;
 	}
+	// The vertical pattern is at most 0 dB (or the envelope, if it is positive)
+	@Override
+	public double[] getMaxEIRPdBm() {
+		if (useHorizontalRP && Double.isNaN(max_horizontal_rp_db)) {
+			double maxFh = Double.NEGATIVE_INFINITY;
+			for (double g : horizontal_rp)
+				maxFh = Math.max(maxFh, g);
+			max_horizontal_rp_db = maxFh;
+		}
+		double maxFh = useHorizontalRP ? max_horizontal_rp_db : 0;
+		double eirp[] = new double[getNRadioSources()];
+		for (int i = 0; i < eirp.length; i++)
+			eirp[i] = eirp_max_dbm[i] + Math.max(0, envelope_db[i]) + maxFh;
+		return eirp;
+	}
+	// getFvdB does not increase with |theta - tilt|, so its maximum is at the angle closest to the tilt.
+	// The horizontal pattern is linearly interpolated, so its maximum is at one of the samples of the arc
+	@Override
+	public double[] getMaxEIRPdBm(double theta_min_rad, double theta_max_rad, 
+			double phi_min_degree, double phi_max_degree) {
+		double maxFh = useHorizontalRP ? getMaxFhdB(horizontal_rp, phi_min_degree, phi_max_degree) : 0;
+		double eirp[] = new double[getNRadioSources()];
+		for (int i = 0; i < eirp.length; i++) {
+			double tilt_rad = deg2rad(tilt_degree[i]);
+			double closest = Math.min(Math.max(tilt_rad, theta_min_rad), theta_max_rad);
+			double Fv = getFvdB(closest, tilt_rad, theta_bw_vertical_rad[i], envelope_db[i]);
+			eirp[i] = eirp_max_dbm[i] + Fv + maxFh;
+		}
+		return eirp;
+	}
+	public static double getMaxFhdB(double[] horizontal_rp, double phi_min_degree, double phi_max_degree) {
+		if (phi_max_degree - phi_min_degree >= 360)
+			phi_max_degree = phi_min_degree + 360;
+		double maxFh = Double.NEGATIVE_INFINITY;
+		for (int angle = (int)Math.floor(phi_min_degree); angle <= (int)Math.ceil(phi_max_degree); angle++)
+			maxFh = Math.max(maxFh, horizontal_rp[((angle % 360) + 360) % 360]);
+		return maxFh;
+	}
+	// Gain of the horizontal radiation pattern (dB) in the direction of the probe
+	// (0 if the horizontal radiation pattern is not used)
+	public double getHorizontalGaindB(Point3D radioSource, Point3D probe) {
+		return useHorizontalRP ? getFhdB(Functions.getPhiDegree(radioSource, probe)) : 0;
+	}
+	public boolean isUsingHorizontalRP() {
+		return useHorizontalRP;
+	}
 	
-	private double getFvdB(double theta_rad, double tilt_rad, 
+	// Vertical radiation pattern (dB). With envelope_db = Double.NEGATIVE_INFINITY it returns
+	// the main lobe alone, so getFvdB(theta, tilt, bw, env) = max(getFvdB(theta, tilt, bw, -Inf), env)
+	public static double getFvdB(double theta_rad, double tilt_rad, 
 			double theta_bw_vertical_rad, double envelope_db) {
 		double firstNull = 2.257*theta_bw_vertical_rad/2;
 		double firstNullMin = tilt_rad - firstNull;
@@ -116,6 +165,10 @@ public class DirectivityCat2BSWith3Sectors extends BaseStation {
 	}
 	
 	private double getFhdB(double angle) {	
+		return getFhdB(horizontal_rp, angle);
+	}
+	// Linear interpolation of a horizontal radiation pattern sampled every degree (361 values)
+	public static double getFhdB(double[] horizontal_rp, double angle) {
 		// angle should be between 0 and 360
 		int iAngle = (int)Math.floor(angle);
 		int fAngle = (int)Math.ceil(angle);
@@ -127,6 +180,14 @@ public class DirectivityCat2BSWith3Sectors extends BaseStation {
 
 		return horizontal_rp[iAngle] + (diff)/(fAngle - iAngle)*(horizontal_rp[fAngle] - horizontal_rp[iAngle]);
 	}
+	public double[] getHorizontalRP() {
+		return horizontal_rp;
+	}
+	// Horizontal radiation pattern sampled every degree (361 values, 0 to 360 degrees)
+	public void setHorizontalRP(double[] horizontal_rp) {
+		this.horizontal_rp = horizontal_rp;
+		max_horizontal_rp_db = Double.NaN;
+	}
 	
 	@Override
 	public String doToString(String separator) {
@@ -0,0 +1,126 @@
+package telecom.basestation;
+
+import static java.lang.Math.ceil;
+import static java.lang.Math.floor;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 2D (azimuth, elevation) table of the relative gain (dB, <= 0) of an AntennaPattern, sampled every
+ * degree: azimuth 0..360 (clockwise from the boresight) and elevation -90..90 (positive below the
+ * horizon, as the vertical cut of the MSI files). Lookups are bilinear interpolations, so a
+ * realistic antenna costs about the same as the analytic model of DirectivityCat2BSWith3Sectors.
+ * 
+ * The 3D pattern is reconstructed from the two cuts: the horizontal attenuation H(phi), taken as the
+ * cut through the main beam, plus the vertical attenuation relative to the main beam elevation
+ * theta_max (minimum of the front half of V). The vertical cut is blended between its front 
+ * (V(theta)) and back (V(180 - theta)) halves according to the azimuth:
+ * 
+ * 	A(phi, theta) = H(phi) + Vphi(theta) - Vphi(theta_max)
+ * 	Vphi(theta) = (1-w)*V(theta) + w*V(180-theta), w = |phi|/180
+ * 
+ * It is exact on both cuts (electrically tilted patterns included). The attenuation is limited to 
+ * the largest attenuation of the cuts.
+ * 
+ * Tables are compiled once per pattern contents (see AntennaPattern.getContentHash) and shared.
+ */
+public class GainTable {
+	private static final int N_AZIMUTH = 361;
+	private static final int N_ELEVATION = 181;
+	private static final ConcurrentHashMap<String, GainTable> cache = new ConcurrentHashMap<String, GainTable>();
+
+	// gain[elevation + 90][azimuth]
+	private double[] gain = new double[N_AZIMUTH*N_ELEVATION];
+	private double maxGaindB;
+	// Maximum of each elevation row
+	private double[] rowMaxGain = new double[N_ELEVATION];
+
+	private GainTable(AntennaPattern pattern) {
+		double[] h = pattern.getHorizontalCut();
+		double[] v = pattern.getVerticalCut();
+		double maxAttenuation = 0;
+		for (int i = 0; i < 360; i++)
+			maxAttenuation = max(maxAttenuation, max(h[i], v[i]));
+
+		// Elevation of the main beam
+		int thetaMax = 0;
+		for (int theta = -90; theta <= 90; theta++)
+			if (v[(theta + 360) % 360] < v[(thetaMax + 360) % 360])
+				thetaMax = theta;
+		double vFrontMax = v[(thetaMax + 360) % 360];
+		double vBackMax = v[(180 - thetaMax + 360) % 360];
+
+		maxGaindB = Double.NEGATIVE_INFINITY;
+		for (int e = 0; e < N_ELEVATION; e++) {
+			int theta = e - 90;
+			double vFront = v[(theta + 360) % 360];
+			double vBack = v[(180 - theta + 360) % 360];
+			for (int a = 0; a < N_AZIMUTH; a++) {
+				double phi = a <= 180 ? a : 360 - a;
+				double w = phi/180;
+				double vPhi = (1 - w)*vFront + w*vBack;
+				double vPhiMax = (1 - w)*vFrontMax + w*vBackMax;
+				double attenuation = h[a % 360] + vPhi - vPhiMax;
+				attenuation = min(max(attenuation, 0), maxAttenuation);
+				gain[e*N_AZIMUTH + a] = -attenuation;
+				maxGaindB = max(maxGaindB, -attenuation);
+				rowMaxGain[e] = a == 0 ? -attenuation : max(rowMaxGain[e], -attenuation);
+			}
+		}
+	}
+	// Compiled table of the pattern, shared by all patterns with the same contents
+	public static GainTable get(AntennaPattern pattern) {
+		return cache.computeIfAbsent(pattern.getContentHash(), hash -> new GainTable(pattern));
+	}
+	public static int getCacheSize() {
+		return cache.size();
+	}
+	public static void clearCache() {
+		cache.clear();
+	}
+
+	// azimuth_degree: clockwise from the boresight (any value, it is wrapped to 0..360)
+	// elevation_degree: positive below the horizon, clamped to -90..90
+	public double getGaindB(double azimuth_degree, double elevation_degree) {
+		double a = azimuth_degree % 360;
+		if (a < 0) a += 360;
+		double e = min(max(elevation_degree, -90), 90) + 90;
+
+		int a0 = (int) floor(a);
+		int e0 = (int) floor(e);
+		if (a0 >= N_AZIMUTH - 1) a0 = N_AZIMUTH - 2;
+		if (e0 >= N_ELEVATION - 1) e0 = N_ELEVATION - 2;
+		double da = a - a0;
+		double de = e - e0;
+
+		int i = e0*N_AZIMUTH + a0;
+		double g0 = gain[i] + da*(gain[i + 1] - gain[i]);
+		double g1 = gain[i + N_AZIMUTH] + da*(gain[i + N_AZIMUTH + 1] - gain[i + N_AZIMUTH]);
+		return g0 + de*(g1 - g0);
+	}
+	// Upper bound of getGaindB
+	public double getMaxGaindB() {
+		return maxGaindB;
+	}
+	// Upper bound of getGaindB for azimuths in the clockwise arc [min_azimuth_degree, max_azimuth_degree]
+	// and elevations in [min_elevation_degree, max_elevation_degree]
+	public double getMaxGaindB(double min_azimuth_degree, double max_azimuth_degree,
+			double min_elevation_degree, double max_elevation_degree) {
+		int e0 = (int) floor(min(max(min_elevation_degree, -90), 90)) + 90;
+		int e1 = (int) ceil(min(max(max_elevation_degree, -90), 90)) + 90;
+		double maxGain = Double.NEGATIVE_INFINITY;
+		if (max_azimuth_degree - min_azimuth_degree >= 360) {
+			for (int e = e0; e <= e1; e++)
+				maxGain = max(maxGain, rowMaxGain[e]);
+			return maxGain;
+		}
+		int a0 = (int) floor(min_azimuth_degree);
+		int a1 = (int) ceil(max_azimuth_degree);
+		for (int e = e0; e <= e1; e++)
+			for (int a = a0; a <= a1; a++)
+				maxGain = max(maxGain, gain[e*N_AZIMUTH + ((a % 360) + 360) % 360]);
+		return maxGain;
+	}
+}
@@ -0,0 +1,174 @@
+package telecom.basestation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import telecom.util.Functions;
+import telecom.util.Parser;
+import telecom.util.Point2D;
+import telecom.util.Point3D;
+
+/**
+ * This class represents a Base Station whose radio sources use antenna patterns read from MSI
+ * (Planet) files (see AntennaPattern), e.g. the Kathrein antennas used as reference in Test.main.
+ * Each radio source has its own pattern file, azimuth (degrees, clockwise from the north) and 
+ * mechanical downtilt (degrees, positive downwards). The mechanical tilt is modeled as a shift
+ * of the elevation angle, which is exact in the vertical plane of the boresight.
+ * 
+ * eirp_max_dbm is the EIRP in the direction of maximum gain (transmitted power + antenna gain,
+ * see AntennaPattern.getGaindBi).
+ * 
+ * The patterns are compiled into shared GainTable objects, so a realistic pattern costs two
+ * bilinear interpolations per evaluation.
+ * 
+ * A base station built from AntennaPattern objects (not read from files) is written by toString
+ * with "memory:<pattern name>" in place of each file name. It cannot be rebuilt by fromString,
+ * which throws IllegalArgumentException for these entries.
+ */
+public class PatternFileBS extends BaseStation {
+	// File name written for the patterns that were not read from files
+	public static final String IN_MEMORY_PREFIX = "memory:";
+
+	private double[] azimuth_degree;
+	private double[] tilt_degree;
+	private double[] eirp_max_dbm;
+	private String[] pattern_file;
+	private GainTable[] gainTable;
+
+	public PatternFileBS() {
+		
+	}
+	public PatternFileBS(String name, Point2D position, 
+			double[] height, double[] frequency_mhz, 
+			double[] azimuth_degree, double[] tilt_degree, 
+			double[] eirp_max_dbm, String[] pattern_file) throws IOException {
+		super(name, position, height, frequency_mhz);
+		setAzimuthDegree(azimuth_degree);
+		setTiltDegree(tilt_degree);
+		setEirpMaxdBm(eirp_max_dbm);
+		setPatternFiles(pattern_file);
+	}
+	// Base station with patterns that were not read from files (the pattern file names are
+	// IN_MEMORY_PREFIX + the pattern name)
+	public PatternFileBS(String name, Point2D position, 
+			double[] height, double[] frequency_mhz, 
+			double[] azimuth_degree, double[] tilt_degree, 
+			double[] eirp_max_dbm, AntennaPattern[] patterns) {
+		super(name, position, height, frequency_mhz);
+		setAzimuthDegree(azimuth_degree);
+		setTiltDegree(tilt_degree);
+		setEirpMaxdBm(eirp_max_dbm);
+		pattern_file = new String[patterns.length];
+		gainTable = new GainTable[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			pattern_file[i] = IN_MEMORY_PREFIX + patterns[i].getName();
+			gainTable[i] = GainTable.get(patterns[i]);
+		}
+	}
+
+	public double[] getEIRPdBm(Point3D probe) {
+		int NRadioSources = getNRadioSources();
+		double eirp[] = new double[NRadioSources];
+		for (int i = 0; i < NRadioSources; i++) {
+			Point3D radioSource = new Point3D(
+					getX(), 
+					getY(), 
+					getHeight()[i]);
+			double theta_degree = Functions.getThetaDegree(radioSource, probe);
+			double phi_degree = Functions.getPhiDegree(radioSource, probe);
+			eirp[i] = eirp_max_dbm[i] + gainTable[i].getGaindB(phi_degree - azimuth_degree[i], 
+					theta_degree - tilt_degree[i]);
+		}
+		return eirp;
+	}
+
+	@Override
+	public double[] getMaxEIRPdBm() {
+		double eirp[] = new double[getNRadioSources()];
+		for (int i = 0; i < eirp.length; i++)
+			eirp[i] = eirp_max_dbm[i] + gainTable[i].getMaxGaindB();
+		return eirp;
+	}
+
+	@Override
+	public double[] getMaxEIRPdBm(double theta_min_rad, double theta_max_rad, 
+			double phi_min_degree, double phi_max_degree) {
+		double eirp[] = new double[getNRadioSources()];
+		for (int i = 0; i < eirp.length; i++)
+			eirp[i] = eirp_max_dbm[i] + gainTable[i].getMaxGaindB(
+					phi_min_degree - azimuth_degree[i], phi_max_degree - azimuth_degree[i],
+					Functions.rad2deg(theta_min_rad) - tilt_degree[i], Functions.rad2deg(theta_max_rad) - tilt_degree[i]);
+		return eirp;
+	}
+
+	@Override
+	public String doToString(String separator) {
+		String result = Parser.codeDoubleArray(getAzimuthDegree()) + separator +
+				Parser.codeDoubleArray(getTiltDegree()) + separator + 
+				Parser.codeDoubleArray(getEirpMaxdBm()) + separator +
+				getPatternFiles().length + separator;
+		for (String file : getPatternFiles())
+			result += Parser.codeWhitespaces(file) + separator;
+		return result;
+	}
+	@Override
+	public void doFromString(ArrayList<String> strings) {
+		setAzimuthDegree(Parser.uncodeDoubleArray(strings.remove(0)));
+		setTiltDegree(Parser.uncodeDoubleArray(strings.remove(0)));
+		setEirpMaxdBm(Parser.uncodeDoubleArray(strings.remove(0)));
+		int n = Integer.parseInt(strings.remove(0));
+		String[] files = new String[n];
+		for (int i = 0; i < n; i++)
+			files[i] = Parser.uncodeWhitespaces(strings.remove(0));
+		try {
+			setPatternFiles(files);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read antenna pattern: " + e.getMessage(), e);
+		}
+	}
+
+	public double[] getAzimuthDegree() {
+		if (azimuth_degree == null)
+			azimuth_degree = new double[0];
+		return azimuth_degree;
+	}
+	public void setAzimuthDegree(double[] azimuthDegree) {
+		azimuth_degree = azimuthDegree;
+	}
+	public double[] getTiltDegree() {
+		if (tilt_degree == null)
+			tilt_degree = new double[0];
+		return tilt_degree;
+	}
+	public void setTiltDegree(double[] tiltDegree) {
+		tilt_degree = tiltDegree;
+	}
+	public double[] getEirpMaxdBm() {
+		if (eirp_max_dbm == null)
+			eirp_max_dbm = new double[0];
+		return eirp_max_dbm;
+	}
+	public void setEirpMaxdBm(double[] eirpMaxdbm) {
+		eirp_max_dbm = eirpMaxdbm.clone();
+	}
+	public String[] getPatternFiles() {
+		if (pattern_file == null)
+			pattern_file = new String[0];
+		return pattern_file;
+	}
+	public void setPatternFiles(String[] files) throws IOException {
+		GainTable[] tables = new GainTable[files.length];
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].startsWith(IN_MEMORY_PREFIX))
+				throw new IllegalArgumentException("Antenna pattern " + files[i].substring(IN_MEMORY_PREFIX.length()) 
+						+ " was not read from a file and cannot be loaded again");
+			tables[i] = GainTable.get(AntennaPattern.load(Path.of(files[i])));
+		}
+		pattern_file = files;
+		gainTable = tables;
+	}
+	public GainTable[] getGainTables() {
+		return gainTable;
+	}
+}
@@ -0,0 +1,168 @@
+package telecom.basestation;
+
+import static java.lang.Math.pow;
+import static telecom.util.Functions.dB2Watt;
+import static telecom.util.Functions.get2DDistanceKM;
+import static telecom.util.Functions.getICNIRPLimits;
+import static telecom.util.Functions.getPhiDegree;
+import static telecom.util.Functions.getThetaRad;
+import static telecom.util.Functions.power2electricfield;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import telecom.nir.NIR;
+import telecom.propagation.PropagationModel;
+import telecom.util.Pair;
+import telecom.util.Point2D;
+import telecom.util.Point3D;
+
+/**
+ * Compact representation of a large network of base stations: each station is only a position,
+ * an azimuth and the index of a shared StationTemplate (about 28 bytes per station, against
+ * several hundred bytes for a DirectivityCat2BSWith3Sectors object with its arrays and its own
+ * copy of the horizontal radiation pattern). The station id is its index in the network.
+ * 
+ * The stations can be added one by one (add is synchronized) or, for parallel creation, the
+ * network can be created with its final size and filled with setStation from several threads
+ * (each index must be written by a single thread). Templates can be added (addTemplate) while
+ * other threads call setStation.
+ * 
+ * evalEandTERAtProbe gives the same result as NIR.evalEandTERAtProbe with the equivalent base
+ * stations (see toNIR) when the azimuths are integer degrees. For other azimuths it interpolates the
+ * template pattern once, at the rotated angle, while the base stations of toNIR carry the pattern
+ * resampled at integer degrees (StationTemplate.createBaseStation) and interpolate it again: their
+ * horizontal gain can differ by the interpolation error between two samples of the pattern.
+ */
+public class StationNetwork {
+	// Copy on write: setStation reads them from several threads while addTemplate may append. The
+	// propagation model is appended first, so a template index seen in templates is complete
+	private List<StationTemplate> templates = new CopyOnWriteArrayList<StationTemplate>();
+	private List<PropagationModel> propagationModels = new CopyOnWriteArrayList<PropagationModel>();
+	private int n;
+	private double[] x;
+	private double[] y;
+	private double[] azimuth_degree;
+	private int[] template;
+
+	public StationNetwork() {
+		this(16);
+		n = 0;
+	}
+	// Network with nStations stations, to be set with setStation
+	public StationNetwork(int nStations) {
+		n = nStations;
+		x = new double[nStations];
+		y = new double[nStations];
+		azimuth_degree = new double[nStations];
+		template = new int[nStations];
+	}
+	// Returns the index of the template. The same template (and propagation model) is stored only once
+	public synchronized int addTemplate(StationTemplate t, PropagationModel pm) {
+		for (int i = 0; i < templates.size(); i++)
+			if (templates.get(i).equals(t) && propagationModels.get(i) == pm)
+				return i;
+		propagationModels.add(pm);
+		templates.add(t);
+		return templates.size() - 1;
+	}
+	// Returns the id (index) of the new station
+	public synchronized int add(double xBS, double yBS, double azimuthDegree, int templateIndex) {
+		if (n == x.length) {
+			int capacity = 2*n + 1;
+			x = Arrays.copyOf(x, capacity);
+			y = Arrays.copyOf(y, capacity);
+			azimuth_degree = Arrays.copyOf(azimuth_degree, capacity);
+			template = Arrays.copyOf(template, capacity);
+		}
+		setStation(n, xBS, yBS, azimuthDegree, templateIndex);
+		return n++;
+	}
+	public void setStation(int i, double xBS, double yBS, double azimuthDegree, int templateIndex) {
+		if (templateIndex < 0 || templateIndex >= templates.size())
+			throw new IllegalArgumentException("Unknown template: " + templateIndex);
+		x[i] = xBS;
+		y[i] = yBS;
+		azimuth_degree[i] = StationTemplate.normalizeDegree(azimuthDegree);
+		template[i] = templateIndex;
+	}
+	// Frees the unused capacity
+	public synchronized void trimToSize() {
+		x = Arrays.copyOf(x, n);
+		y = Arrays.copyOf(y, n);
+		azimuth_degree = Arrays.copyOf(azimuth_degree, n);
+		template = Arrays.copyOf(template, n);
+	}
+
+	// Builds a network from the base stations of a NIR evaluator (only DirectivityCat2BSWith3Sectors
+	// is supported; the azimuth of the stations is 0)
+	public static StationNetwork of(NIR nir) {
+		StationNetwork network = new StationNetwork(nir.getNBaseStations());
+		for (int b = 0; b < nir.getNBaseStations(); b++) {
+			BaseStation bs = nir.getBaseStation(b);
+			if (!(bs instanceof DirectivityCat2BSWith3Sectors))
+				throw new IllegalArgumentException("Unsupported base station type: " + bs.getClass().getName());
+			int t = network.addTemplate(StationTemplate.of((DirectivityCat2BSWith3Sectors) bs), nir.getPropagationModel(b));
+			network.setStation(b, bs.getX(), bs.getY(), 0, t);
+		}
+		return network;
+	}
+	// Creates the equivalent NIR evaluator (one DirectivityCat2BSWith3Sectors per station; exact for
+	// azimuths that are integer degrees, see the class comment)
+	public NIR toNIR() {
+		NIR nir = new NIR();
+		for (int i = 0; i < n; i++)
+			nir.addBaseStation(getBaseStation(i), propagationModels.get(template[i]));
+		return nir;
+	}
+	public DirectivityCat2BSWith3Sectors getBaseStation(int i) {
+		return templates.get(template[i]).createBaseStation("" + i, new Point2D(x[i], y[i]), azimuth_degree[i]);
+	}
+
+	// Consider only the base stations that are at least minDist meters apart form the probe
+	public Pair<Double, Double> evalEandTERAtProbe(Point3D probe, double minDist) {
+		double E_field_total = 0;
+		double TER = 0;
+		for (int b = 0; b < n; b++) {
+			StationTemplate t = templates.get(template[b]);
+			PropagationModel pm = propagationModels.get(template[b]);
+			for (int i = 0; i < t.getNRadioSources(); i++) {
+				Point3D txPos = new Point3D(x[b], y[b], t.getHeight(i));
+				if (get2DDistanceKM(txPos, probe)*1000 <= minDist)
+					continue;
+				double phi = azimuth_degree[b] == 0 ? getPhiDegree(txPos, probe) 
+						: StationTemplate.normalizeDegree(getPhiDegree(txPos, probe) - azimuth_degree[b]);
+				double f = t.getFrequencyMHz(i);
+				double rxIsotropicPower = t.getEIRPdBm(i, getThetaRad(txPos, probe), phi) - 30 
+						- pm.getPathLoss(txPos, probe, f);
+				double E_field_bs_i = power2electricfield(dB2Watt(rxIsotropicPower), f);
+				E_field_total += pow(E_field_bs_i, 2);
+				TER += pow(E_field_bs_i/getICNIRPLimits(f), 2);
+			}
+		}
+		return new Pair<Double, Double>(pow(E_field_total, 0.5), TER*100);
+	}
+
+	public int size() {
+		return n;
+	}
+	public int getNTemplates() {
+		return templates.size();
+	}
+	public StationTemplate getTemplate(int t) {
+		return templates.get(t);
+	}
+	public double getX(int i) {
+		return x[i];
+	}
+	public double getY(int i) {
+		return y[i];
+	}
+	public double getAzimuthDegree(int i) {
+		return azimuth_degree[i];
+	}
+	public int getTemplateIndex(int i) {
+		return template[i];
+	}
+}
@@ -0,0 +1,154 @@
+package telecom.basestation;
+
+import static telecom.util.Functions.deg2rad;
+
+import java.util.Arrays;
+
+import telecom.util.Point2D;
+
+/**
+ * Immutable configuration of a DirectivityCat2BSWith3Sectors base station (heights, frequencies,
+ * tilts, vertical beamwidths, EIRPs, side lobe envelopes and horizontal radiation pattern of its
+ * radio sources). Thousands of stations of a network usually share the same configuration, so a
+ * StationNetwork stores it once and keeps only the position, the azimuth and the template index
+ * of each station.
+ * 
+ * The arrays are copied when the template is created and the getters return copies, so a template
+ * can be shared by any number of stations and threads.
+ */
+public final class StationTemplate {
+	private final String name;
+	private final double[] height;
+	private final double[] frequency_mhz;
+	private final double[] tilt_degree;
+	private final double[] tilt_rad;
+	private final double[] theta_bw_vertical_rad;
+	private final double[] theta_bw_vertical_degree;
+	private final double[] eirp_max_dbm;
+	private final double[] envelope_db;
+	private final boolean useHorizontalRP;
+	private final double[] horizontal_rp;
+
+	public StationTemplate(String name, double[] height, double[] frequency_mhz, 
+			double[] tilt_degree, double[] theta_bw_vertical_degree, 
+			double[] eirp_max_dbm, double[] max_envelope_side_lobe_db,
+			boolean useHorizontalRP, double[] horizontal_rp) {
+		int n = height.length;
+		if (frequency_mhz.length != n || tilt_degree.length != n || theta_bw_vertical_degree.length != n
+				|| eirp_max_dbm.length != n || max_envelope_side_lobe_db.length != n)
+			throw new IllegalArgumentException("All the arrays of a template must have one value per radio source");
+		if (horizontal_rp.length != 361)
+			throw new IllegalArgumentException("The horizontal radiation pattern must have 361 values (one per degree)");
+		this.name = name;
+		this.height = height.clone();
+		this.frequency_mhz = frequency_mhz.clone();
+		this.tilt_degree = tilt_degree.clone();
+		this.tilt_rad = deg2rad(tilt_degree);
+		this.theta_bw_vertical_degree = theta_bw_vertical_degree.clone();
+		this.theta_bw_vertical_rad = deg2rad(theta_bw_vertical_degree);
+		this.eirp_max_dbm = eirp_max_dbm.clone();
+		this.envelope_db = max_envelope_side_lobe_db.clone();
+		this.useHorizontalRP = useHorizontalRP;
+		this.horizontal_rp = horizontal_rp.clone();
+	}
+	public StationTemplate(String name, double[] height, double[] frequency_mhz, 
+			double[] tilt_degree, double[] theta_bw_vertical_degree, 
+			double[] eirp_max_dbm, double[] max_envelope_side_lobe_db,
+			boolean useHorizontalRP) {
+		this(name, height, frequency_mhz, tilt_degree, theta_bw_vertical_degree, eirp_max_dbm, 
+				max_envelope_side_lobe_db, useHorizontalRP, DirectivityCat2BSWith3Sectors.get3GPPHorizontalRP());
+	}
+	// Configuration of an existing base station (its position and name are not part of the template)
+	public static StationTemplate of(DirectivityCat2BSWith3Sectors bs) {
+		return new StationTemplate("", bs.getHeight(), bs.getFrequencyMHz(), bs.getTiltDegree(), 
+				bs.getThetaBwVerticalDegree(), bs.getEirpMaxdBm(), bs.getMaxSideLobeEnvelopedB(), 
+				bs.isUsingHorizontalRP(), bs.getHorizontalRP());
+	}
+
+	public int getNRadioSources() {
+		return height.length;
+	}
+	// EIRP (dBm) of the radio source i towards a probe at elevation theta_rad (see Functions.getThetaRad)
+	// and azimuth phi_degree (see Functions.getPhiDegree), relative to the azimuth of the station
+	public double getEIRPdBm(int i, double theta_rad, double phi_degree) {
+		double Fv = DirectivityCat2BSWith3Sectors.getFvdB(theta_rad, tilt_rad[i], theta_bw_vertical_rad[i], envelope_db[i]);
+		double Fh = useHorizontalRP ? DirectivityCat2BSWith3Sectors.getFhdB(horizontal_rp, phi_degree) : 0;
+		return eirp_max_dbm[i] + Fv + Fh;
+	}
+	public double getHeight(int i) {
+		return height[i];
+	}
+	public double getFrequencyMHz(int i) {
+		return frequency_mhz[i];
+	}
+
+	// Creates a stand-alone base station with this configuration. The horizontal pattern is rotated
+	// by azimuth_degree (clockwise) and resampled at integer degrees, so for a non-integer azimuth the
+	// station interpolates an already interpolated pattern
+	public DirectivityCat2BSWith3Sectors createBaseStation(String name, Point2D position, double azimuth_degree) {
+		DirectivityCat2BSWith3Sectors bs = new DirectivityCat2BSWith3Sectors(name, position, height.clone(), 
+				frequency_mhz.clone(), tilt_degree.clone(), theta_bw_vertical_degree.clone(), 
+				eirp_max_dbm.clone(), envelope_db.clone(), useHorizontalRP);
+		bs.setHorizontalRP(rotate(horizontal_rp, azimuth_degree));
+		return bs;
+	}
+	private static double[] rotate(double[] rp, double azimuth_degree) {
+		if (azimuth_degree == 0)
+			return rp.clone();
+		double[] rotated = new double[rp.length];
+		for (int a = 0; a < rotated.length; a++)
+			rotated[a] = DirectivityCat2BSWith3Sectors.getFhdB(rp, normalizeDegree(a - azimuth_degree));
+		return rotated;
+	}
+	// Angle in [0, 360[
+	public static double normalizeDegree(double angle) {
+		angle %= 360;
+		return angle < 0 ? angle + 360 : angle;
+	}
+
+	public String getName() {
+		return name;
+	}
+	public double[] getHeight() {
+		return height.clone();
+	}
+	public double[] getFrequencyMHz() {
+		return frequency_mhz.clone();
+	}
+	public double[] getTiltDegree() {
+		return tilt_degree.clone();
+	}
+	public double[] getThetaBwVerticalDegree() {
+		return theta_bw_vertical_degree.clone();
+	}
+	public double[] getEirpMaxdBm() {
+		return eirp_max_dbm.clone();
+	}
+	public double[] getMaxSideLobeEnvelopedB() {
+		return envelope_db.clone();
+	}
+	public boolean isUsingHorizontalRP() {
+		return useHorizontalRP;
+	}
+	public double[] getHorizontalRP() {
+		return horizontal_rp.clone();
+	}
+
+	// Two templates are equal when all the parameters are equal (the name is ignored)
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof StationTemplate))
+			return false;
+		StationTemplate t = (StationTemplate) o;
+		return useHorizontalRP == t.useHorizontalRP && Arrays.equals(height, t.height) 
+				&& Arrays.equals(frequency_mhz, t.frequency_mhz) && Arrays.equals(tilt_degree, t.tilt_degree)
+				&& Arrays.equals(theta_bw_vertical_degree, t.theta_bw_vertical_degree) 
+				&& Arrays.equals(eirp_max_dbm, t.eirp_max_dbm) && Arrays.equals(envelope_db, t.envelope_db)
+				&& (!useHorizontalRP || Arrays.equals(horizontal_rp, t.horizontal_rp));
+	}
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(height) + 31*Arrays.hashCode(frequency_mhz) + 961*Arrays.hashCode(eirp_max_dbm)
+				+ 29791*Arrays.hashCode(tilt_degree);
+	}
+}
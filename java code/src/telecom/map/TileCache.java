@@ -0,0 +1,168 @@
+package telecom.map;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Predicate;
+
+/**
+ * Least recently used cache of tiles (encoded as byte arrays), bounded by the total number of
+ * bytes. Concurrent requests for a tile that is not in the cache share the same computation: the
+ * first one starts it in the executor and the others wait for its result.
+ * 
+ * A tile whose computation was requested before an invalidation is returned to the requests that
+ * were waiting for it, but it is not cached (it may have been computed from outdated data). The
+ * invalidation also detaches it from the key, so later requests start a new computation instead of
+ * joining the outdated one. A tile derived from other tiles (e.g. an image rendered from a numeric
+ * tile) is requested with the generation read before its inputs were fetched (getGeneration), so it
+ * is not cached either if they were invalidated in the meantime.
+ * 
+ * abort completes the pending computations exceptionally, e.g. when the executor is shut down and
+ * the queued computations will never run.
+ */
+public class TileCache {
+	private long maxBytes;
+	private long bytes = 0;
+	private LinkedHashMap<String, byte[]> tiles = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private ConcurrentHashMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<String, CompletableFuture<byte[]>>();
+	// Computations not finished yet, including the ones detached from their key by an invalidation
+	private Set<CompletableFuture<byte[]>> pending = ConcurrentHashMap.newKeySet();
+	private ExecutorService executor;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long shared = 0;
+	private long evictions = 0;
+	private long generation = 0;
+
+	public TileCache(long maxBytes, ExecutorService executor) {
+		this.maxBytes = maxBytes;
+		this.executor = executor;
+	}
+
+	// Returns the cached tile, or computes it (once, even if requested by several threads)
+	public byte[] get(String key, Callable<byte[]> compute) throws Exception {
+		return get(key, compute, getGeneration());
+	}
+	// Same as above; a new computation is cached only if nothing was invalidated since startGeneration
+	public byte[] get(String key, Callable<byte[]> compute, long startGeneration) throws Exception {
+		synchronized (this) {
+			byte[] tile = tiles.get(key);
+			if (tile != null) {
+				hits++;
+				return tile;
+			}
+		}
+		CompletableFuture<byte[]> created = new CompletableFuture<byte[]>();
+		CompletableFuture<byte[]> future = inFlight.putIfAbsent(key, created);
+		if (future == null) {
+			synchronized (this) {
+				misses++;
+			}
+			future = created;
+			pending.add(created);
+			try {
+				executor.execute(() -> {
+					// Detached before it is completed, so no request joins a finished (maybe not cached) computation
+					try {
+						byte[] tile = compute.call();
+						synchronized (this) {
+							if (generation == startGeneration)
+								put(key, tile);
+						}
+						finished(key, created);
+						created.complete(tile);
+					} catch (Throwable t) {
+						finished(key, created);
+						created.completeExceptionally(t);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				finished(key, created);
+				created.completeExceptionally(e);
+			}
+		} else {
+			synchronized (this) {
+				shared++;
+			}
+		}
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+	}
+	private void finished(String key, CompletableFuture<byte[]> future) {
+		inFlight.remove(key, future);
+		pending.remove(future);
+	}
+	// Incremented by every invalidation
+	public synchronized long getGeneration() {
+		return generation;
+	}
+	// Completes the pending computations with the exception (the requests waiting for them throw it)
+	public void abort(Exception e) {
+		for (CompletableFuture<byte[]> future : pending)
+			future.completeExceptionally(e);
+		pending.clear();
+		inFlight.clear();
+	}
+	public synchronized void put(String key, byte[] tile) {
+		if (tile.length > maxBytes)
+			return;
+		byte[] old = tiles.put(key, tile);
+		if (old != null)
+			bytes -= old.length;
+		bytes += tile.length;
+		Iterator<Map.Entry<String, byte[]>> it = tiles.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= it.next().getValue().length;
+			it.remove();
+			evictions++;
+		}
+	}
+	// Removes the tiles whose key matches the predicate. Returns the number of tiles removed
+	public synchronized int invalidate(Predicate<String> matches) {
+		generation++;
+		inFlight.keySet().removeIf(matches);
+		int removed = 0;
+		Iterator<Map.Entry<String, byte[]>> it = tiles.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, byte[]> entry = it.next();
+			if (matches.test(entry.getKey())) {
+				bytes -= entry.getValue().length;
+				it.remove();
+				removed++;
+			}
+		}
+		return removed;
+	}
+	public synchronized void clear() {
+		generation++;
+		inFlight.clear();
+		tiles.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		return tiles.size();
+	}
+	public synchronized long getBytes() {
+		return bytes;
+	}
+	public synchronized String getSummary() {
+		return "Tiles: " + tiles.size() + "\n"
+				+ "Bytes: " + bytes + " / " + maxBytes + "\n"
+				+ "Hits: " + hits + "\n"
+				+ "Misses: " + misses + "\n"
+				+ "Shared computations: " + shared + "\n"
+				+ "Evictions: " + evictions + "\n";
+	}
+}
@@ -0,0 +1,308 @@
+package telecom.map;
+
+import static java.lang.Math.log10;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.pow;
+import static java.lang.Math.sqrt;
+import static telecom.util.Functions.getICNIRPLimits;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import telecom.basestation.BaseStation;
+import telecom.nir.NIR;
+import telecom.propagation.PropagationModel;
+import telecom.simulation.Deployment;
+import telecom.simulation.Scenario;
+import telecom.util.Pair;
+import telecom.util.Point3D;
+
+/**
+ * Embedded HTTP server (bound to the loopback interface only) that computes exposure map tiles on
+ * demand with the NIR evaluator. The map covers the square [xMin, xMin + side] x [yMin, yMin + side]
+ * (meters). At zoom level z it is split in 2^z x 2^z tiles; tile (x, y) is counted from the
+ * north-west corner, as in web maps. Each tile has tileSize x tileSize pixels, evaluated at the
+ * center of the pixel.
+ * 
+ * Requests:
+ * 	/tiles/z/x/y.bin	TER (%) of every pixel, float32 little endian, rows from north to south
+ * 	/tiles/z/x/y.png	TER rendered from -60 dB (blue) to 0 dB (red) relative to the limit
+ * 	/stats				cache statistics
+ * 	/?z=..&x=..&y=..	simple viewer (3 x 3 tiles, with pan and zoom links)
+ * 
+ * Both kinds of tiles share a byte-bounded LRU TileCache. Base stations must be changed through
+ * addBaseStation, removeBaseStation and replaceBaseStation: they invalidate only the tiles within
+ * the influence radius of the old and new station, the distance beyond which the station
+ * contributes less than invalidationTolerance (TER, %) with its maximum EIRP (getMaxEIRPdBm) in free
+ * space.
+ */
+public class TileServer {
+	private NIR nir;
+	private double hProbe;
+	private double minDist = 0;
+	private double xMin, yMin, side;
+	private int tileSize = 64;
+	private double invalidationTolerance = 1e-3;
+	private TileCache cache;
+	private ExecutorService tileExecutor;
+	private HttpServer server;
+	// Tiles are computed with the read lock; the base stations are changed with the write lock
+	private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	public TileServer(NIR nir, double hProbe, double xMin, double yMin, double side, long cacheBytes, int nThreads) {
+		this.nir = nir;
+		this.hProbe = hProbe;
+		this.xMin = xMin;
+		this.yMin = yMin;
+		this.side = side;
+		tileExecutor = Executors.newFixedThreadPool(nThreads);
+		cache = new TileCache(cacheBytes, tileExecutor);
+	}
+	public void setTileSize(int tileSize) {
+		this.tileSize = tileSize;
+		cache.clear();
+	}
+	public void setMinDist(double minDist) {
+		this.minDist = minDist;
+		cache.clear();
+	}
+	public void setInvalidationTolerance(double invalidationTolerance) {
+		this.invalidationTolerance = invalidationTolerance;
+	}
+	public TileCache getCache() {
+		return cache;
+	}
+
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/tiles/", this::handleTile);
+		server.createContext("/stats", exchange -> send(exchange, 200, "text/plain", cache.getSummary().getBytes(StandardCharsets.UTF_8)));
+		server.createContext("/", this::handleViewer);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+	}
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	// The tiles that are queued are not computed: their requests fail instead of waiting forever
+	public void stop() {
+		server.stop(0);
+		tileExecutor.shutdownNow();
+		cache.abort(new IllegalStateException("Tile server stopped"));
+	}
+
+	// Numeric tile: TER (%) of each pixel
+	public byte[] getNumericTile(int z, int x, int y) throws Exception {
+		checkTile(z, x, y);
+		return cache.get(key(z, x, y, "bin"), () -> computeTile(z, x, y));
+	}
+	// The generation is read before the numeric tile is fetched: if that tile is outdated by an
+	// invalidation, the image rendered from it is not cached
+	public byte[] getImageTile(int z, int x, int y) throws Exception {
+		long generation = cache.getGeneration();
+		byte[] numeric = getNumericTile(z, x, y);
+		return cache.get(key(z, x, y, "png"), () -> render(numeric), generation);
+	}
+	private static String key(int z, int x, int y, String type) {
+		return z + "/" + x + "/" + y + "." + type;
+	}
+	private void checkTile(int z, int x, int y) {
+		if (z < 0 || z > 30 || x < 0 || y < 0 || x >= (1 << z) || y >= (1 << z))
+			throw new IllegalArgumentException("Invalid tile: " + z + "/" + x + "/" + y);
+	}
+	private byte[] computeTile(int z, int x, int y) {
+		double size = side/(1 << z);
+		double x0 = xMin + x*size;
+		double yTop = yMin + side - y*size;
+		double pixel = size/tileSize;
+		ByteBuffer tile = ByteBuffer.allocate(4*tileSize*tileSize).order(ByteOrder.LITTLE_ENDIAN);
+		lock.readLock().lock();
+		try {
+			IntStream.range(0, tileSize*tileSize).parallel().forEach(k -> {
+				int i = k % tileSize;
+				int j = k / tileSize;
+				Point3D probe = new Point3D(x0 + (i + 0.5)*pixel, yTop - (j + 0.5)*pixel, hProbe);
+				Pair<Double, Double> eAndTer = nir.evalEandTERAtProbe(probe, minDist);
+				tile.putFloat(4*k, eAndTer.getSecond().floatValue());
+			});
+		} finally {
+			lock.readLock().unlock();
+		}
+		return tile.array();
+	}
+	private byte[] render(byte[] numeric) throws IOException {
+		ByteBuffer values = ByteBuffer.wrap(numeric).order(ByteOrder.LITTLE_ENDIAN);
+		BufferedImage image = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_RGB);
+		for (int k = 0; k < tileSize*tileSize; k++)
+			image.setRGB(k % tileSize, k / tileSize, color(values.getFloat(4*k)));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", out);
+		return out.toByteArray();
+	}
+	// Blue (-60 dB) - cyan - green - yellow - red (0 dB); white above the limit
+	private static int color(double ter) {
+		if (ter >= 100)
+			return 0xFFFFFF;
+		double t = ter <= 0 ? 0 : min(1, max(0, (10*log10(ter/100) + 60)/60));
+		double r = min(1, max(0, 4*t - 2));
+		double g = t < 0.25 ? 4*t : t > 0.75 ? 4 - 4*t : 1;
+		double b = min(1, max(0, 2 - 4*t));
+		return ((int) (255*r) << 16) | ((int) (255*g) << 8) | (int) (255*b);
+	}
+
+	public void addBaseStation(BaseStation bs, PropagationModel pm) {
+		lock.writeLock().lock();
+		try {
+			nir.addBaseStation(bs, pm);
+			invalidate(bs);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	public void removeBaseStation(int i) {
+		lock.writeLock().lock();
+		try {
+			BaseStation old = nir.getBaseStation(i);
+			nir.removeBaseStation(i);
+			invalidate(old);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	public void replaceBaseStation(int i, BaseStation bs, PropagationModel pm) {
+		lock.writeLock().lock();
+		try {
+			BaseStation old = nir.getBaseStation(i);
+			nir.replaceBaseStation(i, bs, pm);
+			invalidate(old);
+			invalidate(bs);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	// Returns the number of tiles removed from the cache
+	private int invalidate(BaseStation bs) {
+		double radius = getInfluenceRadius(bs);
+		double xs = bs.getX();
+		double ys = bs.getY();
+		return cache.invalidate(key -> {
+			String[] parts = key.substring(0, key.indexOf('.')).split("/");
+			int z = Integer.parseInt(parts[0]);
+			int x = Integer.parseInt(parts[1]);
+			int y = Integer.parseInt(parts[2]);
+			double size = side/(1 << z);
+			double x0 = xMin + x*size;
+			double y0 = yMin + side - (y + 1)*size;
+			double dx = max(0, max(x0 - xs, xs - (x0 + size)));
+			double dy = max(0, max(y0 - ys, ys - (y0 + size)));
+			return dx*dx + dy*dy <= radius*radius;
+		});
+	}
+	// E^2 = 30*EIRP/d^2 in free space
+	private double getInfluenceRadius(BaseStation bs) {
+		double[] eirp = bs.getMaxEIRPdBm();
+		double radius = 0;
+		for (int i = 0; i < eirp.length; i++) {
+			double limit = getICNIRPLimits(bs.getFrequencyMHz()[i]);
+			double eirpW = pow(10, (eirp[i] - 30)/10);
+			radius = max(radius, sqrt(30*eirpW*100/(limit*limit*invalidationTolerance)));
+		}
+		return radius;
+	}
+
+	private void handleTile(HttpExchange exchange) throws IOException {
+		try {
+			String[] parts = exchange.getRequestURI().getPath().substring("/tiles/".length()).split("/");
+			if (parts.length != 3 || parts[2].indexOf('.') < 0) {
+				send(exchange, 404, "text/plain", "Use /tiles/z/x/y.png or /tiles/z/x/y.bin".getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			int z = Integer.parseInt(parts[0]);
+			int x = Integer.parseInt(parts[1]);
+			String type = parts[2].substring(parts[2].indexOf('.') + 1);
+			int y = Integer.parseInt(parts[2].substring(0, parts[2].indexOf('.')));
+			if (type.equals("png"))
+				send(exchange, 200, "image/png", getImageTile(z, x, y));
+			else if (type.equals("bin"))
+				send(exchange, 200, "application/octet-stream", getNumericTile(z, x, y));
+			else
+				send(exchange, 404, "text/plain", ("Unknown tile type: " + type).getBytes(StandardCharsets.UTF_8));
+		} catch (IllegalArgumentException e) {
+			send(exchange, 400, "text/plain", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+		} catch (Exception e) {
+			send(exchange, 500, "text/plain", String.valueOf(e).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+	private void handleViewer(HttpExchange exchange) throws IOException {
+		int z = 2, x = 1, y = 1;
+		String query = exchange.getRequestURI().getQuery();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				String[] kv = parameter.split("=");
+				if (kv.length != 2)
+					continue;
+				try {
+					if (kv[0].equals("z")) z = Integer.parseInt(kv[1]);
+					if (kv[0].equals("x")) x = Integer.parseInt(kv[1]);
+					if (kv[0].equals("y")) y = Integer.parseInt(kv[1]);
+				} catch (NumberFormatException e) {
+				}
+			}
+		}
+		z = max(0, min(30, z));
+		x = max(0, min((1 << z) - 1, x));
+		y = max(0, min((1 << z) - 1, y));
+		StringBuilder html = new StringBuilder("<html><body><table cellspacing=0 cellpadding=0>");
+		for (int j = y - 1; j <= y + 1; j++) {
+			html.append("<tr>");
+			for (int i = x - 1; i <= x + 1; i++) {
+				boolean valid = i >= 0 && j >= 0 && i < (1 << z) && j < (1 << z);
+				html.append("<td>").append(valid ? "<img width=256 height=256 src='/tiles/" + key(z, i, j, "png") + "'>" : "").append("</td>");
+			}
+			html.append("</tr>");
+		}
+		html.append("</table>")
+			.append(link("west", z, x - 1, y)).append(link("east", z, x + 1, y))
+			.append(link("north", z, x, y - 1)).append(link("south", z, x, y + 1))
+			.append(link("zoom in", z + 1, 2*x, 2*y)).append(link("zoom out", z - 1, x/2, y/2))
+			.append("</body></html>");
+		send(exchange, 200, "text/html", html.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	private static String link(String text, int z, int x, int y) {
+		return " <a href='/?z=" + z + "&x=" + x + "&y=" + y + "'>" + text + "</a>";
+	}
+	private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		Scenario scenario = new Scenario(1, 30, 850, 3, 10, 60, 0, 1.5);
+		Deployment deployment = new Deployment(scenario, false);
+		TileServer tileServer = new TileServer(deployment.getNIR(), scenario.getHProbe(), 0, 0, scenario.getSide(), 
+				256L << 20, Runtime.getRuntime().availableProcessors());
+		tileServer.start(port);
+		System.out.println("Exposure map at http://localhost:" + tileServer.getPort() + "/");
+	}
+}
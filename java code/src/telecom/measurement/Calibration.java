@@ -0,0 +1,318 @@
+package telecom.measurement;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.log10;
+import static java.lang.Math.max;
+import static java.lang.Math.pow;
+import static java.lang.Math.sqrt;
+import static telecom.util.Functions.deg2rad;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import telecom.basestation.BaseStation;
+import telecom.basestation.DirectivityCat2BSWith3Sectors;
+import telecom.nir.NIR;
+import telecom.propagation.PropagationModel;
+import telecom.util.Functions;
+import telecom.util.NelderMead;
+import telecom.util.Point3D;
+
+/**
+ * Fits model parameters to measured electric field values. For each band (distinct frequency)
+ * three corrections can be fitted:
+ * 
+ * 	- an EIRP offset (dB), added to the EIRP of every radio source of the band;
+ * 	- a path loss slope correction dn, so the path loss becomes PL + 10*dn*log10(d_km). With the 
+ * 	  FreeSpace model, the path loss exponent is 2 + dn;
+ * 	- a side lobe envelope offset (dB), added to the envelope of the vertical radiation pattern.
+ * 
+ * Everything that does not depend on these parameters is computed once, in the constructor, for
+ * every measurement/radio source pair: the main lobe gain, the horizontal gain, the nominal path
+ * loss and log10 of the distance (over the terrain of the NIR, if any, as NIR.evalEandTERAtProbe).
+ * An evaluation of the cost function is then a sum of one pow(10, x/10) per pair, so an optimizer
+ * can afford thousands of iterations.
+ * 
+ * The cost function is the mean square of the residuals 20*log10(E_model/E_measured). It skips
+ * the measurements whose residual is not finite: a measured E <= 0 (or NaN), or no radio source
+ * farther than minDist (E_model = 0). They are counted by getNSkippedMeasurements.
+ * Only base stations of type DirectivityCat2BSWith3Sectors can be calibrated.
+ */
+public class Calibration {
+	private MeasurementSet measurements;
+	private NIR nir;
+	private double[] bandFreqMHz;
+
+	// Cached geometry, one entry per measurement/radio source pair. 
+	// The pairs of measurement m are [pairStart[m], pairStart[m+1][
+	private int[] pairStart;
+	private int[] pairBand;
+	// eirp + Fh - 30 - PL + 10*log10(377/aff): E^2 (dB) without the vertical gain
+	private double[] pairConst_db;
+	private double[] pairMainLobe_db;
+	private double[] pairEnvelope_db;
+	private double[] pairLog10d;
+	private double[] eMeasured_db;
+	// Measurements used by the cost function
+	private int[] fitted;
+
+	private boolean fitEirp = true;
+	private boolean fitSlope = true;
+	private boolean fitEnvelope = true;
+	private double[] parameters;
+	private double initialCost;
+	private double finalCost;
+	private int iterations;
+
+	public Calibration(NIR nir, MeasurementSet measurements, double hProbe, double minDist) {
+		this.nir = nir;
+		this.measurements = measurements;
+		findBands();
+		precompute(hProbe, minDist);
+		parameters = new double[3*getNBands()];
+	}
+
+	private void findBands() {
+		List<Double> bands = new ArrayList<Double>();
+		for (int b = 0; b < nir.getNBaseStations(); b++) {
+			for (double f : nir.getBaseStation(b).getFrequencyMHz()) {
+				if (!bands.contains(f))
+					bands.add(f);
+			}
+		}
+		bandFreqMHz = new double[bands.size()];
+		for (int i = 0; i < bandFreqMHz.length; i++)
+			bandFreqMHz[i] = bands.get(i);
+		Arrays.sort(bandFreqMHz);
+	}
+	private int getBand(double freqMHz) {
+		return Arrays.binarySearch(bandFreqMHz, freqMHz);
+	}
+
+	private void precompute(double hProbe, double minDist) {
+		int nMeasurements = measurements.size();
+		double[] x = measurements.getX();
+		double[] y = measurements.getY();
+		double[] e = measurements.getE();
+
+		// Each measurement is computed in parallel into its own arrays, then they are concatenated
+		double[][][] perMeasurement = new double[nMeasurements][][];
+		IntStream.range(0, nMeasurements).parallel().forEach(m -> 
+			perMeasurement[m] = precomputeMeasurement(new Point3D(x[m], y[m], hProbe), minDist));
+
+		pairStart = new int[nMeasurements + 1];
+		for (int m = 0; m < nMeasurements; m++)
+			pairStart[m + 1] = pairStart[m] + perMeasurement[m][0].length;
+		int nPairs = pairStart[nMeasurements];
+		pairBand = new int[nPairs];
+		pairConst_db = new double[nPairs];
+		pairMainLobe_db = new double[nPairs];
+		pairEnvelope_db = new double[nPairs];
+		pairLog10d = new double[nPairs];
+		eMeasured_db = new double[nMeasurements];
+		for (int m = 0; m < nMeasurements; m++) {
+			double[][] p = perMeasurement[m];
+			int start = pairStart[m];
+			for (int k = 0; k < p[0].length; k++) {
+				pairBand[start + k] = (int)p[0][k];
+				pairConst_db[start + k] = p[1][k];
+				pairMainLobe_db[start + k] = p[2][k];
+				pairEnvelope_db[start + k] = p[3][k];
+				pairLog10d[start + k] = p[4][k];
+			}
+			perMeasurement[m] = null;
+			eMeasured_db[m] = 20*log10(e[m]);
+		}
+		fitted = IntStream.range(0, nMeasurements)
+				.filter(m -> e[m] > 0 && pairStart[m + 1] > pairStart[m]).toArray();
+		if (fitted.length == 0)
+			throw new IllegalArgumentException("No measurement can be fitted (measured E > 0 and a radio source farther than minDist)");
+	}
+	private double[][] precomputeMeasurement(Point3D probe, double minDist) {
+		int count = 0;
+		for (int b = 0; b < nir.getNBaseStations(); b++)
+			count += nir.getBaseStation(b).getNRadioSources();
+		double[][] p = new double[5][count];
+		boolean terrain = nir.getTerrain() != null;
+		double probeGround = nir.getGround(probe.x, probe.y);
+
+		int k = 0;
+		for (int b = 0; b < nir.getNBaseStations(); b++) {
+			BaseStation bs = nir.getBaseStation(b);
+			if (!(bs instanceof DirectivityCat2BSWith3Sectors))
+				throw new IllegalArgumentException("Only DirectivityCat2BSWith3Sectors can be calibrated: " + bs.getClass().getName());
+			DirectivityCat2BSWith3Sectors dbs = (DirectivityCat2BSWith3Sectors) bs;
+			PropagationModel pm = nir.getPropagationModel(b);
+			double[] freq = dbs.getFrequencyMHz();
+			double stationGround = nir.getBaseStationGround(b);
+			// Probe height relative to the ground below the base station (as NIR.evalEandTERAtProbe)
+			Point3D probeBS = terrain ? new Point3D(probe.x, probe.y, probe.z + probeGround - stationGround) : probe;
+
+			for (int i = 0; i < dbs.getNRadioSources(); i++) {
+				Point3D txPos = new Point3D(dbs.getX(), dbs.getY(), dbs.getHeight()[i]);
+				if (Functions.get2DDistanceKM(txPos, probe)*1000 <= minDist)
+					continue;
+				double lambda = 3e8/(freq[i]*1e6);
+				double aff = lambda*lambda/(4*PI);
+				double pl = terrain ? pm.getPathLoss(txPos, probe, freq[i], stationGround, probeGround) 
+						: pm.getPathLoss(txPos, probe, freq[i]);
+
+				p[0][k] = getBand(freq[i]);
+				p[1][k] = dbs.getEirpMaxdBm()[i] + dbs.getHorizontalGaindB(txPos, probeBS) - 30
+						- pl + 10*log10(377/aff);
+				p[2][k] = DirectivityCat2BSWith3Sectors.getFvdB(Functions.getThetaRad(txPos, probeBS), 
+						deg2rad(dbs.getTiltDegree()[i]), deg2rad(dbs.getThetaBwVerticalDegree()[i]), 
+						Double.NEGATIVE_INFINITY);
+				p[3][k] = dbs.getMaxSideLobeEnvelopedB()[i];
+				p[4][k] = log10(Functions.get3DDistanceKM(txPos, probeBS));
+				k++;
+			}
+		}
+		if (k < count) {
+			for (int j = 0; j < p.length; j++)
+				p[j] = Arrays.copyOf(p[j], k);
+		}
+		return p;
+	}
+
+	public int getNBands() {
+		return bandFreqMHz.length;
+	}
+	public double[] getBandFrequenciesMHz() {
+		return bandFreqMHz;
+	}
+	public int getNPairs() {
+		return pairBand.length;
+	}
+	// Measurements left out of the cost function (see the class comment)
+	public int getNSkippedMeasurements() {
+		return measurements.size() - fitted.length;
+	}
+	public void setFitEirp(boolean fitEirp) {
+		this.fitEirp = fitEirp;
+	}
+	public void setFitSlope(boolean fitSlope) {
+		this.fitSlope = fitSlope;
+	}
+	public void setFitEnvelope(boolean fitEnvelope) {
+		this.fitEnvelope = fitEnvelope;
+	}
+
+	// parameters = {eirp offsets (dB) of each band, slope corrections of each band, envelope offsets (dB) of each band}
+	// Return the model electric field (V/m) at each measurement
+	public double[] evalModelE(double[] parameters) {
+		int nBands = getNBands();
+		double[] eModel = new double[measurements.size()];
+		IntStream.range(0, eModel.length).parallel().forEach(m -> {
+			double e2 = 0;
+			for (int k = pairStart[m]; k < pairStart[m + 1]; k++) {
+				int band = pairBand[k];
+				double fv = max(pairMainLobe_db[k], pairEnvelope_db[k] + parameters[2*nBands + band]);
+				e2 += pow(10, (pairConst_db[k] + parameters[band] + fv 
+						- 10*parameters[nBands + band]*pairLog10d[k])/10);
+			}
+			eModel[m] = sqrt(e2);
+		});
+		return eModel;
+	}
+	// Mean square residual (dB^2)
+	public double cost(double[] parameters) {
+		double[] eModel = evalModelE(parameters);
+		double sum = 0;
+		for (int m : fitted) {
+			double r = 20*log10(eModel[m]) - eMeasured_db[m];
+			sum += r*r;
+		}
+		return sum/fitted.length;
+	}
+
+	public double[] calibrate(int maxIterations) {
+		int nBands = getNBands();
+		boolean[] free = new boolean[3*nBands];
+		List<Integer> freeIndexes = new ArrayList<Integer>();
+		for (int i = 0; i < free.length; i++) {
+			free[i] = (i < nBands && fitEirp) || (i >= nBands && i < 2*nBands && fitSlope) || (i >= 2*nBands && fitEnvelope);
+			if (free[i])
+				freeIndexes.add(i);
+		}
+		initialCost = cost(parameters);
+
+		double[] x0 = new double[freeIndexes.size()];
+		double[] step = new double[x0.length];
+		for (int j = 0; j < x0.length; j++) {
+			int i = freeIndexes.get(j);
+			x0[j] = parameters[i];
+			// 3 dB for the offsets, 0.2 for the slopes
+			step[j] = (i >= nBands && i < 2*nBands) ? 0.2 : 3;
+		}
+		double[] full = parameters.clone();
+		NelderMead optimizer = new NelderMead();
+		optimizer.setMaxIterations(maxIterations);
+		optimizer.setTolerance(1e-10);
+		double[] best = optimizer.minimize(x -> {
+			double[] p = full.clone();
+			for (int j = 0; j < x.length; j++)
+				p[freeIndexes.get(j)] = x[j];
+			return cost(p);
+		}, x0, step);
+
+		for (int j = 0; j < best.length; j++)
+			parameters[freeIndexes.get(j)] = best[j];
+		finalCost = cost(parameters);
+		iterations = optimizer.getIterations();
+		return parameters;
+	}
+	public double[] getParameters() {
+		return parameters;
+	}
+	public double getEirpOffsetdB(int band) {
+		return parameters[band];
+	}
+	public double getSlopeCorrection(int band) {
+		return parameters[getNBands() + band];
+	}
+	public double getEnvelopeOffsetdB(int band) {
+		return parameters[2*getNBands() + band];
+	}
+	public double getInitialRMSdB() {
+		return sqrt(initialCost);
+	}
+	public double getFinalRMSdB() {
+		return sqrt(finalCost);
+	}
+	public int getIterations() {
+		return iterations;
+	}
+
+	// Applies the EIRP and envelope offsets to the base stations of the NIR. The slope correction
+	// is a property of the propagation model and is only reported
+	public void applyToBaseStations() {
+		for (int b = 0; b < nir.getNBaseStations(); b++) {
+			DirectivityCat2BSWith3Sectors bs = (DirectivityCat2BSWith3Sectors) nir.getBaseStation(b);
+			double[] eirp = bs.getEirpMaxdBm().clone();
+			double[] envelope = bs.getMaxSideLobeEnvelopedB().clone();
+			double[] freq = bs.getFrequencyMHz();
+			for (int i = 0; i < freq.length; i++) {
+				eirp[i] += getEirpOffsetdB(getBand(freq[i]));
+				envelope[i] += getEnvelopeOffsetdB(getBand(freq[i]));
+			}
+			bs.setEirpMaxdBm(eirp);
+			bs.setMaxSideLobeEnvelopedB(envelope);
+		}
+	}
+	public String getSummary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Freq (MHz)\tEIRP offset (dB)\tSlope correction\tEnvelope offset (dB)\n");
+		for (int band = 0; band < getNBands(); band++) {
+			sb.append(bandFreqMHz[band] + "\t" + getEirpOffsetdB(band) + "\t" 
+					+ getSlopeCorrection(band) + "\t" + getEnvelopeOffsetdB(band) + "\n");
+		}
+		sb.append("RMS error (dB): " + getInitialRMSdB() + " -> " + getFinalRMSdB() 
+				+ " (" + iterations + " iterations)\n");
+		if (getNSkippedMeasurements() > 0)
+			sb.append("Skipped measurements: " + getNSkippedMeasurements() + "\n");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,144 @@
+package telecom.measurement;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.log10;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import telecom.basestation.BaseStation;
+import telecom.nir.NIR;
+import telecom.propagation.PropagationModel;
+import telecom.util.Histogram;
+import telecom.util.LocalProjection;
+import telecom.util.Pair;
+import telecom.util.Point3D;
+import telecom.util.RunningStatistics;
+
+/**
+ * Compares the electric field predicted by a NIR model with measurements. The model is evaluated
+ * at every measurement point in parallel (the NIR evaluator only reads its base stations, so it can
+ * be shared by several threads). The residual of each point is 20*log10(E_model/E_measured), in dB:
+ * positive values mean that the model overestimates the field.
+ * 
+ * The base stations in the NIR must be positioned in the same local plane as the measurements
+ * (see MeasurementSet.project and LocalProjection).
+ */
+public class MeasurementComparison {
+	private NIR nir;
+	private double hProbe;
+	private double minDist = 0;
+
+	private double[] eModel;
+	private double[] residual_db;
+	private RunningStatistics residualStats;
+	private RunningStatistics absResidualStats;
+
+	public MeasurementComparison(NIR nir, double hProbe) {
+		this.nir = nir;
+		this.hProbe = hProbe;
+	}
+	// Consider only the base stations that are at least minDist meters apart form the measurement
+	public void setMinDist(double minDist) {
+		this.minDist = minDist;
+	}
+
+	public void compare(MeasurementSet measurements) {
+		int n = measurements.size();
+		double[] x = measurements.getX();
+		double[] y = measurements.getY();
+		double[] eMeasured = measurements.getE();
+		eModel = new double[n];
+		residual_db = new double[n];
+
+		IntStream.range(0, n).parallel().forEach(i -> {
+			Pair<Double, Double> eAndTer = nir.evalEandTERAtProbe(new Point3D(x[i], y[i], hProbe), minDist);
+			eModel[i] = eAndTer.getFirst();
+			residual_db[i] = 20*log10(eModel[i]/eMeasured[i]);
+		});
+
+		// Sequential pass, so the statistics do not depend on the thread scheduling
+		residualStats = new RunningStatistics();
+		absResidualStats = new RunningStatistics();
+		for (int i = 0; i < n; i++) {
+			residualStats.add(residual_db[i]);
+			absResidualStats.add(abs(residual_db[i]));
+		}
+	}
+
+	public double[] getModelE() {
+		return eModel;
+	}
+	public double[] getResidualdB() {
+		return residual_db;
+	}
+	// Mean (bias), standard deviation, min and max of the residuals (dB)
+	public RunningStatistics getResidualStatistics() {
+		return residualStats;
+	}
+	public RunningStatistics getAbsoluteResidualStatistics() {
+		return absResidualStats;
+	}
+	public double getRMSErrordB() {
+		double mean = residualStats.getMean();
+		double var = residualStats.getVariance()*(residualStats.getCount() - 1)/residualStats.getCount();
+		return Math.sqrt(var + mean*mean);
+	}
+	// p in [0, 1], linear interpolation between order statistics
+	public double getResidualPercentiledB(double p) {
+		double[] sorted = residual_db.clone();
+		Arrays.sort(sorted);
+		double pos = p*(sorted.length - 1);
+		int i = (int)Math.floor(pos);
+		if (i >= sorted.length - 1)
+			return sorted[sorted.length - 1];
+		return sorted[i] + (pos - i)*(sorted[i + 1] - sorted[i]);
+	}
+	public Histogram getResidualHistogram(double min_db, double max_db, double binWidth_db) {
+		Histogram histogram = new Histogram(min_db, max_db, (int)Math.ceil((max_db - min_db)/binWidth_db));
+		for (double r : residual_db)
+			histogram.add(r);
+		return histogram;
+	}
+	public String getSummary() {
+		return "Measurements: " + residualStats.getCount() + "\n"
+				+ "Mean error (dB): " + residualStats.getMean() + "\n"
+				+ "Std. deviation (dB): " + residualStats.getStandardDeviation() + "\n"
+				+ "RMS error (dB): " + getRMSErrordB() + "\n"
+				+ "Mean absolute error (dB): " + absResidualStats.getMean() + "\n"
+				+ "Min/median/max error (dB): " + residualStats.getMin() + " / " 
+				+ getResidualPercentiledB(0.5) + " / " + residualStats.getMax() + "\n"
+				+ "5%/95% percentiles (dB): " + getResidualPercentiledB(0.05) + " / " + getResidualPercentiledB(0.95) + "\n";
+	}
+
+	// Usage: MeasurementComparison <measurements file> <base stations file> [propagation model] [probe height]
+	// The base stations file has one BaseStation.toString() per line, with the position given
+	// as (latitude, longitude). The propagation model is a class of telecom.propagation (default FreeSpace).
+	public static void main(String args[]) throws Exception {
+		String pmName = args.length > 2 ? args[2] : "FreeSpace";
+		double hProbe = args.length > 3 ? Double.parseDouble(args[3]) : 1.5;
+
+		MeasurementSet measurements = MeasurementSet.load(args[0]);
+		LocalProjection projection = measurements.project();
+		PropagationModel pm = (PropagationModel) Class.forName("telecom.propagation." + pmName).getDeclaredConstructor().newInstance();
+
+		NIR nir = new NIR();
+		BufferedReader reader = new BufferedReader(new FileReader(args[1]));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.trim().length() > 0)
+				nir.addBaseStation(BaseStation.fromGeographicString(line, projection), pm);
+		}
+		reader.close();
+
+		long start = System.currentTimeMillis();
+		MeasurementComparison comparison = new MeasurementComparison(nir, hProbe);
+		comparison.compare(measurements);
+		System.out.print(comparison.getSummary());
+		System.out.println("Elapsed (ms): " + (System.currentTimeMillis() - start));
+		System.out.println();
+		System.out.print(comparison.getResidualHistogram(-30, 30, 1));
+	}
+}
@@ -0,0 +1,99 @@
+package telecom.measurement;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+import telecom.util.LocalProjection;
+
+/**
+ * Electric field measurements (latitude, longitude, E), as in the file
+ * 'matlab code/measurements brasilia/measurements.txt': one measurement per line, the three
+ * values separated by commas and/or whitespaces. Latitude and longitude are in degrees and E
+ * is in V/m.
+ * 
+ * The positions are projected to the local (x, y) plane of the simulation with project().
+ */
+public class MeasurementSet {
+	private double[] lat;
+	private double[] lon;
+	private double[] e;
+	private double[] x;
+	private double[] y;
+	private LocalProjection projection;
+
+	public MeasurementSet(double[] lat, double[] lon, double[] e) {
+		this.lat = lat;
+		this.lon = lon;
+		this.e = e;
+	}
+	public static MeasurementSet load(String fileName) throws IOException {
+		double[] lat = new double[1024];
+		double[] lon = new double[1024];
+		double[] e = new double[1024];
+		int n = 0;
+
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				StringTokenizer tokenizer = new StringTokenizer(line, ", \t;");
+				if (tokenizer.countTokens() < 3)
+					continue;
+				if (n == lat.length) {
+					lat = Arrays.copyOf(lat, 2*n);
+					lon = Arrays.copyOf(lon, 2*n);
+					e = Arrays.copyOf(e, 2*n);
+				}
+				lat[n] = Double.parseDouble(tokenizer.nextToken());
+				lon[n] = Double.parseDouble(tokenizer.nextToken());
+				e[n] = Double.parseDouble(tokenizer.nextToken());
+				n++;
+			}
+		} finally {
+			reader.close();
+		}
+		return new MeasurementSet(Arrays.copyOf(lat, n), 
+				Arrays.copyOf(lon, n), Arrays.copyOf(e, n));
+	}
+
+	// Projects all positions at once. The same projection must be used for the base stations
+	public void project(LocalProjection projection) {
+		this.projection = projection;
+		x = new double[lat.length];
+		y = new double[lat.length];
+		projection.project(lat, lon, x, y);
+	}
+	// Projects around the centroid of the measurements
+	public LocalProjection project() {
+		project(LocalProjection.centeredAt(lat, lon));
+		return projection;
+	}
+	public LocalProjection getProjection() {
+		return projection;
+	}
+	public int size() {
+		return e.length;
+	}
+	public double[] getLatitude() {
+		return lat;
+	}
+	public double[] getLongitude() {
+		return lon;
+	}
+	public double[] getE() {
+		return e;
+	}
+	public double[] getX() {
+		if (x == null)
+			project();
+		return x;
+	}
+	public double[] getY() {
+		if (y == null)
+			project();
+		return y;
+	}
+}
@@ -0,0 +1,113 @@
+package telecom.nir;
+
+import static java.lang.Math.pow;
+import static java.lang.Math.sqrt;
+import static telecom.util.Functions.dB2Watt;
+import static telecom.util.Functions.getPhiDegree;
+
+import java.util.stream.IntStream;
+
+import telecom.basestation.DirectivityCat2BSWith3Sectors;
+import telecom.propagation.FreeSpace;
+import telecom.propagation.PropagationModel;
+import telecom.terrain.DigitalElevationModel;
+import telecom.util.Point3D;
+
+/**
+ * Evaluates the exposure at many heights above the same ground position (a column, e.g. the floors
+ * of a building). The horizontal distance, the azimuth and the horizontal pattern gain of each
+ * radio source do not depend on the height, so they are computed once per column; only the
+ * elevation angle, the vertical pattern and the path loss are computed per height.
+ * 
+ * The exposure is computed in linear units with the per-source constants of a LinearKernel and the
+ * vertical pattern is evaluated from dz and d without atan2. With the FreeSpace model the path loss
+ * is folded into the constant (E^2 = kFreeSpace*Fh*Fv/d^2), so a floor costs a division and, inside
+ * the main lobe, a sqrt and a sin per source.
+ * 
+ * The results are the same as NIR.evalEandTERAtProbe at each height, up to rounding (including the
+ * terrain of the NIR, if any). Only DirectivityCat2BSWith3Sectors base stations are supported.
+ */
+public class ColumnEvaluator {
+	private SourceArrays sources;
+	private LinearKernel kernel;
+	private int n;
+	private boolean freeSpace;
+	private DigitalElevationModel terrain;
+	private double[] stationGround;
+
+	public ColumnEvaluator(NIR nir) {
+		sources = new SourceArrays(nir);
+		kernel = new LinearKernel(sources);
+		n = sources.size();
+		freeSpace = sources.allPropagationModelsAre(FreeSpace.class);
+		terrain = nir.getTerrain();
+		stationGround = sources.getGroundElevation();
+	}
+
+	// E (V/m) and TER (%) at (x, y, heights[k]). E and TER must have the same length as heights
+	public void evalColumn(double x, double y, double[] heights, double minDist, double[] E, double[] TER) {
+		double probeGround = terrain == null ? 0 : terrain.getElevation(x, y);
+		double[] e2 = new double[heights.length];
+		double[] ter = new double[heights.length];
+		Point3D probe2D = new Point3D(x, y, 0);
+		double[] kModel = kernel.getK();
+		double[] kFreeSpace = kernel.getKFreeSpace();
+		double[] invLimit2 = kernel.getInvLimit2();
+		for (int i = 0; i < n; i++) {
+			double dx = x - sources.getX()[i];
+			double dy = y - sources.getY()[i];
+			double horizontal2 = dx*dx + dy*dy;
+			double d2 = sqrt(horizontal2);
+			if (d2 <= minDist)
+				continue;
+			double fh = sources.getUseHorizontalRP()[i] 
+					? DirectivityCat2BSWith3Sectors.getFhdB(sources.getHorizontalRP()[i], getPhiDegree(new Point3D(sources.getX()[i], sources.getY()[i], 0), probe2D)) : 0;
+			double h = sources.getZ()[i];
+			double gh = dB2Watt(fh);
+			if (freeSpace) {
+				double k_i = kFreeSpace[i]*gh;
+				for (int k = 0; k < heights.length; k++) {
+					// Probe height relative to the ground below the base station
+					double dz = h - (heights[k] + probeGround - stationGround[i]);
+					double d3_2 = horizontal2 + dz*dz;
+					double e_2 = k_i*kernel.verticalGainLinear(i, dz, d2, d3_2)/d3_2;
+					e2[k] += e_2;
+					ter[k] += e_2*invLimit2[i];
+				}
+			} else {
+				PropagationModel pm = sources.getPropagationModel()[i];
+				double f = sources.getFrequencyMHz()[i];
+				double k_i = kModel[i]*gh;
+				Point3D txPos = new Point3D(sources.getX()[i], sources.getY()[i], h);
+				for (int k = 0; k < heights.length; k++) {
+					double dz = h - (heights[k] + probeGround - stationGround[i]);
+					double fv = kernel.verticalGainLinear(i, dz, d2, horizontal2 + dz*dz);
+					double pl = terrain == null ? pm.getPathLoss(txPos, new Point3D(x, y, heights[k]), f)
+							: pm.getPathLoss(txPos, new Point3D(x, y, heights[k]), f, stationGround[i], probeGround);
+					double e_2 = k_i*fv*dB2Watt(-pl);
+					e2[k] += e_2;
+					ter[k] += e_2*invLimit2[i];
+				}
+			}
+		}
+		for (int k = 0; k < heights.length; k++) {
+			E[k] = pow(e2[k], 0.5);
+			TER[k] = ter[k]*100;
+		}
+	}
+	// Evaluates several columns in parallel: E[c][k] and TER[c][k] at (x[c], y[c], heights[k])
+	public void evalColumns(double[] x, double[] y, double[] heights, double minDist, double[][] E, double[][] TER) {
+		IntStream.range(0, x.length).parallel().forEach(c -> {
+			E[c] = new double[heights.length];
+			TER[c] = new double[heights.length];
+			evalColumn(x[c], y[c], heights, minDist, E[c], TER[c]);
+		});
+	}
+	// Heights of nFloors floors: the probe at probeHeight above each floor
+	public static double[] floorHeights(int nFloors, double floorHeight, double probeHeight) {
+		double[] heights = new double[nFloors];
+		for (int k = 0; k < nFloors; k++)
+			heights[k] = k*floorHeight + probeHeight;
+		return heights;
+	}
+}
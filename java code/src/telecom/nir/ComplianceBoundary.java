@@ -0,0 +1,250 @@
+package telecom.nir;
+
+import static java.lang.Math.cos;
+import static java.lang.Math.max;
+import static java.lang.Math.sin;
+import static telecom.util.Functions.deg2rad;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import telecom.basestation.BaseStation;
+import telecom.util.Point2D;
+import telecom.util.Point3D;
+
+/**
+ * Computes, for every base station, the compliance boundary (exclusion zone): the contour around
+ * the station where the total TER (all base stations of the NIR included) crosses a threshold
+ * (100% by default).
+ * 
+ * The contour is traced along nRays radial rays from the station position, at the probe height.
+ * Each ray ends at maxRadius or where it leaves the Voronoi cell of the station (another station is
+ * closer), so the zones around the other stations are not attributed to it. On each ray the
+ * outermost radius where TER >= threshold is found by bracketing and bisection.
+ * 
+ * The boundary is usually close to the one of the previous ray, so each ray is first bracketed
+ * locally around the radius of the previous ray (steps of (scanFactor - 1)/4 of the radius, up to
+ * one scan step). TER is not monotonic along a ray (the main beam reaches the ground hundreds of
+ * meters away from the station), so a crossing found this way is accepted only if no crossing
+ * exists farther out. That part of the ray, or the whole ray when the local bracket has no sign
+ * change, is searched with a geometric scan from the end inwards (radii end/scanFactor^k): the scan
+ * steps are grouped in a binary tree and a group is skipped when the upper bound of the TER over
+ * its segment (WorstCaseSearch.getUpperBound) is below the threshold. The first sample above the
+ * threshold gives the outermost crossing. A region above the threshold narrower than a scan step is
+ * missed only where the bound does not exclude it; a smaller scanFactor makes the scan finer.
+ * A radius of 0 means that the threshold is not reached on the ray.
+ * 
+ * The bound assumes that the path loss does not decrease with the distance (true for FreeSpace
+ * and HataUrban) and a flat ground: it is not used with a terrain, and setUseBound(false) disables
+ * it for other propagation models (the scan then evaluates every step).
+ * 
+ * Stations are processed in parallel.
+ */
+public class ComplianceBoundary {
+	private NIR nir;
+	private double hProbe;
+	private double minDist = 0;
+	private double threshold = 100;
+	private int nRays = 72;
+	private double minRadius = 0.1;
+	private double maxRadius = 1000;
+	private double radialTolerance = 0.05;
+	private double scanFactor = 1.25;
+	private boolean useBound = true;
+	private WorstCaseSearch bound;
+
+	// radii[station][ray]
+	private double[][] radii;
+	private AtomicLong nEvaluations = new AtomicLong();
+	private AtomicLong nBounds = new AtomicLong();
+
+	public ComplianceBoundary(NIR nir, double hProbe) {
+		this.nir = nir;
+		this.hProbe = hProbe;
+	}
+	// Consider only the base stations that are at least minDist meters apart form the probe
+	public void setMinDist(double minDist) {
+		this.minDist = minDist;
+	}
+	// TER (%) that defines the boundary
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+	public void setNRays(int nRays) {
+		this.nRays = nRays;
+	}
+	// Radii (meters) searched on each ray
+	public void setRadiusRange(double minRadius, double maxRadius) {
+		this.minRadius = minRadius;
+		this.maxRadius = maxRadius;
+	}
+	// Ratio between consecutive radii of the scan (> 1)
+	public void setScanFactor(double scanFactor) {
+		if (!(scanFactor > 1))
+			throw new IllegalArgumentException("The scan factor must be greater than 1: " + scanFactor);
+		this.scanFactor = scanFactor;
+	}
+	// Precision (meters) of the boundary along each ray
+	public void setRadialTolerance(double radialTolerance) {
+		this.radialTolerance = radialTolerance;
+	}
+	// Skip the parts of the rays where the upper bound of the TER is below the threshold
+	public void setUseBound(boolean useBound) {
+		this.useBound = useBound;
+	}
+
+	public void compute() {
+		nEvaluations.set(0);
+		nBounds.set(0);
+		bound = null;
+		if (useBound && nir.getTerrain() == null) {
+			bound = new WorstCaseSearch(nir, hProbe);
+			bound.setMinDist(minDist);
+		}
+		radii = new double[nir.getNBaseStations()][];
+		IntStream.range(0, radii.length).parallel().forEach(b -> radii[b] = computeStation(nir.getBaseStation(b)));
+	}
+
+	private double[] computeStation(BaseStation bs) {
+		double[] r = new double[nRays];
+		double previous = 0;
+		for (int k = 0; k < nRays; k++) {
+			// Azimuth clockwise from the north (y axis), as Functions.getPhiDegree
+			double phi = deg2rad(360.0*k/nRays);
+			r[k] = trace(bs, sin(phi), cos(phi), previous);
+			previous = r[k];
+		}
+		return r;
+	}
+	// Radius where another base station becomes closer than bs (the ray leaves the Voronoi cell of bs)
+	private double getCellRadius(BaseStation bs, double ux, double uy) {
+		double limit = Double.POSITIVE_INFINITY;
+		for (int b = 0; b < nir.getNBaseStations(); b++) {
+			BaseStation other = nir.getBaseStation(b);
+			double dx = other.getX() - bs.getX();
+			double dy = other.getY() - bs.getY();
+			double dot = dx*ux + dy*uy;
+			if (dot > 0 && (dx != 0 || dy != 0))
+				limit = Math.min(limit, (dx*dx + dy*dy)/(2*dot));
+		}
+		return limit;
+	}
+	private double trace(BaseStation bs, double ux, double uy, double previous) {
+		double end = Math.min(maxRadius, getCellRadius(bs, ux, uy));
+		if (above(bs, ux, uy, end))
+			return end;
+		if (previous > 0 && previous < end) {
+			double[] bracket = localBracket(bs, ux, uy, previous, end);
+			if (bracket != null) {
+				// Accept it only if there is no crossing farther out
+				double outer = scan(bs, ux, uy, bracket[1], end);
+				return outer > 0 ? outer : bisect(bs, ux, uy, bracket[0], bracket[1]);
+			}
+		}
+		return scan(bs, ux, uy, minRadius, end);
+	}
+	// {inner, outer} with TER(inner) >= threshold > TER(outer) within one scan step of the radius of
+	// the previous ray, or null if there is no sign change there
+	private double[] localBracket(BaseStation bs, double ux, double uy, double previous, double end) {
+		double step = 1 + (scanFactor - 1)/4;
+		double r = previous;
+		if (above(bs, ux, uy, r)) {
+			for (double outer = Math.min(r*step, end); r < previous*scanFactor; outer = Math.min(outer*step, end)) {
+				// TER(end) < threshold
+				if (outer == end || !above(bs, ux, uy, outer))
+					return new double[] {r, outer};
+				r = outer;
+			}
+			return null;
+		}
+		for (double inner = r/step; inner >= Math.max(minRadius, previous/scanFactor); inner /= step) {
+			if (above(bs, ux, uy, inner))
+				return new double[] {inner, r};
+			r = inner;
+		}
+		return null;
+	}
+	// Outermost crossing in [inner, outer], knowing that TER(outer) < threshold (0 if none is found).
+	// Step k of the scan is [max(inner, outer/scanFactor^(k + 1)), outer/scanFactor^k]
+	private double scan(BaseStation bs, double ux, double uy, double inner, double outer) {
+		if (!(outer > inner))
+			return 0;
+		int nSteps = Math.max(1, (int)Math.ceil(Math.log(outer/inner)/Math.log(scanFactor) - 1e-9));
+		return scan(bs, ux, uy, inner, outer, 0, nSteps);
+	}
+	// Steps first to last - 1, the outer half first
+	private double scan(BaseStation bs, double ux, double uy, double inner, double outer, int first, int last) {
+		double stepOuter = outer/Math.pow(scanFactor, first);
+		double stepInner = Math.max(inner, outer/Math.pow(scanFactor, last));
+		if (bound != null && upperBound(bs, ux, uy, stepInner, stepOuter) < threshold)
+			return 0;
+		if (last - first == 1) {
+			// TER(stepOuter) < threshold: it is outer, or it was sampled or bounded by the previous step
+			if (above(bs, ux, uy, stepInner))
+				return bisect(bs, ux, uy, stepInner, stepOuter);
+			return 0;
+		}
+		int middle = (first + last)/2;
+		double r = scan(bs, ux, uy, inner, outer, first, middle);
+		return r > 0 ? r : scan(bs, ux, uy, inner, outer, middle, last);
+	}
+	// TER(inner) >= threshold > TER(outer)
+	private double bisect(BaseStation bs, double ux, double uy, double inner, double outer) {
+		while (outer - inner > radialTolerance) {
+			double middle = (inner + outer)/2;
+			if (above(bs, ux, uy, middle))
+				inner = middle;
+			else
+				outer = middle;
+		}
+		return (inner + outer)/2;
+	}
+	private double upperBound(BaseStation bs, double ux, double uy, double inner, double outer) {
+		nBounds.incrementAndGet();
+		return bound.getUpperBound(bs.getX() + inner*ux, bs.getY() + inner*uy, bs.getX() + outer*ux, bs.getY() + outer*uy);
+	}
+	private boolean above(BaseStation bs, double ux, double uy, double radius) {
+		nEvaluations.incrementAndGet();
+		Point3D probe = new Point3D(bs.getX() + radius*ux, bs.getY() + radius*uy, hProbe);
+		return nir.evalEandTERAtProbe(probe, minDist).getSecond() >= threshold;
+	}
+
+	// Radius (meters) of the boundary on each ray of the station (ray k at azimuth 360*k/nRays degrees).
+	// It is the end of the ray if the threshold is exceeded all along it
+	public double[] getRadii(int station) {
+		return radii[station];
+	}
+	// Vertices of the boundary of the station
+	public Point2D[] getBoundary(int station) {
+		BaseStation bs = nir.getBaseStation(station);
+		Point2D[] boundary = new Point2D[nRays];
+		for (int k = 0; k < nRays; k++) {
+			double phi = deg2rad(360.0*k/nRays);
+			boundary[k] = new Point2D(bs.getX() + radii[station][k]*sin(phi), bs.getY() + radii[station][k]*cos(phi));
+		}
+		return boundary;
+	}
+	public double getMaxRadius(int station) {
+		double r = 0;
+		for (double radius : radii[station])
+			r = max(r, radius);
+		return r;
+	}
+	public long getNEvaluations() {
+		return nEvaluations.get();
+	}
+	// Number of upper bounds computed (each costs about one evaluation)
+	public long getNBounds() {
+		return nBounds.get();
+	}
+	// One line per vertex: station, azimuth (degree), radius, x, y
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int b = 0; b < radii.length; b++) {
+			Point2D[] boundary = getBoundary(b);
+			for (int k = 0; k < nRays; k++)
+				sb.append(b + "\t" + (360.0*k/nRays) + "\t" + radii[b][k] + "\t" + boundary[k].x + "\t" + boundary[k].y + "\n");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,143 @@
+package telecom.nir;
+
+import static java.lang.Math.pow;
+import static java.lang.Math.sqrt;
+import static telecom.util.Functions.dB2Watt;
+import static telecom.util.Functions.get2DDistanceKM;
+import static telecom.util.Functions.getICNIRPLimits;
+import static telecom.util.Functions.power2electricfield;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import telecom.basestation.BaseStation;
+import telecom.propagation.PropagationModel;
+import telecom.util.Point3D;
+import telecom.util.SparseMatrix;
+
+/**
+ * Exposure of a fixed set of probes for time-varying traffic load. The load of a radio source is
+ * the fraction (linear, between 0 and 1) of its maximum EIRP that it transmits. Since E^2 is linear
+ * in the transmitted power, the coupling E^2 (at maximum EIRP) of every probe/source pair is
+ * computed once and stored in a sparse probe x source matrix G. Then, for any load vector,
+ * 
+ *   E^2 = G*load			TER = G*(load/limit^2)
+ * 
+ * which are two parallel sparse matrix-vector products instead of a full NIR evaluation.
+ * 
+ * For each probe, the weakest couplings are dropped while their sum is below relativeThreshold
+ * times the E^2 of the probe at full load, so the E^2 of a probe is underestimated by at most that
+ * fraction of its full load value. The sources are in the order of SourceArrays (base stations in
+ * the order of the NIR, then their radio sources).
+ */
+public class CouplingMatrix {
+	private SparseMatrix coupling;
+	private int nSources;
+	private int[] sourceStation;
+	private double[] invLimit2;
+
+	public CouplingMatrix(NIR nir, double[] px, double[] py, double hProbe, double minDist, double relativeThreshold) {
+		for (int b = 0; b < nir.getNBaseStations(); b++)
+			nSources += nir.getBaseStation(b).getNRadioSources();
+		sourceStation = new int[nSources];
+		invLimit2 = new double[nSources];
+		int k = 0;
+		for (int b = 0; b < nir.getNBaseStations(); b++) {
+			BaseStation bs = nir.getBaseStation(b);
+			for (int i = 0; i < bs.getNRadioSources(); i++) {
+				sourceStation[k] = b;
+				invLimit2[k] = 1/pow(getICNIRPLimits(bs.getFrequencyMHz()[i]), 2);
+				k++;
+			}
+		}
+
+		int[][] rowColumns = new int[px.length][];
+		double[][] rowValues = new double[px.length][];
+		IntStream.range(0, px.length).parallel().forEach(p -> {
+			double[] e2 = couplingOfProbe(nir, new Point3D(px[p], py[p], hProbe), minDist);
+			dropWeakest(e2, relativeThreshold, p, rowColumns, rowValues);
+		});
+		coupling = new SparseMatrix(nSources, rowColumns, rowValues);
+	}
+	// E^2 of each source at the probe (same computation as NIR.evalEandTERAtProbe, including its terrain)
+	private double[] couplingOfProbe(NIR nir, Point3D probe, double minDist) {
+		double[] e2 = new double[nSources];
+		boolean terrain = nir.getTerrain() != null;
+		double probeGround = nir.getGround(probe.x, probe.y);
+		int k = 0;
+		for (int b = 0; b < nir.getNBaseStations(); b++) {
+			BaseStation bs = nir.getBaseStation(b);
+			PropagationModel pm = nir.getPropagationModel(b);
+			double[] freq_mhz = bs.getFrequencyMHz();
+			double stationGround = nir.getBaseStationGround(b);
+			// Probe height relative to the ground below the base station
+			Point3D probeBS = terrain ? new Point3D(probe.x, probe.y, probe.z + probeGround - stationGround) : probe;
+			double[] eirpToProbe_dBm = bs.getEIRPdBm(probeBS);
+			for (int i = 0; i < bs.getNRadioSources(); i++, k++) {
+				Point3D txPos = new Point3D(bs.getX(), bs.getY(), bs.getHeight()[i]);
+				if (get2DDistanceKM(txPos, probe)*1000 <= minDist)
+					continue;
+				double pl = terrain ? pm.getPathLoss(txPos, probe, freq_mhz[i], stationGround, probeGround) 
+						: pm.getPathLoss(txPos, probe, freq_mhz[i]);
+				double rxIsotropicPower = eirpToProbe_dBm[i] - 30 - pl;
+				e2[k] = pow(power2electricfield(dB2Watt(rxIsotropicPower), freq_mhz[i]), 2);
+			}
+		}
+		return e2;
+	}
+	private static void dropWeakest(double[] e2, double relativeThreshold, int p, int[][] rowColumns, double[][] rowValues) {
+		double total = 0;
+		for (double v : e2)
+			total += v;
+		Integer[] order = new Integer[e2.length];
+		for (int k = 0; k < order.length; k++)
+			order[k] = k;
+		Arrays.sort(order, (a, b) -> Double.compare(e2[a], e2[b]));
+		boolean[] drop = new boolean[e2.length];
+		int count = e2.length;
+		double dropped = 0;
+		for (int k : order) {
+			if (e2[k] > 0 && dropped + e2[k] > relativeThreshold*total)
+				break;
+			dropped += e2[k];
+			drop[k] = true;
+			count--;
+		}
+		rowColumns[p] = new int[count];
+		rowValues[p] = new double[count];
+		int j = 0;
+		for (int k = 0; k < e2.length; k++) {
+			if (!drop[k]) {
+				rowColumns[p][j] = k;
+				rowValues[p][j] = e2[k];
+				j++;
+			}
+		}
+	}
+
+	// E (V/m) and TER (%) of every probe for the load of each source
+	public void evalEandTER(double[] sourceLoad, double[] E, double[] TER) {
+		coupling.multiply(sourceLoad, E);
+		double[] scaledLoad = new double[nSources];
+		for (int k = 0; k < nSources; k++)
+			scaledLoad[k] = sourceLoad[k]*invLimit2[k];
+		coupling.multiply(scaledLoad, TER);
+		for (int p = 0; p < E.length; p++) {
+			E[p] = sqrt(E[p]);
+			TER[p] *= 100;
+		}
+	}
+	// Same load for all the radio sources of each base station (index of the NIR)
+	public double[] getSourceLoad(double[] stationLoad) {
+		double[] load = new double[nSources];
+		for (int k = 0; k < nSources; k++)
+			load[k] = stationLoad[sourceStation[k]];
+		return load;
+	}
+	public int getNSources() {
+		return nSources;
+	}
+	public SparseMatrix getCoupling() {
+		return coupling;
+	}
+}
@@ -0,0 +1,297 @@
+package telecom.nir;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.abs;
+import static java.lang.Math.atan2;
+import static java.lang.Math.ceil;
+import static java.lang.Math.floor;
+import static java.lang.Math.log;
+import static java.lang.Math.pow;
+import static java.lang.Math.round;
+import static java.lang.Math.sqrt;
+import static telecom.util.Functions.dB2Watt;
+import static telecom.util.Functions.getICNIRPLimits;
+import static telecom.util.Functions.getPhiDegree;
+import static telecom.util.Functions.getThetaRad;
+import static telecom.util.Functions.power2electricfield;
+
+import java.util.stream.IntStream;
+
+import telecom.basestation.BaseStation;
+import telecom.basestation.DirectivityCat2BSWith3Sectors;
+import telecom.basestation.StationTemplate;
+import telecom.propagation.PropagationModel;
+import telecom.util.Pair;
+import telecom.util.Point2D;
+import telecom.util.Point3D;
+
+/**
+ * Exposure of a network whose stations are on a regular lattice (square, hexagonal, ...), all
+ * with the same configuration and azimuth. The field is then periodic: it is computed once over a
+ * grid of the unit cell and tiled over the whole area, so a map of any size costs the same as one
+ * cell.
+ * 
+ * For each point of the cell, the stations closer than the cutoff radius Rc are summed exactly
+ * (lattice sum). The stations beyond Rc are replaced by a uniform density rho = 1/(cell area) of
+ * sources with the azimuth-averaged gain at Rc and a power law path loss r^-n fitted to the
+ * propagation model between Rc and 10*Rc (the analytic tail, as in the ring model of the paper):
+ * 
+ *   tail = 2*pi*rho*E^2(Rc)*Rc^2 * ln(Rmax/Rc)						n = 2
+ *   tail = 2*pi*rho*E^2(Rc)*Rc^2 * ((Rmax/Rc)^(2-n) - 1)/(2-n)		n != 2
+ * 
+ * Rmax is the network radius. It can be infinite only if n > 2 (the free space sum diverges).
+ * Within the cell the field is interpolated bilinearly, so the cell resolution must resolve the
+ * field variations near the stations.
+ */
+public class LatticeExposure {
+	public static class Lattice {
+		private Point2D origin;
+		private Point2D a1;
+		private Point2D a2;
+
+		// Sites at origin + i*a1 + j*a2 for all integers i, j
+		public Lattice(Point2D origin, Point2D a1, Point2D a2) {
+			if (abs(a1.x*a2.y - a1.y*a2.x) < 1e-9)
+				throw new IllegalArgumentException("The lattice vectors are collinear");
+			this.origin = origin;
+			this.a1 = a1;
+			this.a2 = a2;
+		}
+		// Hexagonal lattice with inter-site distance isd
+		public static Lattice hexagonal(Point2D origin, double isd) {
+			return new Lattice(origin, new Point2D(isd, 0), new Point2D(isd/2, isd*sqrt(3)/2));
+		}
+		public double getCellArea() {
+			return abs(a1.x*a2.y - a1.y*a2.x);
+		}
+		// Lattice coordinates (u, v) of (x, y): (x, y) = origin + u*a1 + v*a2
+		public double[] toLattice(double x, double y) {
+			double det = a1.x*a2.y - a1.y*a2.x;
+			double dx = x - origin.x;
+			double dy = y - origin.y;
+			return new double[] {(dx*a2.y - dy*a2.x)/det, (a1.x*dy - a1.y*dx)/det};
+		}
+		public Point2D getSite(double i, double j) {
+			return new Point2D(origin.x + i*a1.x + j*a2.x, origin.y + i*a1.y + j*a2.y);
+		}
+		public Point2D getOrigin() {
+			return origin;
+		}
+		public Point2D getA1() {
+			return a1;
+		}
+		public Point2D getA2() {
+			return a2;
+		}
+
+		// Returns the lattice of the positions (all within tolerance meters of a site), or null if
+		// they are not on a lattice. The basis is the two shortest independent difference vectors
+		// from the position closest to the centroid.
+		public static Lattice detect(double[] x, double[] y, double tolerance) {
+			int n = x.length;
+			if (n < 3)
+				return null;
+			double cx = 0, cy = 0;
+			for (int i = 0; i < n; i++) {
+				cx += x[i]/n;
+				cy += y[i]/n;
+			}
+			int ref = 0;
+			for (int i = 1; i < n; i++)
+				if (pow(x[i] - cx, 2) + pow(y[i] - cy, 2) < pow(x[ref] - cx, 2) + pow(y[ref] - cy, 2))
+					ref = i;
+			Point2D a1 = null;
+			for (int i = 0; i < n; i++) {
+				double dx = x[i] - x[ref], dy = y[i] - y[ref];
+				if (i != ref && dx*dx + dy*dy > tolerance*tolerance && (a1 == null || dx*dx + dy*dy < a1.x*a1.x + a1.y*a1.y))
+					a1 = new Point2D(dx, dy);
+			}
+			if (a1 == null)
+				return null;
+			double length1 = sqrt(a1.x*a1.x + a1.y*a1.y);
+			Point2D a2 = null;
+			for (int i = 0; i < n; i++) {
+				double dx = x[i] - x[ref], dy = y[i] - y[ref];
+				if (abs(a1.x*dy - a1.y*dx)/length1 > tolerance && (a2 == null || dx*dx + dy*dy < a2.x*a2.x + a2.y*a2.y))
+					a2 = new Point2D(dx, dy);
+			}
+			if (a2 == null)
+				return null;
+			Lattice lattice = new Lattice(new Point2D(x[ref], y[ref]), a1, a2);
+			for (int i = 0; i < n; i++) {
+				double[] uv = lattice.toLattice(x[i], y[i]);
+				Point2D site = lattice.getSite(round(uv[0]), round(uv[1]));
+				if (pow(site.x - x[i], 2) + pow(site.y - y[i], 2) > tolerance*tolerance)
+					return null;
+			}
+			return lattice;
+		}
+	}
+
+	private Lattice lattice;
+	private StationTemplate template;
+	private double azimuthDegree;
+	private PropagationModel pm;
+	private double hProbe;
+	private double cutoffRadius = 2000;
+	private double networkRadius = Double.POSITIVE_INFINITY;
+	private int resolution = 64;
+
+	// E^2 and TER (fraction) of the lattice sum at the grid of the cell: [iu*resolution + iv]
+	private double[] cellE2;
+	private double[] cellTER;
+	private double tailE2;
+	private double tailTER;
+
+	public LatticeExposure(Lattice lattice, StationTemplate template, double azimuthDegree, PropagationModel pm, double hProbe) {
+		this.lattice = lattice;
+		this.template = template;
+		this.azimuthDegree = azimuthDegree;
+		this.pm = pm;
+		this.hProbe = hProbe;
+	}
+	// Detects the lattice of the base stations of a NIR. The stations must be 
+	// DirectivityCat2BSWith3Sectors with the same configuration and propagation model, over a flat
+	// ground (a terrain breaks the translational symmetry of the lattice)
+	public static LatticeExposure of(NIR nir, double hProbe, double tolerance) {
+		if (nir.getTerrain() != null)
+			throw new IllegalArgumentException("Lattice exposure does not support a terrain");
+		int n = nir.getNBaseStations();
+		double[] x = new double[n];
+		double[] y = new double[n];
+		StationTemplate template = null;
+		for (int b = 0; b < n; b++) {
+			BaseStation bs = nir.getBaseStation(b);
+			if (!(bs instanceof DirectivityCat2BSWith3Sectors))
+				throw new IllegalArgumentException("Unsupported base station type: " + bs.getClass().getName());
+			StationTemplate t = StationTemplate.of((DirectivityCat2BSWith3Sectors) bs);
+			if (template == null)
+				template = t;
+			else if (!template.equals(t) || nir.getPropagationModel(b) != nir.getPropagationModel(0))
+				throw new IllegalArgumentException("Base station " + b + " has a different configuration");
+			x[b] = bs.getX();
+			y[b] = bs.getY();
+		}
+		Lattice lattice = Lattice.detect(x, y, tolerance);
+		if (lattice == null)
+			throw new IllegalArgumentException("The base stations are not on a lattice");
+		return new LatticeExposure(lattice, template, 0, nir.getPropagationModel(0), hProbe);
+	}
+	public void setCutoffRadius(double cutoffRadius) {
+		this.cutoffRadius = cutoffRadius;
+	}
+	public void setNetworkRadius(double networkRadius) {
+		this.networkRadius = networkRadius;
+	}
+	// Number of grid points along each lattice vector
+	public void setCellResolution(int resolution) {
+		this.resolution = resolution;
+	}
+
+	public void compute() {
+		cellE2 = new double[resolution*resolution];
+		cellTER = new double[resolution*resolution];
+		double area = lattice.getCellArea();
+		double length1 = sqrt(pow(lattice.a1.x, 2) + pow(lattice.a1.y, 2));
+		double length2 = sqrt(pow(lattice.a2.x, 2) + pow(lattice.a2.y, 2));
+		// Number of sites to check along each vector (area/length is the distance between rows)
+		int iMax = (int) ceil(cutoffRadius*length2/area) + 1;
+		int jMax = (int) ceil(cutoffRadius*length1/area) + 1;
+		IntStream.range(0, resolution*resolution).parallel().forEach(k -> {
+			double u = (double) (k / resolution)/resolution;
+			double v = (double) (k % resolution)/resolution;
+			Point2D p = lattice.getSite(u, v);
+			Point3D probe = new Point3D(p.x, p.y, hProbe);
+			double e2 = 0, ter = 0;
+			for (int i = -iMax; i <= iMax + 1; i++) {
+				for (int j = -jMax; j <= jMax + 1; j++) {
+					Point2D site = lattice.getSite(i, j);
+					if (pow(site.x - p.x, 2) + pow(site.y - p.y, 2) > cutoffRadius*cutoffRadius)
+						continue;
+					for (int s = 0; s < template.getNRadioSources(); s++) {
+						double e = fieldOfSource(site, s, probe);
+						e2 += e*e;
+						ter += pow(e/getICNIRPLimits(template.getFrequencyMHz(s)), 2);
+					}
+				}
+			}
+			cellE2[k] = e2;
+			cellTER[k] = ter;
+		});
+		computeTail();
+	}
+	private double fieldOfSource(Point2D site, int s, Point3D probe) {
+		Point3D txPos = new Point3D(site.x, site.y, template.getHeight(s));
+		double phi = StationTemplate.normalizeDegree(getPhiDegree(txPos, probe) - azimuthDegree);
+		double f = template.getFrequencyMHz(s);
+		double rxIsotropicPower = template.getEIRPdBm(s, getThetaRad(txPos, probe), phi) - 30 - pm.getPathLoss(txPos, probe, f);
+		return power2electricfield(dB2Watt(rxIsotropicPower), f);
+	}
+	private void computeTail() {
+		tailE2 = 0;
+		tailTER = 0;
+		double rho = 1/lattice.getCellArea();
+		double rc = cutoffRadius;
+		for (int s = 0; s < template.getNRadioSources(); s++) {
+			double f = template.getFrequencyMHz(s);
+			double h = template.getHeight(s);
+			// Azimuth-averaged E^2 at Rc
+			double e2Rc = 0;
+			for (int a = 0; a < 360; a++) {
+				Point3D probe = new Point3D(rc*Math.sin(a*PI/180), rc*Math.cos(a*PI/180), hProbe);
+				e2Rc += pow(fieldOfSource(new Point2D(0, 0), s, probe), 2)/360;
+			}
+			// Path loss exponent between Rc and 10*Rc
+			Point3D tx = new Point3D(0, 0, h);
+			double n = (pm.getPathLoss(tx, new Point3D(10*rc, 0, hProbe), f) - pm.getPathLoss(tx, new Point3D(rc, 0, hProbe), f))/10;
+			double integral;
+			if (Double.isInfinite(networkRadius)) {
+				if (n <= 2)
+					throw new IllegalStateException("The lattice sum diverges for a path loss exponent n = " + n 
+							+ " <= 2: set a finite network radius");
+				integral = rc*rc/(n - 2);
+			} else if (abs(n - 2) < 1e-6) {
+				integral = rc*rc*log(networkRadius/rc);
+			} else {
+				integral = rc*rc*(pow(networkRadius/rc, 2 - n) - 1)/(2 - n);
+			}
+			if (networkRadius <= rc)
+				integral = 0;
+			double tail = 2*PI*rho*e2Rc*integral;
+			tailE2 += tail;
+			tailTER += tail/pow(getICNIRPLimits(f), 2);
+		}
+	}
+
+	// E (V/m) and TER (%) at (x, y), at the probe height
+	public Pair<Double, Double> evalEandTER(double x, double y) {
+		double[] uv = lattice.toLattice(x, y);
+		double gu = (uv[0] - floor(uv[0]))*resolution;
+		double gv = (uv[1] - floor(uv[1]))*resolution;
+		int iu = (int) gu;
+		int iv = (int) gv;
+		double fu = gu - iu;
+		double fv = gv - iv;
+		int iu1 = (iu + 1) % resolution;
+		int iv1 = (iv + 1) % resolution;
+		iu %= resolution;
+		iv %= resolution;
+		double e2 = interpolate(cellE2, iu, iv, iu1, iv1, fu, fv) + tailE2;
+		double ter = interpolate(cellTER, iu, iv, iu1, iv1, fu, fv) + tailTER;
+		return new Pair<Double, Double>(sqrt(e2), ter*100);
+	}
+	private double interpolate(double[] grid, int iu, int iv, int iu1, int iv1, double fu, double fv) {
+		return (1 - fu)*((1 - fv)*grid[iu*resolution + iv] + fv*grid[iu*resolution + iv1])
+				+ fu*((1 - fv)*grid[iu1*resolution + iv] + fv*grid[iu1*resolution + iv1]);
+	}
+	public Lattice getLattice() {
+		return lattice;
+	}
+	// Contribution of the stations beyond the cutoff radius (E^2, in V^2/m^2, and TER, %)
+	public double getTailE2() {
+		return tailE2;
+	}
+	public double getTailTER() {
+		return tailTER*100;
+	}
+}
@@ -0,0 +1,106 @@
+package telecom.nir;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.abs;
+import static java.lang.Math.cos;
+import static java.lang.Math.max;
+import static java.lang.Math.sqrt;
+import static java.lang.Math.tan;
+import static telecom.util.Functions.getICNIRPLimits;
+import static telecom.util.Functions.sin;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-source constants of the exposure of each radio source of a SourceArrays in linear units,
+ * shared by the evaluators that avoid the dB round trips of NIR.evalEandTERAtProbe (LinearNIR,
+ * ColumnEvaluator):
+ *
+ *   E^2 = k*Fv*Fh*10^(-PL/10), with k = 377/aff*10^((EIRP - 30)/10)
+ *   E^2 = kFreeSpace*Fv*Fh/d^2 in free space, with kFreeSpace = k*10^(-3.244)/f^2*1e6 (d in meters)
+ *   TER = sum(E^2/limit^2)*100
+ *
+ * The ICNIRP limit and 377/aff are computed once per band. The vertical pattern (getFvdB) is
+ * evaluated from dz and d without atan2 and log10: one sin inside the main lobe and none outside.
+ * The sin is taken from Functions, so a FastMath set with Functions.setFastMath is used too.
+ */
+public class LinearKernel {
+	// getFvdB returns 0 dB for |theta - tilt| <= 0.00175 rad
+	private static final double SIN_CENTER = Math.sin(0.00175);
+
+	private double[] k;
+	private double[] kFreeSpace;
+	private double[] invLimit2;
+	private double[] envelopeLinear;
+	// tan of the first nulls of the main lobe
+	private double[] tanMin;
+	private double[] tanMax;
+	private double[] sincScale;
+	private double[] cosTilt;
+	private double[] sinTilt;
+
+	public LinearKernel(SourceArrays sources) {
+		int n = sources.size();
+		k = new double[n];
+		kFreeSpace = new double[n];
+		invLimit2 = new double[n];
+		envelopeLinear = new double[n];
+		tanMin = new double[n];
+		tanMax = new double[n];
+		sincScale = new double[n];
+		cosTilt = new double[n];
+		sinTilt = new double[n];
+
+		// Per band: 377/aff and 1/limit^2
+		Map<Double, double[]> bands = new HashMap<Double, double[]>();
+		for (int i = 0; i < n; i++) {
+			double f = sources.getFrequencyMHz()[i];
+			double[] band = bands.get(f);
+			if (band == null) {
+				double lambda = 3e8/(f*1e6);
+				double limit = getICNIRPLimits(f);
+				band = new double[] {377/((lambda*lambda)/(4*PI)), 1/(limit*limit)};
+				bands.put(f, band);
+			}
+			double tilt = sources.getTiltRad()[i];
+			double firstNull = 2.257*sources.getThetaBwVerticalRad()[i]/2;
+			k[i] = band[0]*Math.pow(10, (sources.getEirpMaxdBm()[i] - 30)/10);
+			kFreeSpace[i] = k[i]*Math.pow(10, -3.244)/(f*f)*1e6;
+			invLimit2[i] = band[1];
+			envelopeLinear[i] = Math.pow(10, sources.getMaxSideLobeEnvelopedB()[i]/10);
+			tanMin[i] = tilt - firstNull <= -PI/2 ? Double.NEGATIVE_INFINITY : tan(tilt - firstNull);
+			tanMax[i] = tilt + firstNull >= PI/2 ? Double.POSITIVE_INFINITY : tan(tilt + firstNull);
+			sincScale[i] = 1.392/Math.sin(sources.getThetaBwVerticalRad()[i]/2);
+			cosTilt[i] = cos(tilt);
+			sinTilt[i] = Math.sin(tilt);
+		}
+	}
+
+	// E^2 = k*Fv*Fh*10^(-PL/10)
+	public double[] getK() {
+		return k;
+	}
+	// E^2 = kFreeSpace*Fv*Fh/d^2 (d in meters)
+	public double[] getKFreeSpace() {
+		return kFreeSpace;
+	}
+	// 1/limit^2 (ICNIRP limit of the frequency of each source)
+	public double[] getInvLimit2() {
+		return invLimit2;
+	}
+	// DirectivityCat2BSWith3Sectors.getFvdB of source i in linear units, with theta = atan2(dz, d2) and
+	// d3_2 = d2^2 + dz^2: outside the first nulls (tested on tan(theta) = dz/d2, since tan is increasing)
+	// it is the envelope; inside, sin(theta - tilt) = (dz*cos(tilt) - d2*sin(tilt))/d3
+	public double verticalGainLinear(int i, double dz, double d2, double d3_2) {
+		double ratio = dz/d2;
+		if (ratio < tanMin[i] || ratio > tanMax[i])
+			return envelopeLinear[i];
+		double sinDiff = (dz*cosTilt[i] - d2*sinTilt[i])/sqrt(d3_2);
+		if (abs(sinDiff) <= SIN_CENTER)
+			return 1;
+		double aux = sincScale[i]*sinDiff;
+		double s = sin(aux)/aux;
+		return max(s*s, envelopeLinear[i]);
+	}
+}
@@ -0,0 +1,140 @@
+package telecom.nir;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.sqrt;
+import static telecom.util.Constants.RAD_TO_DEGREE;
+import static telecom.util.Functions.atan2;
+import static telecom.util.Functions.dB2Watt;
+
+import java.util.stream.IntStream;
+
+import telecom.basestation.DirectivityCat2BSWith3Sectors;
+import telecom.propagation.FreeSpace;
+import telecom.propagation.PropagationModel;
+import telecom.simulation.Deployment;
+import telecom.simulation.Scenario;
+import telecom.terrain.DigitalElevationModel;
+import telecom.util.Pair;
+import telecom.util.Point3D;
+
+/**
+ * Version of NIR.evalEandTERAtProbe that works in linear units. The dB round trips of the reference
+ * (EIRP and path loss in dB, dB2Watt, the square root of power2electricfield squared again, the
+ * ICNIRP limit recomputed per source) are replaced by the per-source constants of a LinearKernel
+ * (E^2 = kFreeSpace*Fv*Fh/d^2 in free space), and the vertical pattern is evaluated without atan2
+ * and log10. The horizontal pattern needs the azimuth (atan2) and one dB2Watt. Other propagation
+ * models use k*10^(-PL/10) instead of kFreeSpace/d^2.
+ *
+ * The results are the same as NIR.evalEandTERAtProbe up to rounding (including the terrain of the NIR,
+ * if any). The transcendental functions are taken from Functions, so a FastMath set with
+ * Functions.setFastMath is used too. Only DirectivityCat2BSWith3Sectors base stations are supported.
+ */
+public class LinearNIR {
+	private SourceArrays sources;
+	private LinearKernel kernel;
+	private int n;
+	private boolean freeSpace;
+	private DigitalElevationModel terrain;
+	private double[] stationGround;
+
+	public LinearNIR(NIR nir) {
+		sources = new SourceArrays(nir);
+		kernel = new LinearKernel(sources);
+		n = sources.size();
+		freeSpace = sources.allPropagationModelsAre(FreeSpace.class);
+		terrain = nir.getTerrain();
+		stationGround = sources.getGroundElevation();
+	}
+
+	// Consider only the base stations that are at least minDist meters apart form the probe
+	public Pair<Double, Double> evalEandTERAtProbe(Point3D probe, double minDist) {
+		double[] eAndTer = new double[2];
+		evalEandTERAtProbe(probe.x, probe.y, probe.z, minDist, eAndTer);
+		return new Pair<Double, Double>(eAndTer[0], eAndTer[1]);
+	}
+	// Evaluates the probes (px[p], py[p], pz) in parallel. E (V/m) and TER (%) must have the same
+	// length as px
+	public void evalEandTER(double[] px, double[] py, double pz, double minDist, double[] E, double[] TER) {
+		IntStream.range(0, px.length).parallel().forEach(p -> {
+			double[] eAndTer = new double[2];
+			evalEandTERAtProbe(px[p], py[p], pz, minDist, eAndTer);
+			E[p] = eAndTer[0];
+			TER[p] = eAndTer[1];
+		});
+	}
+
+	// Same as evalEandTERAtProbe(probe, minDist) without allocations (in free space):
+	// eAndTer[0] = E (V/m), eAndTer[1] = TER (%)
+	public void evalEandTERAtProbe(double px, double py, double pz, double minDist, double[] eAndTer) {
+		double probeGround = terrain == null ? 0 : terrain.getElevation(px, py);
+		double[] k = kernel.getK();
+		double[] kFreeSpace = kernel.getKFreeSpace();
+		double[] invLimit2 = kernel.getInvLimit2();
+		double e2 = 0;
+		double ter = 0;
+		for (int i = 0; i < n; i++) {
+			double dx = px - sources.getX()[i];
+			double dy = py - sources.getY()[i];
+			double horizontal2 = dx*dx + dy*dy;
+			double d2 = sqrt(horizontal2);
+			if (d2 <= minDist)
+				continue;
+			// Probe height relative to the ground below the base station
+			double pzBS = pz + probeGround - stationGround[i];
+			double dz = sources.getZ()[i] - pzBS;
+			double d3_2 = horizontal2 + dz*dz;
+
+			double gain = kernel.verticalGainLinear(i, dz, d2, d3_2);
+			if (sources.getUseHorizontalRP()[i]) {
+				double phi = 90 - atan2(dy, dx)*RAD_TO_DEGREE;
+				if (phi < 0) phi += 360;
+				gain *= dB2Watt(DirectivityCat2BSWith3Sectors.getFhdB(sources.getHorizontalRP()[i], phi));
+			}
+			double e2_i;
+			if (freeSpace) {
+				e2_i = kFreeSpace[i]*gain/d3_2;
+			} else {
+				PropagationModel pm = sources.getPropagationModel()[i];
+				Point3D txPos = new Point3D(sources.getX()[i], sources.getY()[i], sources.getZ()[i]);
+				double pl = terrain == null ? pm.getPathLoss(txPos, new Point3D(px, py, pz), sources.getFrequencyMHz()[i])
+						: pm.getPathLoss(txPos, new Point3D(px, py, pz), sources.getFrequencyMHz()[i], stationGround[i], probeGround);
+				e2_i = k[i]*gain*dB2Watt(-pl);
+			}
+			e2 += e2_i;
+			ter += e2_i*invLimit2[i];
+		}
+		eAndTer[0] = sqrt(e2);
+		eAndTer[1] = ter*100;
+	}
+	// Compares with NIR.evalEandTERAtProbe in the scenario of Test.main (850 MHz)
+	public static void main(String args[]) {
+		Deployment deployment = new Deployment(new Scenario(21, 30, 850, 3, 10, 60, 5000, 1.5));
+		NIR nir = deployment.getNIR();
+		LinearNIR linear = new LinearNIR(nir);
+		double[] px = deployment.getXProbes();
+		double[] py = deployment.getYProbes();
+		double minDist = deployment.getDistanceToNearestBS();
+		double[] E = new double[px.length];
+		double[] TER = new double[px.length];
+
+		for (int repeat = 0; repeat < 2; repeat++) {
+			long t0 = System.nanoTime();
+			double maxDiff = 0;
+			for (int p = 0; p < px.length; p++) {
+				Pair<Double, Double> reference = nir.evalEandTERAtProbe(new Point3D(px[p], py[p], 1.5), minDist);
+				E[p] = reference.getFirst();
+				TER[p] = reference.getSecond();
+			}
+			long t1 = System.nanoTime();
+			for (int p = 0; p < px.length; p++) {
+				Pair<Double, Double> eAndTer = linear.evalEandTERAtProbe(new Point3D(px[p], py[p], 1.5), minDist);
+				maxDiff = max(maxDiff, abs(eAndTer.getFirst() - E[p])/E[p]);
+				maxDiff = max(maxDiff, abs(eAndTer.getSecond() - TER[p])/TER[p]);
+			}
+			long t2 = System.nanoTime();
+			System.out.println("NIR: " + (t1 - t0)/1e6 + " ms, LinearNIR: " + (t2 - t1)/1e6
+					+ " ms, max relative difference: " + maxDiff);
+		}
+	}
+}
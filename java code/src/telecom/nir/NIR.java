@@ -16,6 +16,7 @@ import java.util.Vector;
 
 import telecom.basestation.BaseStation;
 import telecom.propagation.PropagationModel;
+import telecom.terrain.DigitalElevationModel;
 import telecom.util.Functions;
 import telecom.util.Pair;
 import telecom.util.Point2D;
@@ -24,45 +25,110 @@ import telecom.util.SimpleMatrix;
 
 public class NIR {
 	private Vector<Pair<BaseStation, PropagationModel>> baseStations;
+	// Ground elevation at each base station (only when a terrain is set)
+	private DigitalElevationModel terrain;
+	private Vector<Double> groundElevation = new Vector<Double>();
 	
 	public NIR() {
 		baseStations = new Vector<Pair<BaseStation, PropagationModel>>();
 	}
 	public void clearBaseStations() {
 		baseStations.clear();
+		groundElevation.clear();
 	}
 	public void addBaseStation(BaseStation bs, PropagationModel pm) {
 		baseStations.add(new Pair<BaseStation, PropagationModel>(bs, pm));
+		groundElevation.add(getGroundElevation(bs));
+	}
+	public void removeBaseStation(int i) {
+		baseStations.remove(i);
+		groundElevation.remove(i);
+	}
+	public void replaceBaseStation(int i, BaseStation bs, PropagationModel pm) {
+		baseStations.set(i, new Pair<BaseStation, PropagationModel>(bs, pm));
+		groundElevation.set(i, getGroundElevation(bs));
+	}
+	/**
+	 * Sets the ground elevation (null for a flat ground). The heights of the base stations and the
+	 * probes are then relative to the ground below them: each base station sees the probe at the
+	 * height probe.z + ground(probe) - ground(base station), which gives the elevation angle and
+	 * the distances of the propagation models over the terrain.
+	 */
+	public void setTerrain(DigitalElevationModel terrain) {
+		this.terrain = terrain;
+		for (int i = 0; i < baseStations.size(); i++)
+			groundElevation.set(i, getGroundElevation(baseStations.get(i).getFirst()));
+	}
+	public DigitalElevationModel getTerrain() {
+		return terrain;
+	}
+	// Ground elevation below the base station i (0 without terrain)
+	public double getBaseStationGround(int i) {
+		return groundElevation.get(i);
+	}
+	// Ground elevation at (x, y) (0 without terrain)
+	public double getGround(double x, double y) {
+		return terrain == null ? 0 : terrain.getElevation(x, y);
+	}
+	private double getGroundElevation(BaseStation bs) {
+		return terrain == null ? 0 : terrain.getElevation(bs.getX(), bs.getY());
+	}
+	public int getNBaseStations() {
+		return baseStations.size();
+	}
+	public BaseStation getBaseStation(int i) {
+		return baseStations.get(i).getFirst();
+	}
+	public PropagationModel getPropagationModel(int i) {
+		return baseStations.get(i).getSecond();
 	}
 	// Consider only the base stations that are at least minDist meters apart form the probe
 	// To consider all base stations, use minDist = 0
 	public Pair<Double, Double> evalEandTERAtProbe(Point3D probe, double minDist) {
+		return evalEandTERAtProbe(probe, minDist, null);
+	}
+	// Same as evalEandTERAtProbe(probe, minDist), also keeping the k sources with the largest 
+	// contributions to the TER in top (if it is not null)
+	public Pair<Double, Double> evalEandTERAtProbe(Point3D probe, double minDist, TopContributors top) {
+		if (top != null)
+			top.clear();
 		double E_field_total = 0;
 		double TER = 0;
+		double probeGround = terrain == null ? 0 : terrain.getElevation(probe.x, probe.y);
 		
-		for (Pair<BaseStation, PropagationModel> pairBsPm : baseStations) {
+		for (int b = 0; b < baseStations.size(); b++) {
+			Pair<BaseStation, PropagationModel> pairBsPm = baseStations.get(b);
 			BaseStation bs = pairBsPm.getFirst();
 			PropagationModel pm = pairBsPm.getSecond();
+			// Probe height relative to the ground below the base station (it may be negative; the
+			// propagation model gets the heights above the local ground and the ground elevations)
+			Point3D probeBS = terrain == null ? probe 
+					: new Point3D(probe.x, probe.y, probe.z + probeGround - groundElevation.get(b));
 
 			int NRadioSources = bs.getNRadioSources();
 			double[] freq_mhz = bs.getFrequencyMHz();
-			double[] eirpToProbe_dBm = bs.getEIRPdBm(probe);
+			double[] eirpToProbe_dBm = bs.getEIRPdBm(probeBS);
 			for (int i = 0; i < NRadioSources; i++) {
 				Point3D txPos = new Point3D(bs.getX(), 
 						bs.getY(), bs.getHeight()[i]);
 				double rxIsotropicPower = eirpToProbe_dBm[i] - 30 
-						- pm.getPathLoss(txPos, probe, freq_mhz[i]);
+						- (terrain == null ? pm.getPathLoss(txPos, probe, freq_mhz[i])
+								: pm.getPathLoss(txPos, probe, freq_mhz[i], groundElevation.get(b), probeGround));
 
 				double E_field_bs_i = power2electricfield(dB2Watt(rxIsotropicPower), freq_mhz[i]);
 				double ER_bs_i = pow((E_field_bs_i/getICNIRPLimits(freq_mhz[i])), 2);
 
-				double dist = Functions.get2DDistanceKM(txPos, probe);
+				double dist = Functions.get2DDistanceKM(txPos, probeBS);
 				if (dist*1000 > minDist) {
 					E_field_total += pow(E_field_bs_i, 2);
 					TER += ER_bs_i;	
+					if (top != null)
+						top.offer(ER_bs_i, b, i);
 				}
 			}
 		}
+		if (top != null)
+			top.finish(TER);
 		E_field_total = pow(E_field_total, 0.5);
 		TER *= 100;
 
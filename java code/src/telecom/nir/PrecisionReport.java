@@ -0,0 +1,49 @@
+package telecom.nir;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.log10;
+import static java.lang.Math.max;
+
+/**
+ * Deviation of an approximate evaluation (e.g., single precision) from the double precision
+ * reference. E deviations are in dB (20*log10(E/E_ref)); TER deviations are relative (%).
+ */
+public class PrecisionReport {
+	private long n = 0;
+	private double maxEdB = 0;
+	private double sumEdB = 0;
+	private double maxTERPercent = 0;
+	private double sumTERPercent = 0;
+
+	public PrecisionReport() { }
+
+	public void add(double e, double eReference, double ter, double terReference) {
+		double devE = abs(20*log10(e/eReference));
+		double devTER = terReference == 0 ? 0 : abs(ter/terReference - 1)*100;
+		n++;
+		maxEdB = max(maxEdB, devE);
+		sumEdB += devE;
+		maxTERPercent = max(maxTERPercent, devTER);
+		sumTERPercent += devTER;
+	}
+	public long getCount() {
+		return n;
+	}
+	public double getMaxEDeviationdB() {
+		return maxEdB;
+	}
+	public double getMeanEDeviationdB() {
+		return n == 0 ? 0 : sumEdB/n;
+	}
+	public double getMaxTERDeviationPercent() {
+		return maxTERPercent;
+	}
+	public double getMeanTERDeviationPercent() {
+		return n == 0 ? 0 : sumTERPercent/n;
+	}
+	public String toString() {
+		return "Compared probes: " + n 
+				+ "; E deviation (dB) max: " + maxEdB + ", mean: " + getMeanEDeviationdB()
+				+ "; TER deviation (%) max: " + maxTERPercent + ", mean: " + getMeanTERDeviationPercent();
+	}
+}
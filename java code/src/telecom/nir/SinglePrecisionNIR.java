@@ -0,0 +1,221 @@
+package telecom.nir;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.abs;
+import static java.lang.Math.atan2;
+import static java.lang.Math.log10;
+import static java.lang.Math.pow;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+import static telecom.util.Functions.getICNIRPLimits;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import telecom.propagation.FreeSpace;
+import telecom.util.Pair;
+import telecom.util.Point3D;
+
+/**
+ * Opt-in single precision (float) version of NIR.evalEandTERAtProbe for batches of probes.
+ * Station arrays, probe arrays, the horizontal radiation pattern table and the results are
+ * stored as float, which halves the memory traffic of large runs. The per-source sums of E^2 and
+ * TER use compensated (Kahan) summation, so the accumulated error does not grow with the number
+ * of base stations.
+ * 
+ * Per-source constants (EIRP - 30 - free space constant + E-field conversion, ICNIRP limit, main
+ * lobe coefficients) are folded once when the evaluator is built.
+ * 
+ * Every evaluation compares a sample of the probes (one every validationStride probes) with the
+ * double precision NIR and keeps the deviations in a PrecisionReport (see getLastReport).
+ * 
+ * Only DirectivityCat2BSWith3Sectors base stations with the FreeSpace propagation model, over a flat
+ * ground (no terrain), are supported.
+ */
+public class SinglePrecisionNIR {
+	private NIR nir;
+	private int n;
+	private float[] x;
+	private float[] y;
+	private float[] z;
+	private float[] tilt;
+	private float[] firstNull;
+	private float[] c;
+	private float[] envelope;
+	// eirp - 30 - 32.44 - 20*log10(f) + 10*log10(377/aff), in dB
+	private float[] k_db;
+	// 1/limit^2
+	private float[] invLimit2;
+	private boolean[] useHorizontalRP;
+	private float[][] horizontalRP;
+	private int validationStride = 100;
+	private PrecisionReport lastReport;
+
+	public SinglePrecisionNIR(NIR nir) {
+		this.nir = nir;
+		SourceArrays sources = new SourceArrays(nir);
+		if (!sources.allPropagationModelsAre(FreeSpace.class))
+			throw new IllegalArgumentException("Single precision mode supports only the FreeSpace propagation model");
+		if (sources.getTerrain() != null)
+			throw new IllegalArgumentException("Single precision mode does not support a terrain");
+
+		n = sources.size();
+		x = new float[n];
+		y = new float[n];
+		z = new float[n];
+		tilt = new float[n];
+		firstNull = new float[n];
+		c = new float[n];
+		envelope = new float[n];
+		k_db = new float[n];
+		invLimit2 = new float[n];
+		useHorizontalRP = sources.getUseHorizontalRP().clone();
+		horizontalRP = new float[n][];
+
+		// Base stations usually have equal tables (each one has its own copy), so they are converted
+		// once per distinct content
+		Map<TableKey, float[]> tables = new HashMap<TableKey, float[]>();
+		double[] lastTableSource = null;
+		float[] lastTable = null;
+		for (int i = 0; i < n; i++) {
+			double f = sources.getFrequencyMHz()[i];
+			double bw = sources.getThetaBwVerticalRad()[i];
+			double lambda = 3e8/(f*1e6);
+			double aff = (lambda*lambda)/(4*PI);
+			double limit = getICNIRPLimits(f);
+
+			x[i] = (float) sources.getX()[i];
+			y[i] = (float) sources.getY()[i];
+			z[i] = (float) sources.getZ()[i];
+			tilt[i] = (float) sources.getTiltRad()[i];
+			firstNull[i] = (float) (2.257*bw/2);
+			c[i] = (float) (1.392/sin(bw/2));
+			envelope[i] = (float) sources.getMaxSideLobeEnvelopedB()[i];
+			k_db[i] = (float) (sources.getEirpMaxdBm()[i] - 30 - 32.44 - 20*log10(f) + 10*log10(377/aff));
+			invLimit2[i] = (float) (1/(limit*limit));
+
+			double[] table = sources.getHorizontalRP()[i];
+			if (table != lastTableSource) {
+				TableKey key = new TableKey(table);
+				lastTable = tables.get(key);
+				if (lastTable == null) {
+					lastTable = new float[table.length];
+					for (int j = 0; j < table.length; j++)
+						lastTable[j] = (float) table[j];
+					tables.put(key, lastTable);
+				}
+				lastTableSource = table;
+			}
+			horizontalRP[i] = lastTable;
+		}
+	}
+
+	// Horizontal radiation pattern compared by content
+	private static class TableKey {
+		private double[] table;
+		private int hash;
+
+		TableKey(double[] table) {
+			this.table = table;
+			hash = Arrays.hashCode(table);
+		}
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof TableKey && Arrays.equals(table, ((TableKey) o).table);
+		}
+	}
+	// Number of distinct horizontal radiation pattern tables
+	public int getNHorizontalRPTables() {
+		Set<float[]> distinct = Collections.newSetFromMap(new IdentityHashMap<float[], Boolean>());
+		for (float[] table : horizontalRP)
+			distinct.add(table);
+		return distinct.size();
+	}
+
+	// Number of probes between two probes compared with the double precision reference 
+	// (0 disables the validation)
+	public void setValidationStride(int validationStride) {
+		this.validationStride = validationStride;
+	}
+	public PrecisionReport getLastReport() {
+		return lastReport;
+	}
+
+	// Evaluates the probes (px[i], py[i], pz). E (V/m) and TER (%) must have the same length as px
+	public void evalEandTER(float[] px, float[] py, float pz, double minDist, float[] E, float[] TER) {
+		IntStream.range(0, px.length).parallel().forEach(p -> evalProbe(px[p], py[p], pz, (float) minDist, E, TER, p));
+
+		lastReport = new PrecisionReport();
+		if (validationStride > 0) {
+			for (int p = 0; p < px.length; p += validationStride) {
+				Pair<Double, Double> reference = nir.evalEandTERAtProbe(new Point3D(px[p], py[p], pz), minDist);
+				lastReport.add(E[p], reference.getFirst(), TER[p], reference.getSecond());
+			}
+		}
+	}
+
+	private void evalProbe(float px, float py, float pz, float minDist, float[] E, float[] TER, int p) {
+		float e2 = 0, e2c = 0;
+		float ter = 0, terc = 0;
+		for (int i = 0; i < n; i++) {
+			float dx = px - x[i];
+			float dy = py - y[i];
+			float dz = z[i] - pz;
+			float d2 = (float) sqrt(dx*dx + dy*dy);
+			if (d2 <= minDist)
+				continue;
+			float d3_km = (float) sqrt(dx*dx + dy*dy + dz*dz)/1000f;
+
+			float theta = (float) atan2(dz, d2);
+			float fv = verticalGaindB(theta - tilt[i], i);
+			float fh = 0;
+			if (useHorizontalRP[i]) {
+				float phi = (float) (90 - atan2(dy, dx)*(180/PI));
+				if (phi < 0) phi += 360;
+				fh = horizontalGaindB(horizontalRP[i], phi);
+			}
+
+			float e2_i = (float) pow(10, (k_db[i] + fv + fh - 20*(float) log10(d3_km))/10);
+			float er_i = e2_i*invLimit2[i];
+
+			// Kahan summation
+			float yE = e2_i - e2c;
+			float tE = e2 + yE;
+			e2c = (tE - e2) - yE;
+			e2 = tE;
+			float yT = er_i - terc;
+			float tT = ter + yT;
+			terc = (tT - ter) - yT;
+			ter = tT;
+		}
+		E[p] = (float) sqrt(e2);
+		TER[p] = ter*100;
+	}
+	private float verticalGaindB(float dTheta, int i) {
+		if (abs(dTheta) <= 0.00175f)
+			return 0;
+		if (abs(dTheta) <= firstNull[i]) {
+			float aux = c[i]*(float) sin(dTheta);
+			float s = (float) sin(aux)/aux;
+			float fdB = 10*(float) log10(s*s);
+			return fdB < envelope[i] ? envelope[i] : fdB;
+		}
+		return envelope[i];
+	}
+	private static float horizontalGaindB(float[] table, float angle) {
+		int iAngle = (int) angle;
+		if (iAngle >= 360)
+			return table[360];
+		float diff = angle - iAngle;
+		return table[iAngle] + diff*(table[iAngle + 1] - table[iAngle]);
+	}
+}
@@ -0,0 +1,141 @@
+package telecom.nir;
+
+import static telecom.util.Functions.deg2rad;
+
+import telecom.basestation.BaseStation;
+import telecom.basestation.DirectivityCat2BSWith3Sectors;
+import telecom.propagation.PropagationModel;
+import telecom.terrain.DigitalElevationModel;
+
+/**
+ * The radio sources of a NIR evaluator flattened in parallel arrays (one entry per radio source,
+ * in the order used by NIR.evalEandTERAtProbe). Evaluators that process many probes at once use
+ * it to avoid walking the base station objects, allocating Point3D objects and recomputing
+ * per-source constants for every probe.
+ * 
+ * Only base stations of type DirectivityCat2BSWith3Sectors are supported. With a terrain, the
+ * positions are still relative to the ground below each source (getGroundElevation).
+ */
+public class SourceArrays {
+	private int n;
+	private double[] x;
+	private double[] y;
+	private double[] z;
+	private double[] freqMHz;
+	private double[] tiltRad;
+	private double[] bwRad;
+	private double[] eirpdBm;
+	private double[] envelopedB;
+	private boolean[] useHorizontalRP;
+	private double[][] horizontalRP;
+	private int[] station;
+	private int[] source;
+	private PropagationModel[] pm;
+	private DigitalElevationModel terrain;
+	private double[] ground;
+
+	public SourceArrays(NIR nir) {
+		for (int b = 0; b < nir.getNBaseStations(); b++)
+			n += nir.getBaseStation(b).getNRadioSources();
+
+		x = new double[n];
+		y = new double[n];
+		z = new double[n];
+		freqMHz = new double[n];
+		tiltRad = new double[n];
+		bwRad = new double[n];
+		eirpdBm = new double[n];
+		envelopedB = new double[n];
+		useHorizontalRP = new boolean[n];
+		horizontalRP = new double[n][];
+		station = new int[n];
+		source = new int[n];
+		pm = new PropagationModel[n];
+		terrain = nir.getTerrain();
+		ground = new double[n];
+
+		int k = 0;
+		for (int b = 0; b < nir.getNBaseStations(); b++) {
+			BaseStation bs = nir.getBaseStation(b);
+			if (!(bs instanceof DirectivityCat2BSWith3Sectors))
+				throw new IllegalArgumentException("Unsupported base station type: " + bs.getClass().getName());
+			DirectivityCat2BSWith3Sectors dbs = (DirectivityCat2BSWith3Sectors) bs;
+			for (int i = 0; i < dbs.getNRadioSources(); i++) {
+				x[k] = dbs.getX();
+				y[k] = dbs.getY();
+				z[k] = dbs.getHeight()[i];
+				freqMHz[k] = dbs.getFrequencyMHz()[i];
+				tiltRad[k] = deg2rad(dbs.getTiltDegree()[i]);
+				bwRad[k] = deg2rad(dbs.getThetaBwVerticalDegree()[i]);
+				eirpdBm[k] = dbs.getEirpMaxdBm()[i];
+				envelopedB[k] = dbs.getMaxSideLobeEnvelopedB()[i];
+				useHorizontalRP[k] = dbs.isUsingHorizontalRP();
+				horizontalRP[k] = dbs.getHorizontalRP();
+				station[k] = b;
+				source[k] = i;
+				pm[k] = nir.getPropagationModel(b);
+				ground[k] = nir.getBaseStationGround(b);
+				k++;
+			}
+		}
+	}
+
+	public int size() {
+		return n;
+	}
+	public double[] getX() {
+		return x;
+	}
+	public double[] getY() {
+		return y;
+	}
+	public double[] getZ() {
+		return z;
+	}
+	public double[] getFrequencyMHz() {
+		return freqMHz;
+	}
+	public double[] getTiltRad() {
+		return tiltRad;
+	}
+	public double[] getThetaBwVerticalRad() {
+		return bwRad;
+	}
+	public double[] getEirpMaxdBm() {
+		return eirpdBm;
+	}
+	public double[] getMaxSideLobeEnvelopedB() {
+		return envelopedB;
+	}
+	public boolean[] getUseHorizontalRP() {
+		return useHorizontalRP;
+	}
+	public double[][] getHorizontalRP() {
+		return horizontalRP;
+	}
+	// Index of the base station of each source in the NIR
+	public int[] getStationIndex() {
+		return station;
+	}
+	// Index of each source inside its base station
+	public int[] getSourceIndex() {
+		return source;
+	}
+	public PropagationModel[] getPropagationModel() {
+		return pm;
+	}
+	// Terrain of the NIR (null for a flat ground). Evaluators that do not support it must reject it
+	public DigitalElevationModel getTerrain() {
+		return terrain;
+	}
+	// Ground elevation below each source (0 without terrain)
+	public double[] getGroundElevation() {
+		return ground;
+	}
+	public boolean allPropagationModelsAre(Class<? extends PropagationModel> type) {
+		for (PropagationModel p : pm)
+			if (p.getClass() != type)
+				return false;
+		return true;
+	}
+}
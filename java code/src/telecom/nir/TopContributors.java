@@ -0,0 +1,178 @@
+package telecom.nir;
+
+import telecom.simulation.Deployment;
+import telecom.simulation.Scenario;
+import telecom.util.Pair;
+import telecom.util.Point3D;
+
+/**
+ * The k radio sources with the largest exposure ratios (E/limit)^2 at a probe, i.e. the sources that
+ * dominate the TER (ITU-R K.100). It is filled by NIR.evalEandTERAtProbe(probe, minDist, top) without
+ * storing the contribution of every source: the k largest are kept in a fixed size min-heap of
+ * primitive arrays (the smallest kept contribution at the root), so each source costs a comparison
+ * and, when it enters the heap, O(log k) swaps.
+ *
+ * After the evaluation the entries are sorted from the largest to the smallest contribution. Each
+ * entry has the index of the base station in the NIR (its id is nir.getBaseStation(station).getId()),
+ * the index of the radio source in the base station and the share of the TER (0 to 1).
+ *
+ * An instance can be reused for many probes (it is cleared by every evaluation), but not by several
+ * threads at the same time.
+ */
+public class TopContributors {
+	private int k;
+	private int size;
+	private double[] ratio;
+	private int[] station;
+	private int[] source;
+	// Sum of the exposure ratios of all sources
+	private double total;
+	private boolean sorted;
+
+	public TopContributors(int k) {
+		if (k < 1)
+			throw new IllegalArgumentException("k must be at least 1: " + k);
+		this.k = k;
+		ratio = new double[k];
+		station = new int[k];
+		source = new int[k];
+	}
+
+	public void clear() {
+		size = 0;
+		total = 0;
+		sorted = false;
+	}
+	// Exposure ratio (E/limit)^2 of the radio source `source` of the base station `station`
+	public void offer(double exposureRatio, int station, int source) {
+		if (size < k) {
+			set(size, exposureRatio, station, source);
+			siftUp(size++);
+		} else if (exposureRatio > ratio[0]) {
+			set(0, exposureRatio, station, source);
+			siftDown(0, size);
+		}
+	}
+	// Ends the evaluation of a probe: sets the sum of the exposure ratios of all sources and sorts the
+	// entries (heapsort: the minimum of the heap goes to the end)
+	public void finish(double totalExposureRatio) {
+		total = totalExposureRatio;
+		for (int end = size - 1; end > 0; end--) {
+			swap(0, end);
+			siftDown(0, end);
+		}
+		sorted = true;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1)/2;
+			if (ratio[parent] <= ratio[i])
+				return;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+	// Heap of the first `end` entries
+	private void siftDown(int i, int end) {
+		while (true) {
+			int smallest = i;
+			int left = 2*i + 1;
+			int right = left + 1;
+			if (left < end && ratio[left] < ratio[smallest])
+				smallest = left;
+			if (right < end && ratio[right] < ratio[smallest])
+				smallest = right;
+			if (smallest == i)
+				return;
+			swap(i, smallest);
+			i = smallest;
+		}
+	}
+	private void set(int i, double r, int b, int s) {
+		ratio[i] = r;
+		station[i] = b;
+		source[i] = s;
+	}
+	private void swap(int i, int j) {
+		double r = ratio[i];
+		int b = station[i];
+		int s = source[i];
+		set(i, ratio[j], station[j], source[j]);
+		set(j, r, b, s);
+	}
+	private void checkSorted() {
+		if (!sorted)
+			throw new IllegalStateException("The evaluation of the probe is not finished");
+	}
+
+	public int getK() {
+		return k;
+	}
+	// Number of entries (less than k if there are fewer sources)
+	public int size() {
+		return size;
+	}
+	// Index of the base station of the j-th largest contribution in the NIR
+	public int getStation(int j) {
+		checkSorted();
+		return station[j];
+	}
+	// Index of the radio source of the j-th largest contribution in its base station
+	public int getSource(int j) {
+		checkSorted();
+		return source[j];
+	}
+	// TER of the j-th largest contribution (%)
+	public double getTER(int j) {
+		checkSorted();
+		return ratio[j]*100;
+	}
+	// Share of the TER of the j-th largest contribution (0 to 1)
+	public double getShare(int j) {
+		checkSorted();
+		return total > 0 ? ratio[j]/total : 0;
+	}
+	// Share of the TER of the k largest contributions
+	public double getTotalShare() {
+		double share = 0;
+		for (int j = 0; j < size; j++)
+			share += getShare(j);
+		return share;
+	}
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("station\tsource\tTER (%)\tshare\n");
+		for (int j = 0; j < size; j++)
+			sb.append(getStation(j) + "\t" + getSource(j) + "\t" + getTER(j) + "\t" + getShare(j) + "\n");
+		return sb.toString();
+	}
+
+	// Dominant sources at a few probes of the scenario of Test.main (850 MHz) and the cost of the
+	// attribution
+	public static void main(String args[]) {
+		Deployment deployment = new Deployment(new Scenario(21, 30, 850, 3, 10, 60, 2000, 1.5));
+		NIR nir = deployment.getNIR();
+		double[] px = deployment.getXProbes();
+		double[] py = deployment.getYProbes();
+		double minDist = deployment.getDistanceToNearestBS();
+		TopContributors top = new TopContributors(5);
+
+		for (int p = 0; p < 3; p++) {
+			Pair<Double, Double> eAndTer = nir.evalEandTERAtProbe(new Point3D(px[p], py[p], 1.5), minDist, top);
+			System.out.println("Probe (" + px[p] + ", " + py[p] + "): TER = " + eAndTer.getSecond()
+					+ " %, top " + top.size() + " share = " + top.getTotalShare());
+			System.out.print(top);
+		}
+		for (int repeat = 0; repeat < 2; repeat++) {
+			long t0 = System.nanoTime();
+			for (int p = 0; p < px.length; p++)
+				nir.evalEandTERAtProbe(new Point3D(px[p], py[p], 1.5), minDist);
+			long t1 = System.nanoTime();
+			for (int p = 0; p < px.length; p++)
+				nir.evalEandTERAtProbe(new Point3D(px[p], py[p], 1.5), minDist, top);
+			long t2 = System.nanoTime();
+			System.out.println("Totals: " + (t1 - t0)/1e6 + " ms, with the top 5: " + (t2 - t1)/1e6 + " ms");
+		}
+	}
+}
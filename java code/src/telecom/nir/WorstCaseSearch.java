@@ -0,0 +1,277 @@
+package telecom.nir;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.atan2;
+import static java.lang.Math.log10;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.pow;
+import static java.lang.Math.sqrt;
+import static telecom.util.Constants.RAD_TO_DEGREE;
+import static telecom.util.Functions.getICNIRPLimits;
+
+import java.util.PriorityQueue;
+
+import telecom.basestation.BaseStation;
+import telecom.propagation.PropagationModel;
+import telecom.util.Pair;
+import telecom.util.Point3D;
+
+/**
+ * Branch and bound search of the point of maximum TER in a rectangular area (at the probe height).
+ * 
+ * The area is split in regions. For each region, an upper bound of the TER is computed from the
+ * maximum EIRP of each radio source over the elevation and azimuth angles that the region spans 
+ * (BaseStation.getMaxEIRPdBm) and the path loss to the point of the region closest to the source. Regions are explored best bound first: the center of each
+ * region is evaluated with NIR.evalEandTERAtProbe and the region is split in four. Regions whose
+ * bound cannot beat the best TER found (by more than the relative tolerance) are pruned.
+ * 
+ * The search stops when no region can beat the best TER by more than the tolerance, so the
+ * result is the global maximum within the tolerance. Regions smaller than minRegionSize are not
+ * split any further (the bound may be loose right below a station); they are reported by
+ * getUpperBound.
+ * 
+ * The bound assumes that the path loss does not decrease with the distance (true for FreeSpace
+ * and HataUrban) and a flat ground: a NIR with a terrain is rejected.
+ */
+public class WorstCaseSearch {
+	private NIR nir;
+	private double hProbe;
+	private double minDist = 0;
+	private double tolerance = 0.01;
+	private double minRegionSize = 0.5;
+	private int initialDivisions = 8;
+
+	// Per source data, grouped by base station
+	private BaseStation[] bs;
+	private PropagationModel[] pm;
+	private Point3D[][] txPos;
+	// 10*log10(377/aff/limit^2) - 30
+	private double[][] conversion_db;
+
+	private Point3D bestPoint;
+	private double bestTER;
+	private double bestE;
+	private double upperBound;
+	private int nEvaluations;
+	private int nBounds;
+
+	public WorstCaseSearch(NIR nir, double hProbe) {
+		// The bound uses the probe height above a flat ground: with a terrain it would not be a bound
+		if (nir.getTerrain() != null)
+			throw new IllegalArgumentException("Worst case search does not support a terrain");
+		this.nir = nir;
+		this.hProbe = hProbe;
+		int nBS = nir.getNBaseStations();
+		bs = new BaseStation[nBS];
+		pm = new PropagationModel[nBS];
+		txPos = new Point3D[nBS][];
+		conversion_db = new double[nBS][];
+		for (int b = 0; b < nBS; b++) {
+			bs[b] = nir.getBaseStation(b);
+			pm[b] = nir.getPropagationModel(b);
+			int nSources = bs[b].getNRadioSources();
+			txPos[b] = new Point3D[nSources];
+			conversion_db[b] = new double[nSources];
+			for (int i = 0; i < nSources; i++) {
+				double f = bs[b].getFrequencyMHz()[i];
+				double lambda = 3e8/(f*1e6);
+				double aff = (lambda*lambda)/(4*PI);
+				double limit = getICNIRPLimits(f);
+				txPos[b][i] = new Point3D(bs[b].getX(), bs[b].getY(), bs[b].getHeight()[i]);
+				conversion_db[b][i] = 10*log10(377/aff/(limit*limit)) - 30;
+			}
+		}
+	}
+	// Consider only the base stations that are at least minDist meters apart form the probe
+	public void setMinDist(double minDist) {
+		this.minDist = minDist;
+	}
+	// Relative tolerance: the result is at least (1 - tolerance) times the maximum TER
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+	// Side (meters) below which regions are not split
+	public void setMinRegionSize(double minRegionSize) {
+		this.minRegionSize = minRegionSize;
+	}
+	// The area is first split in initialDivisions x initialDivisions regions
+	public void setInitialDivisions(int initialDivisions) {
+		this.initialDivisions = max(1, initialDivisions);
+	}
+
+	public Point3D search(double xMin, double yMin, double xMax, double yMax) {
+		bestTER = Double.NEGATIVE_INFINITY;
+		bestPoint = null;
+		nEvaluations = 0;
+		nBounds = 0;
+		upperBound = 0;
+
+		PriorityQueue<double[]> regions = new PriorityQueue<double[]>((a, b) -> Double.compare(b[4], a[4]));
+		double dx = (xMax - xMin)/initialDivisions;
+		double dy = (yMax - yMin)/initialDivisions;
+		for (int i = 0; i < initialDivisions; i++)
+			for (int j = 0; j < initialDivisions; j++)
+				regions.add(region(xMin + i*dx, yMin + j*dy, xMin + (i + 1)*dx, yMin + (j + 1)*dy));
+
+		while (!regions.isEmpty()) {
+			double[] r = regions.poll();
+			if (r[4] <= bestTER*(1 + tolerance)) {
+				regions.clear();
+				break;
+			}
+			evaluate((r[0] + r[2])/2, (r[1] + r[3])/2);
+
+			if (max(r[2] - r[0], r[3] - r[1]) < minRegionSize) {
+				upperBound = max(upperBound, r[4]);
+				continue;
+			}
+			double cx = (r[0] + r[2])/2;
+			double cy = (r[1] + r[3])/2;
+			double[][] children = {
+					region(r[0], r[1], cx, cy), region(cx, r[1], r[2], cy),
+					region(r[0], cy, cx, r[3]), region(cx, cy, r[2], r[3])};
+			for (double[] child : children)
+				if (child[4] > bestTER*(1 + tolerance))
+					regions.add(child);
+		}
+		upperBound = max(upperBound, bestTER*(1 + tolerance));
+		return bestPoint;
+	}
+	private void evaluate(double x, double y) {
+		Point3D probe = new Point3D(x, y, hProbe);
+		Pair<Double, Double> eAndTer = nir.evalEandTERAtProbe(probe, minDist);
+		nEvaluations++;
+		if (eAndTer.getSecond() > bestTER) {
+			bestTER = eAndTer.getSecond();
+			bestE = eAndTer.getFirst();
+			bestPoint = probe;
+		}
+	}
+	// {xMin, yMin, xMax, yMax, upper bound of TER (%)}
+	private double[] region(double x0, double y0, double x1, double y1) {
+		nBounds++;
+		double bound = 0;
+		for (int b = 0; b < bs.length; b++) {
+			double sx = bs[b].getX();
+			double sy = bs[b].getY();
+			// Closest and farthest points of the region, in the horizontal plane
+			double cx = min(max(sx, x0), x1);
+			double cy = min(max(sy, y0), y1);
+			double fx = max(sx - x0, x1 - sx);
+			double fy = max(sy - y0, y1 - sy);
+			double dMin = sqrt((cx - sx)*(cx - sx) + (cy - sy)*(cy - sy));
+			double dMax = sqrt(fx*fx + fy*fy);
+			// The source is excluded everywhere in the region
+			if (dMax <= minDist)
+				continue;
+
+			// Range of elevation angles seen from the base station (all its radio sources)
+			double thetaMin = Double.POSITIVE_INFINITY;
+			double thetaMax = Double.NEGATIVE_INFINITY;
+			for (Point3D tx : txPos[b]) {
+				thetaMin = min(thetaMin, atan2(tx.z - hProbe, dMax));
+				thetaMax = max(thetaMax, atan2(tx.z - hProbe, dMin));
+			}
+			// Arc of azimuths (the whole circle if the base station is inside the region)
+			double phiMin = 0;
+			double phiMax = 360;
+			if (dMin > 0) {
+				double reference = phi(sx, sy, (x0 + x1)/2, (y0 + y1)/2);
+				double minDelta = 0, maxDelta = 0;
+				double[][] corners = {{x0, y0}, {x0, y1}, {x1, y0}, {x1, y1}};
+				for (double[] corner : corners) {
+					double delta = phi(sx, sy, corner[0], corner[1]) - reference;
+					if (delta > 180) delta -= 360;
+					if (delta < -180) delta += 360;
+					minDelta = min(minDelta, delta);
+					maxDelta = max(maxDelta, delta);
+				}
+				phiMin = reference + minDelta;
+				phiMax = reference + maxDelta;
+			}
+			double[] maxEirp = bs[b].getMaxEIRPdBm(thetaMin, thetaMax, phiMin, phiMax);
+
+			Point3D closest = new Point3D(cx, cy, hProbe);
+			for (int i = 0; i < txPos[b].length; i++) {
+				double pl = pm[b].getPathLoss(txPos[b][i], closest, bs[b].getFrequencyMHz()[i]);
+				bound += pow(10, (maxEirp[i] + conversion_db[b][i] - pl)/10);
+			}
+		}
+		return new double[] {x0, y0, x1, y1, bound*100};
+	}
+
+	// Upper bound of the TER (%) on the segment from (x0, y0) to (x1, y1), at the probe height.
+	// It is thread safe (used by ComplianceBoundary to skip parts of its rays)
+	public double getUpperBound(double x0, double y0, double x1, double y1) {
+		double lx = x1 - x0;
+		double ly = y1 - y0;
+		double length2 = lx*lx + ly*ly;
+		double bound = 0;
+		for (int b = 0; b < bs.length; b++) {
+			double sx = bs[b].getX();
+			double sy = bs[b].getY();
+			// Point of the segment closest to the base station, in the horizontal plane
+			double t = length2 == 0 ? 0 : min(max(((sx - x0)*lx + (sy - y0)*ly)/length2, 0), 1);
+			double cx = x0 + t*lx;
+			double cy = y0 + t*ly;
+			double dMin = sqrt((cx - sx)*(cx - sx) + (cy - sy)*(cy - sy));
+			double dMax = max(sqrt((x0 - sx)*(x0 - sx) + (y0 - sy)*(y0 - sy)), 
+					sqrt((x1 - sx)*(x1 - sx) + (y1 - sy)*(y1 - sy)));
+			if (dMax <= minDist)
+				continue;
+
+			double thetaMin = Double.POSITIVE_INFINITY;
+			double thetaMax = Double.NEGATIVE_INFINITY;
+			for (Point3D tx : txPos[b]) {
+				thetaMin = min(thetaMin, atan2(tx.z - hProbe, dMax));
+				thetaMax = max(thetaMax, atan2(tx.z - hProbe, dMin));
+			}
+			// The segment spans the arc between the azimuths of its ends (the whole circle if it
+			// passes through the base station)
+			double phiMin = 0;
+			double phiMax = 360;
+			if (dMin > 0) {
+				double phi0 = phi(sx, sy, x0, y0);
+				double delta = phi(sx, sy, x1, y1) - phi0;
+				if (delta > 180) delta -= 360;
+				if (delta < -180) delta += 360;
+				phiMin = phi0 + min(0, delta);
+				phiMax = phi0 + max(0, delta);
+			}
+			double[] maxEirp = bs[b].getMaxEIRPdBm(thetaMin, thetaMax, phiMin, phiMax);
+
+			Point3D closest = new Point3D(cx, cy, hProbe);
+			for (int i = 0; i < txPos[b].length; i++) {
+				double pl = pm[b].getPathLoss(txPos[b][i], closest, bs[b].getFrequencyMHz()[i]);
+				bound += pow(10, (maxEirp[i] + conversion_db[b][i] - pl)/10);
+			}
+		}
+		return bound*100;
+	}
+
+	// Azimuth of (x, y) seen from (sx, sy), as Functions.getPhiDegree
+	private static double phi(double sx, double sy, double x, double y) {
+		return 90 - atan2(y - sy, x - sx)*RAD_TO_DEGREE;
+	}
+
+	public Point3D getBestPoint() {
+		return bestPoint;
+	}
+	public double getBestTER() {
+		return bestTER;
+	}
+	public double getBestE() {
+		return bestE;
+	}
+	// Upper bound of the TER in the whole area
+	public double getUpperBound() {
+		return upperBound;
+	}
+	public int getNEvaluations() {
+		return nEvaluations;
+	}
+	public int getNBounds() {
+		return nBounds;
+	}
+}
@@ -0,0 +1,268 @@
+package telecom.propagation;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.floor;
+import static java.lang.Math.log10;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.sqrt;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import telecom.util.Point3D;
+
+/**
+ * Adds the losses of the buildings of a BuildingRaster to a base propagation model (FreeSpace by
+ * default). The station-to-probe path is traversed cell by cell over the raster (DDA, Amanatides
+ * and Woo; the path is first clipped to the raster, so a station or probe far outside it costs
+ * nothing), comparing the height of the path with the building height of each cell. When the
+ * path is obstructed, the signal takes the weaker of two losses:
+ * 
+ * 	- penetration: wallLossdB for each wall crossed (each entry into and exit from a building
+ *    below its roof), up to maxPenetrationLossdB;
+ * 	- diffraction over the roofs: single knife-edge at the most obstructing cell 
+ *    (ITU-R P.526: J(v) = 6.9 + 20*log10(sqrt((v - 0.1)^2 + 1) + v - 0.1), v > -0.78).
+ * 
+ * The obstruction loss of a station can be cached (opt-in, setUseCache) per (station position,
+ * frequency, probe height, probe cell): all probes in the same raster cell then share the loss of
+ * the first one evaluated (the base model is always evaluated at the exact positions). Each station
+ * has a primitive open addressing table (12 bytes per probe cell), and the whole cache is cleared
+ * when it reaches maxCacheEntries, so its memory is bounded. The cache is thread-safe.
+ */
+public class BuildingPropagation extends PropagationModel {
+	private BuildingRaster raster;
+	private PropagationModel base;
+	private double wallLossdB = 10;
+	private double maxPenetrationLossdB = 40;
+	private boolean useCache = false;
+	private int maxCacheEntries = 1 << 22;
+	private ConcurrentHashMap<StationKey, CellLosses> cache = new ConcurrentHashMap<StationKey, CellLosses>();
+	private AtomicLong cacheEntries = new AtomicLong();
+
+	private static final class StationKey {
+		private final double x, y, z, freqMHz, rxHeight;
+
+		StationKey(Point3D tx, double freqMHz, double rxHeight) {
+			x = tx.x;
+			y = tx.y;
+			z = tx.z;
+			this.freqMHz = freqMHz;
+			this.rxHeight = rxHeight;
+		}
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof StationKey))
+				return false;
+			StationKey k = (StationKey) o;
+			return x == k.x && y == k.y && z == k.z && freqMHz == k.freqMHz && rxHeight == k.rxHeight;
+		}
+		@Override
+		public int hashCode() {
+			long h = Double.doubleToLongBits(x);
+			h = 31*h + Double.doubleToLongBits(y);
+			h = 31*h + Double.doubleToLongBits(z);
+			h = 31*h + Double.doubleToLongBits(freqMHz);
+			h = 31*h + Double.doubleToLongBits(rxHeight);
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+	// Obstruction loss of a station per probe cell (linear probing; empty slots have key EMPTY)
+	private static final class CellLosses {
+		private static final long EMPTY = Long.MIN_VALUE;
+		private long[] keys = new long[64];
+		private float[] values = new float[64];
+		private int size = 0;
+
+		CellLosses() {
+			Arrays.fill(keys, EMPTY);
+		}
+		synchronized float get(long cell) {
+			int mask = keys.length - 1;
+			for (int i = hash(cell) & mask; keys[i] != EMPTY; i = (i + 1) & mask)
+				if (keys[i] == cell)
+					return values[i];
+			return Float.NaN;
+		}
+		// Returns true if the cell was added
+		synchronized boolean put(long cell, float loss) {
+			if (2*(size + 1) > keys.length)
+				grow();
+			int mask = keys.length - 1;
+			int i = hash(cell) & mask;
+			for (; keys[i] != EMPTY; i = (i + 1) & mask)
+				if (keys[i] == cell)
+					return false;
+			keys[i] = cell;
+			values[i] = loss;
+			size++;
+			return true;
+		}
+		private void grow() {
+			long[] oldKeys = keys;
+			float[] oldValues = values;
+			keys = new long[2*oldKeys.length];
+			values = new float[2*oldKeys.length];
+			Arrays.fill(keys, EMPTY);
+			int mask = keys.length - 1;
+			for (int j = 0; j < oldKeys.length; j++) {
+				if (oldKeys[j] == EMPTY)
+					continue;
+				int i = hash(oldKeys[j]) & mask;
+				while (keys[i] != EMPTY)
+					i = (i + 1) & mask;
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+		private static int hash(long cell) {
+			long h = cell*0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+	public BuildingPropagation(BuildingRaster raster) {
+		this(raster, new FreeSpace());
+	}
+	public BuildingPropagation(BuildingRaster raster, PropagationModel base) {
+		this.raster = raster;
+		this.base = base;
+	}
+	public void setWallLossdB(double wallLossdB) {
+		this.wallLossdB = wallLossdB;
+		clearCache();
+	}
+	public void setMaxPenetrationLossdB(double maxPenetrationLossdB) {
+		this.maxPenetrationLossdB = maxPenetrationLossdB;
+		clearCache();
+	}
+	public void setUseCache(boolean useCache) {
+		this.useCache = useCache;
+	}
+	// Number of (station, probe cell) losses kept before the cache is cleared
+	public void setMaxCacheEntries(int maxCacheEntries) {
+		this.maxCacheEntries = maxCacheEntries;
+		clearCache();
+	}
+	public void clearCache() {
+		cache.clear();
+		cacheEntries.set(0);
+	}
+	public long getCacheSize() {
+		return cacheEntries.get();
+	}
+
+	@Override
+	public double getPathLoss(Point3D txPosition, Point3D rxPosition, double freqMHz) {
+		return base.getPathLoss(txPosition, rxPosition, freqMHz) + getObstructionLoss(txPosition, rxPosition, freqMHz);
+	}
+	public double getObstructionLoss(Point3D txPosition, Point3D rxPosition, double freqMHz) {
+		if (!useCache)
+			return computeObstructionLoss(txPosition, rxPosition, freqMHz);
+		StationKey stationKey = new StationKey(txPosition, freqMHz, rxPosition.z);
+		long cell = ((long) raster.getCol(rxPosition.x) << 32) ^ (raster.getRow(rxPosition.y) & 0xFFFFFFFFL);
+		CellLosses perStation = cache.computeIfAbsent(stationKey, k -> new CellLosses());
+		float loss = perStation.get(cell);
+		if (Float.isNaN(loss)) {
+			loss = (float) computeObstructionLoss(txPosition, rxPosition, freqMHz);
+			if (perStation.put(cell, loss) && cacheEntries.incrementAndGet() > maxCacheEntries)
+				clearCache();
+		}
+		return loss;
+	}
+
+	private double computeObstructionLoss(Point3D tx, Point3D rx, double freqMHz) {
+		double cs = raster.getCellSize();
+		// Path in cell units
+		double x0 = (tx.x - raster.getXll())/cs, y0 = (tx.y - raster.getYll())/cs;
+		double x1 = (rx.x - raster.getXll())/cs, y1 = (rx.y - raster.getYll())/cs;
+		double dx = x1 - x0, dy = y1 - y0;
+		double d = sqrt(dx*dx + dy*dy)*cs;
+		if (d == 0)
+			return 0;
+
+		// Part of the path over the raster (Liang-Barsky clipping): the cells outside it have no
+		// buildings, so the walk starts at tStart and ends at tEnd
+		int nCols = raster.getNCols(), nRows = raster.getNRows();
+		double tStart = 0, tEnd = 1;
+		if (dx != 0) {
+			double ta = -x0/dx, tb = (nCols - x0)/dx;
+			tStart = max(tStart, min(ta, tb));
+			tEnd = min(tEnd, max(ta, tb));
+		} else if (x0 < 0 || x0 > nCols) {
+			return 0;
+		}
+		if (dy != 0) {
+			double ta = -y0/dy, tb = (nRows - y0)/dy;
+			tStart = max(tStart, min(ta, tb));
+			tEnd = min(tEnd, max(ta, tb));
+		} else if (y0 < 0 || y0 > nRows) {
+			return 0;
+		}
+		if (tStart >= tEnd)
+			return 0;
+
+		int col = tStart == 0 ? (int) floor(x0) : clamp((int) floor(x0 + tStart*dx), nCols);
+		int row = tStart == 0 ? (int) floor(y0) : clamp((int) floor(y0 + tStart*dy), nRows);
+		int endCol = (int) floor(x1), endRow = (int) floor(y1);
+		int stepCol = dx > 0 ? 1 : -1, stepRow = dy > 0 ? 1 : -1;
+		// Path parameter (0 at tx, 1 at rx) of the next vertical and horizontal cell boundaries
+		double tDeltaX = dx == 0 ? Double.POSITIVE_INFINITY : abs(1/dx);
+		double tDeltaY = dy == 0 ? Double.POSITIVE_INFINITY : abs(1/dy);
+		double tMaxX = dx == 0 ? Double.POSITIVE_INFINITY : (dx > 0 ? (col + 1 - x0) : (x0 - col))*tDeltaX;
+		double tMaxY = dy == 0 ? Double.POSITIVE_INFINITY : (dy > 0 ? (row + 1 - y0) : (y0 - row))*tDeltaY;
+
+		double lambda = 299.792458/freqMHz;
+		int walls = 0;
+		boolean inside = false;
+		double maxV = Double.NEGATIVE_INFINITY;
+		double tEnter = tStart;
+		while (true) {
+			double tExit = min(tEnd, min(tMaxX, tMaxY));
+			double h = raster.getHeight(col, row);
+			// Height of the path in the middle of its segment in this cell
+			double t = (tEnter + tExit)/2;
+			double pathHeight = tx.z + t*(rx.z - tx.z);
+			boolean blocked = h > 0 && h > pathHeight;
+			if (blocked != inside) {
+				walls++;
+				inside = blocked;
+			}
+			if (h > 0 && t > 0 && t < 1) {
+				double d1 = t*d, d2 = (1 - t)*d;
+				double v = (h - pathHeight)*sqrt(2*(d1 + d2)/(lambda*d1*d2));
+				if (v > maxV)
+					maxV = v;
+			}
+			if ((col == endCol && row == endRow) || tExit >= tEnd)
+				break;
+			tEnter = tExit;
+			if (tMaxX < tMaxY) {
+				col += stepCol;
+				tMaxX += tDeltaX;
+			} else {
+				row += stepRow;
+				tMaxY += tDeltaY;
+			}
+		}
+		// The path leaves the raster inside a building: the empty cells after the edge end it
+		if (inside && tEnd < 1)
+			walls++;
+		if (walls == 0)
+			return 0;
+		double penetration = min(maxPenetrationLossdB, walls*wallLossdB);
+		return min(penetration, knifeEdgeLossdB(maxV));
+	}
+	// Cell where the clipped path enters the raster (floor gives n on the far edge)
+	private static int clamp(int cell, int n) {
+		return cell < 0 ? 0 : cell >= n ? n - 1 : cell;
+	}
+	// ITU-R P.526 single knife-edge approximation
+	public static double knifeEdgeLossdB(double v) {
+		if (v <= -0.78)
+			return 0;
+		return 6.9 + 20*log10(sqrt((v - 0.1)*(v - 0.1) + 1) + v - 0.1);
+	}
+}
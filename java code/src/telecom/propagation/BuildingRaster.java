@@ -0,0 +1,131 @@
+package telecom.propagation;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.StringTokenizer;
+
+/**
+ * Building heights (meters above the ground) on a regular grid, read from an ESRI ASCII grid
+ * (.asc) file in the local (x, y) plane of the simulation:
+ * 
+ * 	ncols         4
+ * 	nrows         3
+ * 	xllcorner     0
+ * 	yllcorner     0
+ * 	cellsize      2
+ * 	NODATA_value  -9999
+ * 	0 0 12 12
+ * 	...
+ * 
+ * The first row of values is the northernmost one. Cells with 0, NODATA or outside the grid have
+ * no building.
+ */
+public class BuildingRaster {
+	private int nCols;
+	private int nRows;
+	private double xll;
+	private double yll;
+	private double cellSize;
+	// Row-major, row 0 = southernmost row
+	private float[] height;
+
+	public BuildingRaster(int nCols, int nRows, double xll, double yll, double cellSize, float[] heightSouthFirst) {
+		if (heightSouthFirst.length != nCols*nRows)
+			throw new IllegalArgumentException("Expected " + nCols*nRows + " heights, got " + heightSouthFirst.length);
+		this.nCols = nCols;
+		this.nRows = nRows;
+		this.xll = xll;
+		this.yll = yll;
+		this.cellSize = cellSize;
+		this.height = heightSouthFirst;
+	}
+	public static BuildingRaster load(String fileName) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		try {
+			int nCols = 0, nRows = 0;
+			double xll = 0, yll = 0, cellSize = 0, noData = -9999;
+			// xllcenter/yllcenter give the center of the lower left cell instead of its corner
+			boolean xCenter = false, yCenter = false;
+			StringTokenizer tokenizer = null;
+			String line;
+			// Header: keyword value lines, until the first line that starts with a number
+			while ((line = reader.readLine()) != null) {
+				tokenizer = new StringTokenizer(line);
+				if (!tokenizer.hasMoreTokens())
+					continue;
+				String first = tokenizer.nextToken();
+				if (!Character.isLetter(first.charAt(0))) {
+					tokenizer = new StringTokenizer(line);
+					break;
+				}
+				double value = Double.parseDouble(tokenizer.nextToken());
+				switch (first.toLowerCase()) {
+				case "ncols": nCols = (int) value; break;
+				case "nrows": nRows = (int) value; break;
+				case "xllcorner": xll = value; xCenter = false; break;
+				case "yllcorner": yll = value; yCenter = false; break;
+				case "xllcenter": xll = value; xCenter = true; break;
+				case "yllcenter": yll = value; yCenter = true; break;
+				case "cellsize": cellSize = value; break;
+				case "nodata_value": noData = value; break;
+				default: throw new IOException("Unknown header keyword: " + first);
+				}
+				tokenizer = null;
+			}
+			if (nCols <= 0 || nRows <= 0 || cellSize <= 0)
+				throw new IOException("Invalid or missing header in " + fileName);
+			if (xCenter)
+				xll -= cellSize/2;
+			if (yCenter)
+				yll -= cellSize/2;
+			float[] height = new float[nCols*nRows];
+			for (int i = 0; i < nCols*nRows; i++) {
+				while (tokenizer == null || !tokenizer.hasMoreTokens()) {
+					line = reader.readLine();
+					if (line == null)
+						throw new IOException("Expected " + nCols*nRows + " values in " + fileName + ", got " + i);
+					tokenizer = new StringTokenizer(line);
+				}
+				double h = Double.parseDouble(tokenizer.nextToken());
+				int rowFromNorth = i / nCols;
+				int col = i % nCols;
+				height[(nRows - 1 - rowFromNorth)*nCols + col] = (h == noData || h < 0) ? 0 : (float) h;
+			}
+			return new BuildingRaster(nCols, nRows, xll, yll, cellSize, height);
+		} finally {
+			reader.close();
+		}
+	}
+
+	public int getNCols() {
+		return nCols;
+	}
+	public int getNRows() {
+		return nRows;
+	}
+	public double getCellSize() {
+		return cellSize;
+	}
+	public double getXll() {
+		return xll;
+	}
+	public double getYll() {
+		return yll;
+	}
+	// Building height of the cell (col, row), row 0 = south. 0 outside the grid
+	public double getHeight(int col, int row) {
+		if (col < 0 || row < 0 || col >= nCols || row >= nRows)
+			return 0;
+		return height[row*nCols + col];
+	}
+	public double getHeight(double x, double y) {
+		return getHeight(getCol(x), getRow(y));
+	}
+	public int getCol(double x) {
+		return (int) Math.floor((x - xll)/cellSize);
+	}
+	public int getRow(double y) {
+		return (int) Math.floor((y - yll)/cellSize);
+	}
+}
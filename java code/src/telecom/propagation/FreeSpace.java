@@ -2,7 +2,7 @@ package telecom.propagation;
 
 import telecom.util.Point3D;
 import static telecom.util.Functions.get3DDistanceKM;
-import static java.lang.Math.log10;
+import static telecom.util.Functions.log10;
 
 public class FreeSpace extends PropagationModel {
 
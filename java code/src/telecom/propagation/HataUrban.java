@@ -47,7 +47,19 @@ public class HataUrban extends PropagationModel {
 		}
 		double Hb = max(txPosition.z, rxPosition.z);
 		double Hm = min(txPosition.z, rxPosition.z);
-		
+		return getPathLoss(d_km, Hb, Hm, freqMHz);
+	}
+	// Over a terrain the antenna heights are taken above the ground below each antenna and the distance
+	// from the absolute positions
+	@Override
+	public double getPathLoss(Point3D txPosition, Point3D rxPosition, double freqMHz, double txGround, double rxGround) {
+		double d_km = get3DDistanceKM(new Point3D(txPosition.x, txPosition.y, txPosition.z + txGround), 
+				new Point3D(rxPosition.x, rxPosition.y, rxPosition.z + rxGround));
+		double Hb = max(txPosition.z, rxPosition.z);
+		double Hm = min(txPosition.z, rxPosition.z);
+		return getPathLoss(d_km, Hb, Hm, freqMHz);
+	}
+	private double getPathLoss(double d_km, double Hb, double Hm, double freqMHz) {
 		double L = 0;
 		if (d_km <= 0.04) {
 			L = pathLossLessThan40meters(freqMHz, d_km, Hb, Hm);
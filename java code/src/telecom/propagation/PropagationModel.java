@@ -9,4 +9,12 @@ public abstract class PropagationModel {
 	}
 	
 	public abstract double getPathLoss(Point3D txPosition, Point3D rxPosition, double freqMHz);
+	
+	// Path loss over a terrain: txPosition.z and rxPosition.z are the heights above the ground below 
+	// each point, txGround and rxGround the ground elevations. By default the model is evaluated with
+	// the geometry relative to the ground below the transmitter (the receiver height may be negative);
+	// models that take antenna heights above the local ground override it
+	public double getPathLoss(Point3D txPosition, Point3D rxPosition, double freqMHz, double txGround, double rxGround) {
+		return getPathLoss(txPosition, new Point3D(rxPosition.x, rxPosition.y, rxPosition.z + rxGround - txGround), freqMHz);
+	}
 }
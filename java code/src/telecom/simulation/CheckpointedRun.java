@@ -0,0 +1,220 @@
+package telecom.simulation;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import telecom.util.Pair;
+import telecom.util.Point3D;
+import telecom.util.RunningStatistics;
+
+/**
+ * Runs a list of scenarios (e.g., the bands of Test.main) and writes the same "bs <f>MHz.txt"
+ * and "nir <f>MHz.txt" files as Test, with periodic checkpoints. The probes are drawn and
+ * evaluated one by one, and every checkpointInterval probes the output is flushed to disk and
+ * a checkpoint file is (atomically) replaced. It holds:
+ * 
+ * 	- the index of the current scenario and of the next probe (probes before it are done);
+ * 	- the state of the random generator;
+ * 	- the length of the nir file covered by the completed probes;
+ * 	- the E and TER streaming statistics of every scenario.
+ * 
+ * If a checkpoint file exists when run() is called, the run continues from it: the nir file is
+ * truncated to the checkpointed length and the random generator is restored, so the output
+ * is byte-identical to an uninterrupted run. The checkpoint file is deleted at the end.
+ */
+public class CheckpointedRun {
+	private List<Scenario> scenarios;
+	private Path outputDir;
+	private Path checkpointFile;
+	private int checkpointInterval;
+	private List<Pair<RunningStatistics, RunningStatistics>> statistics;
+
+	// A checkpoint is saved every checkpointInterval probes (> 0)
+	public CheckpointedRun(List<Scenario> scenarios, Path outputDir, Path checkpointFile, int checkpointInterval) {
+		if (checkpointInterval <= 0)
+			throw new IllegalArgumentException("The checkpoint interval must be positive: " + checkpointInterval);
+		this.scenarios = scenarios;
+		this.outputDir = outputDir;
+		this.checkpointFile = checkpointFile;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	public static String getBaseStationsFileName(Scenario scenario) {
+		return "bs " + ((int)scenario.getFreqMHz()) + "MHz.txt";
+	}
+	public static String getNIRFileName(Scenario scenario) {
+		return "nir " + ((int)scenario.getFreqMHz()) + "MHz.txt";
+	}
+	// <E statistics, TER statistics> of each scenario
+	public List<Pair<RunningStatistics, RunningStatistics>> getStatistics() {
+		return statistics;
+	}
+
+	public void run() throws IOException {
+		int firstScenario = 0;
+		int nextProbe = 0;
+		long nirLength = 0;
+		Random resumedRandom = null;
+		statistics = new ArrayList<Pair<RunningStatistics, RunningStatistics>>();
+
+		if (Files.exists(checkpointFile)) {
+			Properties checkpoint = new Properties();
+			InputStream in = Files.newInputStream(checkpointFile);
+			try {
+				checkpoint.load(in);
+			} finally {
+				in.close();
+			}
+			firstScenario = Integer.parseInt(checkpoint.getProperty("scenario"));
+			nextProbe = Integer.parseInt(checkpoint.getProperty("nextProbe"));
+			nirLength = Long.parseLong(checkpoint.getProperty("nirFileLength"));
+			if (checkpoint.getProperty("random") != null)
+				resumedRandom = decodeRandom(checkpoint.getProperty("random"));
+			for (int s = 0; s <= firstScenario && s < scenarios.size(); s++) {
+				String e = checkpoint.getProperty("eStats." + s);
+				String ter = checkpoint.getProperty("terStats." + s);
+				statistics.add(new Pair<RunningStatistics, RunningStatistics>(
+						e == null ? new RunningStatistics() : RunningStatistics.fromString(e),
+						ter == null ? new RunningStatistics() : RunningStatistics.fromString(ter)));
+			}
+		}
+
+		for (int s = firstScenario; s < scenarios.size(); s++) {
+			if (statistics.size() <= s)
+				statistics.add(new Pair<RunningStatistics, RunningStatistics>(new RunningStatistics(), new RunningStatistics()));
+			boolean resuming = s == firstScenario && resumedRandom != null;
+			runScenario(s, resuming ? nextProbe : 0, resuming ? nirLength : 0, resuming ? resumedRandom : null);
+		}
+		Files.deleteIfExists(checkpointFile);
+	}
+
+	private void runScenario(int s, int firstProbe, long nirLength, Random random) throws IOException {
+		Scenario scenario = scenarios.get(s);
+		System.out.println("Simulating: " + ((int)scenario.getFreqMHz()) + "MHz" 
+				+ (firstProbe > 0 ? " (resuming at probe " + firstProbe + ")" : ""));
+
+		Deployment deployment = new Deployment(scenario, false);
+		if (random == null)
+			random = deployment.getProbeRandom();
+		// The base stations are regenerated from the seed, so their file is always rewritten
+		Files.write(outputDir.resolve(getBaseStationsFileName(scenario)), 
+				deployment.formatBaseStations().getBytes(StandardCharsets.US_ASCII));
+
+		FileChannel nir = FileChannel.open(outputDir.resolve(getNIRFileName(scenario)), 
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			nir.truncate(nirLength);
+			nir.position(nirLength);
+			StringBuilder pending = new StringBuilder();
+			if (firstProbe == 0 && nirLength == 0)
+				pending.append(Deployment.PROBES_HEADER);
+
+			RunningStatistics eStats = statistics.get(s).getFirst();
+			RunningStatistics terStats = statistics.get(s).getSecond();
+			double L = scenario.getSide();
+			double hProbe = scenario.getHProbe();
+			double[] xy = new double[2];
+			for (int i = firstProbe; i < scenario.getNProbes(); i++) {
+				Deployment.nextProbe(random, L, xy);
+				Pair<Double, Double> eAndTer = deployment.getNIR().evalEandTERAtProbe(
+						new Point3D(xy[0], xy[1], hProbe), deployment.getDistanceToNearestBS());
+				pending.append(Deployment.formatProbe(xy[0], xy[1], eAndTer));
+				eStats.add(eAndTer.getFirst());
+				terStats.add(eAndTer.getSecond());
+
+				if ((i + 1) % checkpointInterval == 0 && i + 1 < scenario.getNProbes()) {
+					flush(nir, pending);
+					saveCheckpoint(s, i + 1, nir.position(), random);
+				}
+			}
+			flush(nir, pending);
+		} finally {
+			nir.close();
+		}
+		saveCheckpoint(s + 1, 0, 0, null);
+		System.out.println("Finished: " + ((int)scenario.getFreqMHz()) + "MHz");
+	}
+	private static void flush(FileChannel channel, StringBuilder pending) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.US_ASCII));
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		channel.force(false);
+		pending.setLength(0);
+	}
+	private void saveCheckpoint(int scenario, int nextProbe, long nirLength, Random random) throws IOException {
+		Properties checkpoint = new Properties();
+		checkpoint.setProperty("scenario", "" + scenario);
+		checkpoint.setProperty("nextProbe", "" + nextProbe);
+		checkpoint.setProperty("nirFileLength", "" + nirLength);
+		if (random != null)
+			checkpoint.setProperty("random", encodeRandom(random));
+		for (int s = 0; s < statistics.size(); s++) {
+			checkpoint.setProperty("eStats." + s, statistics.get(s).getFirst().toString());
+			checkpoint.setProperty("terStats." + s, statistics.get(s).getSecond().toString());
+		}
+
+		// Write to a temporary file and rename it, so a crash never leaves a partial checkpoint
+		Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+		OutputStream out = Files.newOutputStream(tmp);
+		try {
+			checkpoint.store(out, "Checkpoint of " + getClass().getSimpleName());
+		} finally {
+			out.close();
+		}
+		Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	private static String encodeRandom(Random random) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(random);
+		out.close();
+		return Base64.getEncoder().encodeToString(bytes.toByteArray());
+	}
+	private static Random decodeRandom(String str) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(str)));
+		try {
+			return (Random) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		} finally {
+			in.close();
+		}
+	}
+
+	// Usage: CheckpointedRun <scenarios file> <output dir> [checkpoint interval]
+	// The scenarios file has one Scenario.toString() per line. The checkpoint is kept in
+	// <output dir>/checkpoint.properties; running the same command again after an interruption resumes the run
+	public static void main(String args[]) throws IOException {
+		List<Scenario> scenarios = new ArrayList<Scenario>();
+		BufferedReader reader = new BufferedReader(new FileReader(args[0]));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.trim().length() > 0)
+				scenarios.add(Scenario.fromString(line));
+		}
+		reader.close();
+
+		Path outputDir = Path.of(args[1]);
+		int interval = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		new CheckpointedRun(scenarios, outputDir, outputDir.resolve("checkpoint.properties"), interval).run();
+	}
+}
@@ -0,0 +1,157 @@
+package telecom.simulation;
+
+import static java.lang.Math.pow;
+import static java.lang.Math.sqrt;
+import static telecom.util.Functions.dB2Watt;
+import static telecom.util.Functions.get2DDistanceKM;
+import static telecom.util.Functions.getICNIRPLimits;
+import static telecom.util.Functions.power2electricfield;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import telecom.basestation.BaseStation;
+import telecom.nir.NIR;
+import telecom.propagation.PropagationModel;
+import telecom.util.Point3D;
+import telecom.util.RunningStatistics;
+
+/**
+ * Evaluates a scenario for several base station densities with a single pass over the deployment
+ * at the maximum density. Every base station gets a random retention mark (its rank in a random
+ * permutation); the deployment at density d keeps the nBS(d) stations with the lowest marks, so the
+ * lower densities are nested subsets of the higher ones. The retained stations are still uniformly
+ * distributed, and their number is the same as Scenario.getNBaseStations at that density.
+ * 
+ * The contributions (E^2 and TER) of the stations are accumulated in one bin per density (the
+ * marks between the previous density and this one) and the prefix sums of the bins give the
+ * exposure at every density.
+ * 
+ * The station positions are the same as a Deployment of the scenario at the maximum density, so
+ * the lower densities are not the same realizations as separate Deployments at those densities.
+ */
+public class DensitySweep {
+	private Scenario scenario;
+	private double[] densities;
+	private Deployment deployment;
+	// Index of the first density that includes each base station
+	private int[] bin;
+	private double[][] E;
+	private double[][] TER;
+
+	// The densities (bs/km2) are sorted, and the scenario density is replaced by the maximum
+	public DensitySweep(Scenario scenario, double[] densities) {
+		if (densities.length == 0)
+			throw new IllegalArgumentException("No densities");
+		this.densities = densities.clone();
+		Arrays.sort(this.densities);
+		this.scenario = scenario.withBsDensity(this.densities[this.densities.length - 1]);
+		deployment = new Deployment(this.scenario);
+
+		int nBS = deployment.getBaseStations().size();
+		int[] rank = randomPermutation(nBS, new Random(this.scenario.getSeed() + 1));
+		int[] nBSPerDensity = new int[this.densities.length];
+		for (int k = 0; k < nBSPerDensity.length; k++)
+			nBSPerDensity[k] = this.scenario.withBsDensity(this.densities[k]).getNBaseStations();
+		bin = new int[nBS];
+		for (int b = 0; b < nBS; b++) {
+			int k = 0;
+			while (rank[b] >= nBSPerDensity[k])
+				k++;
+			bin[b] = k;
+		}
+	}
+	private static int[] randomPermutation(int n, Random random) {
+		int[] p = new int[n];
+		for (int i = 0; i < n; i++)
+			p[i] = i;
+		for (int i = n - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int aux = p[i];
+			p[i] = p[j];
+			p[j] = aux;
+		}
+		return p;
+	}
+
+	public void run() {
+		int nProbes = deployment.getXProbes().length;
+		E = new double[densities.length][nProbes];
+		TER = new double[densities.length][nProbes];
+		IntStream.range(0, nProbes).parallel().forEach(this::evalProbe);
+	}
+	// Same computation as NIR.evalEandTERAtProbe, with one accumulator per bin
+	private void evalProbe(int p) {
+		NIR nir = deployment.getNIR();
+		Point3D probe = new Point3D(deployment.getXProbes()[p], deployment.getYProbes()[p], scenario.getHProbe());
+		double minDist = deployment.getDistanceToNearestBS();
+		double[] e2 = new double[densities.length];
+		double[] ter = new double[densities.length];
+		for (int b = 0; b < nir.getNBaseStations(); b++) {
+			BaseStation bs = nir.getBaseStation(b);
+			PropagationModel pm = nir.getPropagationModel(b);
+			double[] freq_mhz = bs.getFrequencyMHz();
+			double[] eirpToProbe_dBm = bs.getEIRPdBm(probe);
+			for (int i = 0; i < bs.getNRadioSources(); i++) {
+				Point3D txPos = new Point3D(bs.getX(), bs.getY(), bs.getHeight()[i]);
+				if (get2DDistanceKM(txPos, probe)*1000 <= minDist)
+					continue;
+				double rxIsotropicPower = eirpToProbe_dBm[i] - 30 - pm.getPathLoss(txPos, probe, freq_mhz[i]);
+				double e = power2electricfield(dB2Watt(rxIsotropicPower), freq_mhz[i]);
+				e2[bin[b]] += pow(e, 2);
+				ter[bin[b]] += pow(e/getICNIRPLimits(freq_mhz[i]), 2);
+			}
+		}
+		double e2Total = 0;
+		double terTotal = 0;
+		for (int k = 0; k < densities.length; k++) {
+			e2Total += e2[k];
+			terTotal += ter[k];
+			E[k][p] = sqrt(e2Total);
+			TER[k][p] = terTotal*100;
+		}
+	}
+
+	// Densities in increasing order
+	public double[] getDensities() {
+		return densities;
+	}
+	public Deployment getDeployment() {
+		return deployment;
+	}
+	// Number of base stations retained at densities[k]
+	public int getNBaseStations(int k) {
+		int n = 0;
+		for (int b : bin)
+			if (b <= k)
+				n++;
+		return n;
+	}
+	// E (V/m) and TER (%) of every probe at densities[k]
+	public double[] getE(int k) {
+		return E[k];
+	}
+	public double[] getTER(int k) {
+		return TER[k];
+	}
+	public RunningStatistics getTERStatistics(int k) {
+		RunningStatistics stats = new RunningStatistics();
+		for (double v : TER[k])
+			stats.add(v);
+		return stats;
+	}
+
+	public static void main(String[] args) {
+		double[] densities = {0.5, 1, 2, 5, 10, 21};
+		Scenario scenario = new Scenario(21, 30, 850, 3, 10, 60, 500, 1.5);
+		long t0 = System.currentTimeMillis();
+		DensitySweep sweep = new DensitySweep(scenario, densities);
+		sweep.run();
+		System.out.println("Sweep of " + densities.length + " densities: " + (System.currentTimeMillis() - t0) + " ms");
+		for (int k = 0; k < densities.length; k++) {
+			RunningStatistics stats = sweep.getTERStatistics(k);
+			System.out.println(densities[k] + " bs/km2 (" + sweep.getNBaseStations(k) + " BS): mean TER = " + stats.getMean() + ", max TER = " + stats.getMax());
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package telecom.simulation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import telecom.basestation.BaseStation;
+import telecom.basestation.DirectivityCat2BSWith3Sectors;
+import telecom.nir.NIR;
+import telecom.propagation.FreeSpace;
+import telecom.propagation.PropagationModel;
+import telecom.util.LowDiscrepancySequence;
+import telecom.util.MatFileWriter;
+import telecom.util.Pair;
+import telecom.util.Point2D;
+import telecom.util.Point3D;
+import telecom.util.RunningStatistics;
+
+/**
+ * A realization of a Scenario: the base stations, the NIR evaluator and the probe positions.
+ * The random numbers are drawn in the same order as the original implementation of
+ * Test.simulate (all base stations first, then all probes), so the same scenario always
+ * produces the same deployment and the same output, no matter which probe range is evaluated.
+ */
+public class Deployment {
+	public static final String BASE_STATIONS_HEADER = "------------------------------\n"
+			+ "Base station positions\n"
+			+ "------------------------------\n";
+	public static final String PROBES_HEADER = "------------------------------\n"
+			+ "Probe (position, E, TER\n"
+			+ "------------------------------\n";
+
+	private Scenario scenario;
+	private NIR nir;
+	private List<BaseStation> bsList;
+	private double[] x_probes;
+	private double[] y_probes;
+	// Consider only the base stations with d > distanceToNearestBS
+	private double distanceToNearestBS = 0;
+	private Random random;
+
+	public Deployment(Scenario scenario) {
+		this(scenario, true);
+	}
+	// If createProbes is false, only the base stations are created and the probes can be drawn
+	// one by one from getProbeRandom() with nextProbe (e.g., to stream more probes than fit in memory)
+	public Deployment(Scenario scenario, boolean createProbes) {
+		this.scenario = scenario;
+		random = scenario.createRandom();
+		createBaseStations(random);
+		if (createProbes) {
+			createProbes(random);
+		} else {
+			x_probes = new double[0];
+			y_probes = new double[0];
+		}
+	}
+	// Places the base stations on a low-discrepancy (quasi-random) point set instead of the
+	// pseudo-random generator. The probes are not created: draw them with one of the nextProbe methods
+	public Deployment(Scenario scenario, LowDiscrepancySequence stationSequence) {
+		this.scenario = scenario;
+		random = scenario.createRandom();
+		createBaseStations(null, stationSequence);
+		x_probes = new double[0];
+		y_probes = new double[0];
+	}
+	private void createBaseStations(Random random) {
+		createBaseStations(random, null);
+	}
+	// Create propagation model (free space) and a nBS random base stations
+	// (from sequence, if it is not null)
+	private void createBaseStations(Random random, LowDiscrepancySequence sequence) {
+		double L = scenario.getSide();
+		int nBS = scenario.getNBaseStations();
+		PropagationModel pm = new FreeSpace();
+		nir = new NIR();
+		bsList = new ArrayList<BaseStation>(nBS);
+		double[] point = new double[2];
+
+		for (int i = 0; i < nBS; i++) {
+			if (sequence == null) {
+				point[0] = random.nextDouble();
+				point[1] = random.nextDouble();
+			} else {
+				sequence.next(point);
+			}
+			double xBS = L*point[0];
+			double yBS = L*point[1];
+			
+			boolean useHorizontalRP = true;
+			
+			BaseStation bs = new DirectivityCat2BSWith3Sectors(new Point2D(xBS, yBS),
+													new double[] {scenario.getHBS()},
+													new double[] {scenario.getFreqMHz()},
+													new double[] {scenario.getTiltDegree()},
+													new double[] {scenario.getThetaBwDegree()},
+													new double[] {scenario.getEirpdBm()},
+													new double[] {-20}, 
+													useHorizontalRP);
+			bsList.add(bs);
+			nir.addBaseStation(bs,  pm);
+		}
+	}
+	private void createProbes(Random random) {
+		double L = scenario.getSide();
+		int nProbes = scenario.getNProbes();
+		x_probes = new double[nProbes];
+		y_probes = new double[nProbes];
+		double[] xy = new double[2];
+		for (int i = 0; i < nProbes; i++) {		
+			nextProbe(random, L, xy);
+			x_probes[i] = xy[0];
+			y_probes[i] = xy[1];
+		}
+	}
+	// Draws the position of the next probe in the central L/2 x L/2 square
+	public static void nextProbe(Random random, double L, double[] xy) {
+		xy[0] = L/4 + (L/2)*random.nextDouble();
+		xy[1] = L/4 + (L/2)*random.nextDouble();
+	}
+	// Same as above, taking the position from a two-dimensional low-discrepancy sequence
+	public static void nextProbe(LowDiscrepancySequence sequence, double L, double[] xy) {
+		sequence.next(xy);
+		xy[0] = L/4 + (L/2)*xy[0];
+		xy[1] = L/4 + (L/2)*xy[1];
+	}
+	// Random generator positioned right after the base stations (only when the probes were not created)
+	public Random getProbeRandom() {
+		return random;
+	}
+
+	public Scenario getScenario() {
+		return scenario;
+	}
+	public NIR getNIR() {
+		return nir;
+	}
+	public List<BaseStation> getBaseStations() {
+		return bsList;
+	}
+	public double[] getXProbes() {
+		return x_probes;
+	}
+	public double[] getYProbes() {
+		return y_probes;
+	}
+	public double getDistanceToNearestBS() {
+		return distanceToNearestBS;
+	}
+	public void setDistanceToNearestBS(double distanceToNearestBS) {
+		this.distanceToNearestBS = distanceToNearestBS;
+	}
+
+	public Pair<Double, Double> evalProbe(int i) {
+		return nir.evalEandTERAtProbe(new Point3D(x_probes[i], y_probes[i], scenario.getHProbe()), distanceToNearestBS);
+	}
+	public String formatBaseStations() {
+		StringBuilder sb = new StringBuilder(BASE_STATIONS_HEADER);
+		for (BaseStation bs: bsList) {
+			sb.append(bs.getX() + "\t" + bs.getY() + "\n");
+		}
+		return sb.toString();
+	}
+	// Writes the base stations (matrix bs, 2 x nBS: x; y) and the probes (matrix nir, 4 x nProbes:
+	// x; y; E; TER) to a MAT-file. The probes are evaluated and streamed one by one
+	public void writeMat(Path file) throws IOException {
+		MatFileWriter writer = new MatFileWriter(file);
+		try {
+			writer.beginMatrix("bs", 2);
+			for (BaseStation bs: bsList) {
+				writer.append(bs.getX());
+				writer.append(bs.getY());
+			}
+			writer.endMatrix();
+			writer.beginMatrix("nir", 4);
+			for (int i = 0; i < x_probes.length; i++) {
+				Pair<Double, Double> eAndTer = evalProbe(i);
+				writer.append(x_probes[i]);
+				writer.append(y_probes[i]);
+				writer.append(eAndTer.getFirst());
+				writer.append(eAndTer.getSecond());
+			}
+			writer.endMatrix();
+		} finally {
+			writer.close();
+		}
+	}
+	public static String formatProbe(double x, double y, Pair<Double, Double> eAndTer) {
+		return x + "\t" + y + "\t" + eAndTer.getFirst() + "\t" + eAndTer.getSecond() + "\n";
+	}
+	// Evaluates the probes in [from, to[, appending one line per probe to out. 
+	// eStats and terStats can be null
+	public void evalProbes(int from, int to, StringBuilder out, 
+			RunningStatistics eStats, RunningStatistics terStats) {
+		for (int i = from; i < to; i++) {
+			Pair<Double, Double> eAndTer = evalProbe(i);
+			out.append(formatProbe(x_probes[i], y_probes[i], eAndTer));
+			if (eStats != null)
+				eStats.add(eAndTer.getFirst());
+			if (terStats != null)
+				terStats.add(eAndTer.getSecond());
+		}
+	}
+}
@@ -0,0 +1,332 @@
+package telecom.simulation;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.atan2;
+import static java.lang.Math.cos;
+import static java.lang.Math.exp;
+import static java.lang.Math.log;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+import static telecom.util.Functions.dB2Watt;
+import static telecom.util.Functions.deg2rad;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import telecom.basestation.BaseStation;
+import telecom.basestation.DirectivityCat2BSWith3Sectors;
+import telecom.util.Pair;
+import telecom.util.Point3D;
+import telecom.util.WeightedSample;
+
+/**
+ * Importance sampling of the probe positions of a Deployment. Uniform probes (as in Test.simulate)
+ * spend most of the evaluations far from the upper percentiles of the exposure. The probes are
+ * drawn from a mixture density q:
+ * 
+ *   q = alpha*uniform(area) + (1 - alpha)*[gamma*hot + (1 - gamma)/nBS * sum_b [(1 - beta)*near_b + beta*footprint_b]]
+ * 
+ * hot is uniform in the hot cells of a pilot grid: the probe area is divided in gridSize x gridSize
+ * cells, the TER is evaluated at the center of each cell and the cells with the largest TER
+ * (hotFraction of them) are kept. This is the component that matters at street level: at 1.5 m
+ * the tail of the TER is an aggregate of many stations (the largest contribution is about a
+ * quarter of the TER, in the tail as everywhere else), so it lives in the regions where the
+ * footprints of several stations overlap, which no kernel centered on a single station can find.
+ * 
+ * near_b is log-uniform in the distance to station b (between rMin and rMax), so every scale
+ * around the station gets the same number of probes. footprint_b is uniform in the annulus where
+ * the main beam of station b is strongest at the probe height: the radii where the main lobe
+ * combined with the free space spreading, Fv(theta(r))/(r^2 + dh^2), is within footprintRangedB of
+ * its maximum. At street level this is not where the boresight reaches the ground (dh/tan(tilt),
+ * 544 m in the scenario of Test.main) but much closer (150 to 400 m, peak at 220 m), because the
+ * 1/d^2 decay outweighs the lower part of the main lobe. The station kernels pay off when the
+ * probes are close to the height of the stations (rooftops, the upper floors of buildings), where
+ * the tail comes from a single station.
+ * 
+ * Each probe gets the likelihood weight p/q, where p is the uniform density of the probe area (the
+ * central L/2 x L/2 square); probes drawn outside the area get weight 0. The weighted statistics
+ * (WeightedSample) are then unbiased estimates of the statistics of the uniform placement. The
+ * uniform component keeps the weights bounded (w <= 1/alpha). The pilot grid costs gridSize^2
+ * evaluations (getPilotEvaluations), once per sampler; main compares with the uniform placement at
+ * the same total number of evaluations.
+ */
+public class ImportanceSampler {
+	private Deployment deployment;
+	private double uniformFraction = 0.3;
+	private double pilotFraction = 1;
+	private int gridSize = 25;
+	private double hotFraction = 0.1;
+	private double footprintFraction = 0.7;
+	private double footprintRangedB = 3;
+	private double rMin = 1;
+	private double rMax = 50;
+
+	private double[] xBS;
+	private double[] yBS;
+	// Annulus of the main beam footprint
+	private double dFootprintMin;
+	private double dFootprintMax;
+
+	private double xMin, yMin, side;
+	// Pilot grid: TER at the center of each cell (index i*gridSize + j, i along x) and the hot cells
+	private double[] cellTER;
+	private boolean[] hot;
+	private int[] hotCells;
+	private double cellSide;
+
+	public ImportanceSampler(Deployment deployment) {
+		this.deployment = deployment;
+		Scenario scenario = deployment.getScenario();
+		List<BaseStation> bsList = deployment.getBaseStations();
+		xBS = new double[bsList.size()];
+		yBS = new double[bsList.size()];
+		for (int b = 0; b < xBS.length; b++) {
+			xBS[b] = bsList.get(b).getX();
+			yBS[b] = bsList.get(b).getY();
+		}
+		xMin = yMin = scenario.getSide()/4;
+		side = scenario.getSide()/2;
+
+		computeFootprint();
+	}
+	// Annulus around the maximum of Fv(theta(r))/(r^2 + dh^2), with the main lobe alone, where it is
+	// within footprintRangedB of the maximum (searched every 0.5 m up to the side of the probe area)
+	private void computeFootprint() {
+		Scenario scenario = deployment.getScenario();
+		double dh = scenario.getHBS() - scenario.getHProbe();
+		double tilt = deg2rad(scenario.getTiltDegree());
+		double bw = deg2rad(scenario.getThetaBwDegree());
+		double step = 0.5;
+		int nSteps = (int) (side/step);
+		double[] profile = new double[nSteps + 1];
+		int peak = 0;
+		for (int i = 0; i <= nSteps; i++) {
+			double r = i*step;
+			double fv = DirectivityCat2BSWith3Sectors.getFvdB(atan2(dh, r), tilt, bw, Double.NEGATIVE_INFINITY);
+			profile[i] = dB2Watt(fv)/(r*r + dh*dh);
+			if (profile[i] > profile[peak])
+				peak = i;
+		}
+		if (dh <= 0 || !(profile[peak] > 0)) {
+			dFootprintMin = dFootprintMax = 0;
+			footprintFraction = 0;
+			return;
+		}
+		double floor = profile[peak]*dB2Watt(-footprintRangedB);
+		int first = peak;
+		while (first > 0 && profile[first - 1] >= floor)
+			first--;
+		int last = peak;
+		while (last < nSteps && profile[last + 1] >= floor)
+			last++;
+		dFootprintMin = first*step;
+		dFootprintMax = last*step;
+	}
+	// Fraction of the probes drawn uniformly
+	public void setUniformFraction(double uniformFraction) {
+		if (uniformFraction <= 0 || uniformFraction > 1)
+			throw new IllegalArgumentException("The uniform fraction must be in ]0, 1]");
+		this.uniformFraction = uniformFraction;
+	}
+	// Fraction of the non-uniform probes drawn from the hot cells of the pilot grid (the rest is drawn
+	// from the station kernels). 1 by default (street level); 0 is better for probes close to the
+	// height of the stations
+	public void setPilotFraction(double pilotFraction) {
+		this.pilotFraction = pilotFraction;
+	}
+	// Pilot grid of gridSize x gridSize cells, of which hotFraction (the largest TER) are sampled
+	public void setPilotGrid(int gridSize, double hotFraction) {
+		if (gridSize < 1 || hotFraction <= 0 || hotFraction > 1)
+			throw new IllegalArgumentException("Invalid pilot grid: " + gridSize + " cells, hot fraction " + hotFraction);
+		this.gridSize = gridSize;
+		this.hotFraction = hotFraction;
+		cellTER = null;
+	}
+	// Number of evaluations of the pilot grid, made once, when the first probe is drawn
+	public int getPilotEvaluations() {
+		return pilotFraction > 0 ? gridSize*gridSize : 0;
+	}
+	private void buildPilot() {
+		double hProbe = deployment.getScenario().getHProbe();
+		double minDist = deployment.getDistanceToNearestBS();
+		cellSide = side/gridSize;
+		double[] ter = new double[gridSize*gridSize];
+		IntStream.range(0, ter.length).parallel().forEach(k -> {
+			Point3D center = new Point3D(xMin + (k/gridSize + 0.5)*cellSide, yMin + (k%gridSize + 0.5)*cellSide, hProbe);
+			ter[k] = deployment.getNIR().evalEandTERAtProbe(center, minDist).getSecond();
+		});
+		double[] sorted = ter.clone();
+		Arrays.sort(sorted);
+		int nHot = max(1, (int) Math.round(hotFraction*ter.length));
+		double threshold = sorted[ter.length - nHot];
+		hot = new boolean[ter.length];
+		hotCells = new int[nHot];
+		int h = 0;
+		for (int k = 0; k < ter.length && h < nHot; k++) {
+			if (ter[k] >= threshold) {
+				hot[k] = true;
+				hotCells[h++] = k;
+			}
+		}
+		hotCells = Arrays.copyOf(hotCells, h);
+		cellTER = ter;
+	}
+	private int cell(double x, double y) {
+		int i = min(gridSize - 1, (int) ((x - xMin)/cellSide));
+		int j = min(gridSize - 1, (int) ((y - yMin)/cellSide));
+		return i*gridSize + j;
+	}
+	// Fraction of the station kernels spent on the main beam footprint
+	public void setFootprintFraction(double footprintFraction) {
+		this.footprintFraction = dFootprintMax > dFootprintMin ? footprintFraction : 0;
+	}
+	// Width of the main beam footprint: the annulus where the main lobe is within rangedB of its maximum
+	public void setFootprintRangedB(double rangedB) {
+		this.footprintRangedB = rangedB;
+		computeFootprint();
+	}
+	public double getFootprintMin() {
+		return dFootprintMin;
+	}
+	public double getFootprintMax() {
+		return dFootprintMax;
+	}
+	// Distance range (meters) of the log-uniform kernel around each station
+	public void setNearRange(double rMin, double rMax) {
+		this.rMin = rMin;
+		this.rMax = rMax;
+	}
+
+	// Draws a probe position into xy and returns its likelihood weight p/q
+	public double nextProbe(Random random, double[] xy) {
+		if (pilotFraction > 0 && cellTER == null)
+			buildPilot();
+		if (random.nextDouble() < uniformFraction) {
+			xy[0] = xMin + side*random.nextDouble();
+			xy[1] = yMin + side*random.nextDouble();
+		} else if (random.nextDouble() < pilotFraction) {
+			int k = hotCells[random.nextInt(hotCells.length)];
+			xy[0] = xMin + (k/gridSize + random.nextDouble())*cellSide;
+			xy[1] = yMin + (k%gridSize + random.nextDouble())*cellSide;
+		} else if (xBS.length == 0) {
+			// No station kernels: uniform
+			xy[0] = xMin + side*random.nextDouble();
+			xy[1] = yMin + side*random.nextDouble();
+		} else {
+			int b = random.nextInt(xBS.length);
+			double r;
+			if (random.nextDouble() < footprintFraction) {
+				double a2 = dFootprintMin*dFootprintMin;
+				double b2 = dFootprintMax*dFootprintMax;
+				r = sqrt(a2 + (b2 - a2)*random.nextDouble());
+			} else {
+				r = rMin*exp(log(rMax/rMin)*random.nextDouble());
+			}
+			double phi = 2*PI*random.nextDouble();
+			xy[0] = xBS[b] + r*cos(phi);
+			xy[1] = yBS[b] + r*sin(phi);
+		}
+		return weight(xy[0], xy[1]);
+	}
+	public double weight(double x, double y) {
+		if (x < xMin || x > xMin + side || y < yMin || y > yMin + side)
+			return 0;
+		return (1/(side*side))/density(x, y);
+	}
+	// Mixture density q at (x, y)
+	public double density(double x, double y) {
+		if (pilotFraction > 0 && cellTER == null)
+			buildPilot();
+		double q = uniformFraction/(side*side);
+		if (pilotFraction > 0 && x >= xMin && x <= xMin + side && y >= yMin && y <= yMin + side && hot[cell(x, y)])
+			q += (1 - uniformFraction)*pilotFraction/(hotCells.length*cellSide*cellSide);
+		if (pilotFraction >= 1)
+			return q;
+		if (xBS.length == 0)
+			return q + (1 - uniformFraction)*(1 - pilotFraction)/(side*side);
+		double logRange = log(rMax/rMin);
+		double annulusArea = PI*(dFootprintMax*dFootprintMax - dFootprintMin*dFootprintMin);
+		double kernels = 0;
+		for (int b = 0; b < xBS.length; b++) {
+			double dx = x - xBS[b];
+			double dy = y - yBS[b];
+			double r2 = dx*dx + dy*dy;
+			if (r2 >= rMin*rMin && r2 <= rMax*rMax)
+				kernels += (1 - footprintFraction)/(2*PI*r2*logRange);
+			if (footprintFraction > 0 && r2 >= dFootprintMin*dFootprintMin && r2 <= dFootprintMax*dFootprintMax)
+				kernels += footprintFraction/annulusArea;
+		}
+		return q + (1 - uniformFraction)*(1 - pilotFraction)*kernels/xBS.length;
+	}
+
+	// Draws and evaluates nProbes probes, adding (value, weight) to eSample and terSample
+	public void sample(int nProbes, Random random, WeightedSample eSample, WeightedSample terSample) {
+		double hProbe = deployment.getScenario().getHProbe();
+		double minDist = deployment.getDistanceToNearestBS();
+		double[] xy = new double[2];
+		for (int i = 0; i < nProbes; i++) {
+			double w = nextProbe(random, xy);
+			if (w == 0) {
+				// Outside the probe area: contributes nothing, no need to evaluate
+				eSample.add(0, 0);
+				terSample.add(0, 0);
+				continue;
+			}
+			Pair<Double, Double> eAndTer = deployment.getNIR().evalEandTERAtProbe(new Point3D(xy[0], xy[1], hProbe), minDist);
+			eSample.add(eAndTer.getFirst(), w);
+			terSample.add(eAndTer.getSecond(), w);
+		}
+	}
+
+	// Street level (1.5 m) by default. The uniform placement gets the same total number of
+	// evaluations: nProbes plus the pilot grid
+	public static void main(String[] args) {
+		double hProbe = args.length > 0 ? Double.parseDouble(args[0]) : 1.5;
+		Scenario scenario = new Scenario(1, 30, 850, 3, 10, 60, 0, hProbe);
+		Deployment deployment = new Deployment(scenario, false);
+		ImportanceSampler sampler = new ImportanceSampler(deployment);
+		ImportanceSampler uniformSampler = new ImportanceSampler(deployment);
+		uniformSampler.setUniformFraction(1);
+		uniformSampler.setPilotFraction(0);
+		int nProbes = 2000;
+		int nUniform = nProbes + sampler.getPilotEvaluations();
+		int nReplicas = 20;
+		double[] p = {0.99, 0.999};
+		double[][] uniform = new double[p.length][nReplicas];
+		double[][] importance = new double[p.length][nReplicas];
+		for (int rep = 0; rep < nReplicas; rep++) {
+			Random random = new Random(rep);
+			WeightedSample e = new WeightedSample(), ter = new WeightedSample();
+			uniformSampler.sample(nUniform, random, e, ter);
+			for (int k = 0; k < p.length; k++)
+				uniform[k][rep] = ter.getQuantile(p[k]);
+			e = new WeightedSample();
+			ter = new WeightedSample();
+			sampler.sample(nProbes, random, e, ter);
+			for (int k = 0; k < p.length; k++)
+				importance[k][rep] = ter.getQuantile(p[k]);
+		}
+		System.out.println("hProbe = " + hProbe + " m, " + nReplicas + " replicas, main beam footprint "
+				+ sampler.getFootprintMin() + " to " + sampler.getFootprintMax() + " m");
+		for (int k = 0; k < p.length; k++) {
+			System.out.println("TER percentile " + 100*p[k]);
+			System.out.println("  uniform (" + nUniform + " probes):    " + summary(uniform[k]));
+			System.out.println("  importance (" + nProbes + " probes + " + sampler.getPilotEvaluations() 
+					+ " pilot): " + summary(importance[k]));
+		}
+	}
+	private static String summary(double[] v) {
+		double mean = 0;
+		for (double d : v)
+			mean += d;
+		mean /= v.length;
+		double var = 0;
+		for (double d : v)
+			var += (d - mean)*(d - mean);
+		return "mean = " + mean + ", std = " + sqrt(var/(v.length - 1));
+	}
+}
@@ -0,0 +1,238 @@
+package telecom.simulation;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import telecom.basestation.DirectivityCat2BSWith3Sectors;
+import telecom.nir.LinearNIR;
+import telecom.nir.NIR;
+import telecom.util.MatFileWriter;
+import telecom.util.Pair;
+import telecom.util.Point3D;
+import telecom.util.RunningStatistics;
+
+/**
+ * Evaluates probe sets that do not fit in the heap. Probes and results are kept in binary files
+ * and processed in windows of windowSize probes, through two direct (off-heap) buffers that are
+ * allocated once. The heap usage is therefore fixed, whatever the number of probes, and the
+ * probe data never goes through the garbage collector. The window is limited to
+ * Integer.MAX_VALUE/BYTES_PER_PROBE probes (the capacity of a ByteBuffer).
+ * 
+ * When all base stations are DirectivityCat2BSWith3Sectors, the probes are evaluated with LinearNIR
+ * (primitive arguments and results, the same values as NIR.evalEandTERAtProbe up to rounding), so
+ * no object is allocated per probe in free space. Other base stations are evaluated with
+ * NIR.evalEandTERAtProbe.
+ * 
+ * File formats (little endian, no header):
+ * 	probes file: x, y (double) for each probe (16 bytes per probe)
+ * 	results file: E (V/m), TER (%) (double) for each probe (16 bytes per probe)
+ * Both can be read in MATLAB with fread(fid, [2 Inf], 'double', 0, 'ieee-le').
+ */
+public class OffHeapProbeEvaluator {
+	public static final int BYTES_PER_PROBE = 16;
+	// Probes evaluated by each parallel task
+	private static final int BLOCK_SIZE = 256;
+
+	private NIR nir;
+	private double hProbe;
+	private double minDist = 0;
+	private int windowSize;
+	private ByteBuffer probeWindow;
+	private ByteBuffer resultWindow;
+	private RunningStatistics eStats;
+	private RunningStatistics terStats;
+
+	public OffHeapProbeEvaluator(NIR nir, double hProbe, int windowSize) {
+		this.nir = nir;
+		this.hProbe = hProbe;
+		this.windowSize = windowSize;
+		probeWindow = allocateWindow(windowSize);
+		resultWindow = allocateWindow(windowSize);
+	}
+	private static ByteBuffer allocateWindow(int windowSize) {
+		long bytes = (long) windowSize*BYTES_PER_PROBE;
+		if (windowSize <= 0 || bytes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("The window size must be between 1 and " 
+					+ Integer.MAX_VALUE/BYTES_PER_PROBE + ": " + windowSize);
+		return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	// Consider only the base stations that are at least minDist meters apart form the probe
+	public void setMinDist(double minDist) {
+		this.minDist = minDist;
+	}
+
+	// Writes the nProbes probes of the scenario to a probe file, drawing them in the same order as
+	// Test.simulate, window by window
+	public static void generateProbes(Deployment deployment, long nProbes, Path probes, int windowSize) throws IOException {
+		Random random = deployment.getProbeRandom();
+		double L = deployment.getScenario().getSide();
+		ByteBuffer window = allocateWindow(windowSize);
+		double[] xy = new double[2];
+
+		FileChannel channel = FileChannel.open(probes, StandardOpenOption.CREATE, 
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			for (long done = 0; done < nProbes; ) {
+				int count = (int) Math.min(windowSize, nProbes - done);
+				window.clear();
+				for (int i = 0; i < count; i++) {
+					Deployment.nextProbe(random, L, xy);
+					window.putDouble(xy[0]).putDouble(xy[1]);
+				}
+				window.flip();
+				while (window.hasRemaining())
+					channel.write(window);
+				done += count;
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	// Evaluates all probes of the probes file and writes E and TER to the results file
+	public void evaluate(Path probes, Path results) throws IOException {
+		eStats = new RunningStatistics();
+		terStats = new RunningStatistics();
+		// Built for each run, so it sees the current base stations
+		LinearNIR linear = isLinearSupported() ? new LinearNIR(nir) : null;
+
+		FileChannel in = FileChannel.open(probes, StandardOpenOption.READ);
+		FileChannel out = FileChannel.open(results, StandardOpenOption.CREATE, 
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			long nProbes = in.size()/BYTES_PER_PROBE;
+			for (long done = 0; done < nProbes; ) {
+				int count = (int) Math.min(windowSize, nProbes - done);
+				readWindow(in, done, count);
+				evaluateWindow(count, linear);
+				writeWindow(out, done, count);
+				done += count;
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+	private void readWindow(FileChannel in, long firstProbe, int count) throws IOException {
+		probeWindow.clear().limit(count*BYTES_PER_PROBE);
+		long position = firstProbe*BYTES_PER_PROBE;
+		while (probeWindow.hasRemaining()) {
+			int read = in.read(probeWindow, position + probeWindow.position());
+			if (read < 0)
+				throw new IOException("Unexpected end of the probes file");
+		}
+	}
+	private boolean isLinearSupported() {
+		for (int b = 0; b < nir.getNBaseStations(); b++)
+			if (!(nir.getBaseStation(b) instanceof DirectivityCat2BSWith3Sectors))
+				return false;
+		return true;
+	}
+	private void evaluateWindow(int count, LinearNIR linear) {
+		// Blocks of probes, each with its own result array
+		int nBlocks = (count + BLOCK_SIZE - 1)/BLOCK_SIZE;
+		IntStream.range(0, nBlocks).parallel().forEach(block -> {
+			double[] eAndTer = new double[2];
+			for (int i = block*BLOCK_SIZE; i < Math.min(count, (block + 1)*BLOCK_SIZE); i++) {
+				double x = probeWindow.getDouble(i*BYTES_PER_PROBE);
+				double y = probeWindow.getDouble(i*BYTES_PER_PROBE + 8);
+				if (linear != null) {
+					linear.evalEandTERAtProbe(x, y, hProbe, minDist, eAndTer);
+				} else {
+					Pair<Double, Double> result = nir.evalEandTERAtProbe(new Point3D(x, y, hProbe), minDist);
+					eAndTer[0] = result.getFirst();
+					eAndTer[1] = result.getSecond();
+				}
+				resultWindow.putDouble(i*BYTES_PER_PROBE, eAndTer[0]);
+				resultWindow.putDouble(i*BYTES_PER_PROBE + 8, eAndTer[1]);
+			}
+		});
+		// Sequential pass: the statistics do not depend on the thread scheduling
+		for (int i = 0; i < count; i++) {
+			eStats.add(resultWindow.getDouble(i*BYTES_PER_PROBE));
+			terStats.add(resultWindow.getDouble(i*BYTES_PER_PROBE + 8));
+		}
+	}
+	private void writeWindow(FileChannel out, long firstProbe, int count) throws IOException {
+		resultWindow.clear().limit(count*BYTES_PER_PROBE);
+		long position = firstProbe*BYTES_PER_PROBE;
+		while (resultWindow.hasRemaining())
+			out.write(resultWindow, position + resultWindow.position());
+	}
+
+	public RunningStatistics getEStatistics() {
+		return eStats;
+	}
+	public RunningStatistics getTERStatistics() {
+		return terStats;
+	}
+
+	// Converts a probes file and its results file to a MAT-file with the matrix nir 
+	// (4 x nProbes: x; y; E; TER), window by window
+	public void exportMat(Path probes, Path results, Path file) throws IOException {
+		FileChannel inProbes = FileChannel.open(probes, StandardOpenOption.READ);
+		FileChannel inResults = FileChannel.open(results, StandardOpenOption.READ);
+		MatFileWriter writer = new MatFileWriter(file);
+		try {
+			writer.beginMatrix("nir", 4);
+			long nProbes = inProbes.size()/BYTES_PER_PROBE;
+			for (long done = 0; done < nProbes; ) {
+				int count = (int) Math.min(windowSize, nProbes - done);
+				readWindow(inProbes, done, count);
+				readResultWindow(inResults, done, count);
+				for (int i = 0; i < count; i++) {
+					writer.append(probeWindow.getDouble(i*BYTES_PER_PROBE));
+					writer.append(probeWindow.getDouble(i*BYTES_PER_PROBE + 8));
+					writer.append(resultWindow.getDouble(i*BYTES_PER_PROBE));
+					writer.append(resultWindow.getDouble(i*BYTES_PER_PROBE + 8));
+				}
+				done += count;
+			}
+			writer.endMatrix();
+		} finally {
+			writer.close();
+			inProbes.close();
+			inResults.close();
+		}
+	}
+	private void readResultWindow(FileChannel in, long firstProbe, int count) throws IOException {
+		resultWindow.clear().limit(count*BYTES_PER_PROBE);
+		while (resultWindow.hasRemaining())
+			if (in.read(resultWindow, firstProbe*BYTES_PER_PROBE + resultWindow.position()) < 0)
+				throw new IOException("Unexpected end of the results file");
+	}
+	// Converts a probes file and its results file to the text format of Test.simulate
+	public void exportText(Path probes, Path results, String fileName) throws IOException {
+		FileChannel inProbes = FileChannel.open(probes, StandardOpenOption.READ);
+		FileChannel inResults = FileChannel.open(results, StandardOpenOption.READ);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(fileName));
+		try {
+			writer.write(Deployment.PROBES_HEADER);
+			long nProbes = inProbes.size()/BYTES_PER_PROBE;
+			for (long done = 0; done < nProbes; ) {
+				int count = (int) Math.min(windowSize, nProbes - done);
+				readWindow(inProbes, done, count);
+				readResultWindow(inResults, done, count);
+				for (int i = 0; i < count; i++) {
+					writer.write(probeWindow.getDouble(i*BYTES_PER_PROBE) + "\t" 
+							+ probeWindow.getDouble(i*BYTES_PER_PROBE + 8) + "\t" 
+							+ resultWindow.getDouble(i*BYTES_PER_PROBE) + "\t" 
+							+ resultWindow.getDouble(i*BYTES_PER_PROBE + 8) + "\n");
+				}
+				done += count;
+			}
+		} finally {
+			writer.close();
+			inProbes.close();
+			inResults.close();
+		}
+	}
+}
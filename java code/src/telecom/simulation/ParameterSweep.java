@@ -0,0 +1,275 @@
+package telecom.simulation;
+
+import static java.lang.Math.atan2;
+import static java.lang.Math.max;
+import static java.lang.Math.pow;
+import static java.lang.Math.sqrt;
+import static telecom.util.Functions.dB2Watt;
+import static telecom.util.Functions.deg2rad;
+import static telecom.util.Functions.getPhiDegree;
+import static telecom.util.Functions.sin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import telecom.basestation.DirectivityCat2BSWith3Sectors;
+import telecom.nir.LinearKernel;
+import telecom.nir.SourceArrays;
+import telecom.propagation.FreeSpace;
+import telecom.propagation.PropagationModel;
+import telecom.util.Point3D;
+
+/**
+ * Evaluates the probes of a Deployment for many values of tilt, vertical beamwidth, station height
+ * and EIRP without rebuilding the deployment. The geometry that does not depend on these parameters
+ * (squared horizontal distance and horizontal pattern gain of every probe/source pair) is computed
+ * once. The points are then grouped by station height: for each height, the elevation angle and
+ * E^2 without the vertical pattern (EIRP, horizontal gain and path loss, in linear units) are
+ * computed once per probe/source pair. Each tilt/beamwidth point of the group only applies the
+ * vertical pattern (at most one sin per pair), and points that differ only in the EIRP offset share
+ * the same evaluation: the EIRP is applied as a linear rescale of E^2 and TER.
+ * 
+ * The parameters of a sweep point replace the parameters of every radio source (NaN keeps the
+ * value of the source). The EIRP is an offset (dB) added to the EIRP of every source.
+ * 
+ * Only DirectivityCat2BSWith3Sectors base stations over a flat ground (no terrain) are supported.
+ * The cache holds 16 bytes per probe/source pair, plus 16 bytes per pair during a run.
+ */
+public class ParameterSweep {
+	public static class Point {
+		private double tiltDegree;
+		private double thetaBwDegree;
+		private double hBS;
+		private double eirpOffsetdB;
+
+		public Point(double tiltDegree, double thetaBwDegree, double hBS, double eirpOffsetdB) {
+			this.tiltDegree = tiltDegree;
+			this.thetaBwDegree = thetaBwDegree;
+			this.hBS = hBS;
+			this.eirpOffsetdB = eirpOffsetdB;
+		}
+		public double getTiltDegree() {
+			return tiltDegree;
+		}
+		public double getThetaBwDegree() {
+			return thetaBwDegree;
+		}
+		public double getHBS() {
+			return hBS;
+		}
+		public double getEirpOffsetdB() {
+			return eirpOffsetdB;
+		}
+		// Points with the same geometry key differ only in the EIRP offset
+		private String getGeometryKey() {
+			return tiltDegree + "\t" + thetaBwDegree + "\t" + hBS;
+		}
+		public String toString() {
+			return tiltDegree + "\t" + thetaBwDegree + "\t" + hBS + "\t" + eirpOffsetdB;
+		}
+	}
+
+	private SourceArrays sources;
+	private LinearKernel kernel;
+	private double[] px;
+	private double[] py;
+	private double hProbe;
+	private double minDist;
+	private int nSources;
+	private boolean freeSpace;
+	// Per probe/source pair (index probe*nSources + source)
+	private double[] horizontalDistance2;
+	// Horizontal pattern gain (linear)
+	private double[] fh;
+	// Per pair, for the station height being evaluated: elevation angle and E^2 without the
+	// vertical pattern
+	private double[] theta;
+	private double[] e2WithoutFv;
+	private int nEvaluations;
+	private int nHeightEvaluations;
+
+	public ParameterSweep(Deployment deployment) {
+		this(new SourceArrays(deployment.getNIR()), deployment.getXProbes(), deployment.getYProbes(),
+				deployment.getScenario().getHProbe(), deployment.getDistanceToNearestBS());
+	}
+	public ParameterSweep(SourceArrays sources, double[] px, double[] py, double hProbe, double minDist) {
+		if (sources.getTerrain() != null)
+			throw new IllegalArgumentException("Parameter sweeps do not support a terrain");
+		this.sources = sources;
+		kernel = new LinearKernel(sources);
+		this.px = px;
+		this.py = py;
+		this.hProbe = hProbe;
+		this.minDist = minDist;
+		nSources = sources.size();
+		freeSpace = sources.allPropagationModelsAre(FreeSpace.class);
+		long size = (long) px.length*nSources;
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many probe/source pairs: " + size);
+		horizontalDistance2 = new double[(int) size];
+		fh = new double[(int) size];
+
+		IntStream.range(0, px.length).parallel().forEach(p -> {
+			for (int i = 0; i < nSources; i++) {
+				int k = p*nSources + i;
+				double dx = px[p] - sources.getX()[i];
+				double dy = py[p] - sources.getY()[i];
+				horizontalDistance2[k] = dx*dx + dy*dy;
+				// The azimuth does not depend on the heights
+				fh[k] = sources.getUseHorizontalRP()[i] ? dB2Watt(DirectivityCat2BSWith3Sectors.getFhdB(sources.getHorizontalRP()[i],
+						getPhiDegree(new Point3D(sources.getX()[i], sources.getY()[i], 0), new Point3D(px[p], py[p], 0)))) : 1;
+			}
+		});
+	}
+
+	// Evaluates every point. E[j] and TER[j] receive the results of points.get(j), one value per probe
+	public void run(List<Point> points, double[][] E, double[][] TER) {
+		// Station height -> tilt and beamwidth -> points (that differ only in the EIRP offset)
+		Map<Double, Map<String, List<Integer>>> heights = new LinkedHashMap<Double, Map<String, List<Integer>>>();
+		for (int j = 0; j < points.size(); j++)
+			heights.computeIfAbsent(points.get(j).hBS, key -> new LinkedHashMap<String, List<Integer>>())
+					.computeIfAbsent(points.get(j).getGeometryKey(), key -> new ArrayList<Integer>()).add(j);
+
+		nEvaluations = 0;
+		nHeightEvaluations = 0;
+		theta = new double[horizontalDistance2.length];
+		e2WithoutFv = new double[horizontalDistance2.length];
+		double[] e2 = new double[px.length];
+		double[] ter = new double[px.length];
+		for (Map.Entry<Double, Map<String, List<Integer>>> height : heights.entrySet()) {
+			evaluateHeight(height.getKey());
+			nHeightEvaluations++;
+			for (List<Integer> group : height.getValue().values()) {
+				evaluate(points.get(group.get(0)), e2, ter);
+				nEvaluations++;
+				for (int j : group) {
+					double scale = pow(10, points.get(j).getEirpOffsetdB()/10);
+					E[j] = new double[px.length];
+					TER[j] = new double[px.length];
+					for (int p = 0; p < px.length; p++) {
+						E[j][p] = sqrt(e2[p]*scale);
+						TER[j][p] = ter[p]*scale*100;
+					}
+				}
+			}
+		}
+		theta = null;
+		e2WithoutFv = null;
+	}
+	// Number of vertical pattern evaluations of the last run (one per distinct tilt, beamwidth and height)
+	public int getNEvaluations() {
+		return nEvaluations;
+	}
+	// Number of path loss evaluations of the last run (one per distinct station height)
+	public int getNHeightEvaluations() {
+		return nHeightEvaluations;
+	}
+
+	// Elevation angle and E^2 without the vertical pattern of every pair, with the stations at height
+	// hBS (NaN keeps the height of each source). Excluded pairs (minDist) get E^2 = 0
+	private void evaluateHeight(double hBS) {
+		double[] k0 = kernel.getK();
+		double[] kFreeSpace = kernel.getKFreeSpace();
+		IntStream.range(0, px.length).parallel().forEach(p -> {
+			for (int i = 0; i < nSources; i++) {
+				int k = p*nSources + i;
+				double d2 = sqrt(horizontalDistance2[k]);
+				if (d2 <= minDist) {
+					e2WithoutFv[k] = 0;
+					continue;
+				}
+				double h = Double.isNaN(hBS) ? sources.getZ()[i] : hBS;
+				double dz = h - hProbe;
+				theta[k] = atan2(dz, d2);
+				if (freeSpace) {
+					e2WithoutFv[k] = kFreeSpace[i]*fh[k]/(horizontalDistance2[k] + dz*dz);
+				} else {
+					PropagationModel pm = sources.getPropagationModel()[i];
+					double pl = pm.getPathLoss(new Point3D(sources.getX()[i], sources.getY()[i], h), new Point3D(px[p], py[p], hProbe), 
+							sources.getFrequencyMHz()[i]);
+					e2WithoutFv[k] = k0[i]*fh[k]*dB2Watt(-pl);
+				}
+			}
+		});
+	}
+	// E^2 and TER (fraction) of every probe, without EIRP offset, at the height of the last evaluateHeight
+	private void evaluate(Point point, double[] e2, double[] ter) {
+		// Vertical pattern constants of each source for this point
+		double[] tilt = new double[nSources];
+		double[] firstNull = new double[nSources];
+		double[] c = new double[nSources];
+		double[] envelope = new double[nSources];
+		for (int i = 0; i < nSources; i++) {
+			tilt[i] = Double.isNaN(point.tiltDegree) ? sources.getTiltRad()[i] : deg2rad(point.tiltDegree);
+			double bw = Double.isNaN(point.thetaBwDegree) ? sources.getThetaBwVerticalRad()[i] : deg2rad(point.thetaBwDegree);
+			firstNull[i] = 2.257*bw/2;
+			c[i] = 1.392/sin(bw/2);
+			envelope[i] = dB2Watt(sources.getMaxSideLobeEnvelopedB()[i]);
+		}
+		double[] invLimit2 = kernel.getInvLimit2();
+		IntStream.range(0, px.length).parallel().forEach(p -> {
+			double e2_p = 0;
+			double ter_p = 0;
+			for (int i = 0; i < nSources; i++) {
+				int k = p*nSources + i;
+				if (e2WithoutFv[k] == 0)
+					continue;
+				double e2_k = e2WithoutFv[k]*verticalGain(theta[k], tilt[i], firstNull[i], c[i], envelope[i]);
+				e2_p += e2_k;
+				ter_p += e2_k*invLimit2[i];
+			}
+			e2[p] = e2_p;
+			ter[p] = ter_p;
+		});
+	}
+	// DirectivityCat2BSWith3Sectors.getFvdB in linear units (same tests on theta)
+	private static double verticalGain(double theta, double tilt, double firstNull, double c, double envelope) {
+		if (theta < tilt - firstNull || theta > tilt + firstNull)
+			return envelope;
+		if (theta >= tilt - 0.00175 && theta <= tilt + 0.00175)
+			return 1;
+		double aux = c*sin(theta - tilt);
+		double s = sin(aux)/aux;
+		return max(s*s, envelope);
+	}
+
+	public static void main(String[] args) {
+		Scenario scenario = new Scenario(21, 30, 850, 3, 10, 60, 500, 1.5);
+		Deployment deployment = new Deployment(scenario);
+
+		// One run with the same parallelism as the sweep (over the probes); the first one warms up
+		long tRun = 0;
+		for (int repeat = 0; repeat < 2; repeat++) {
+			long t0 = System.currentTimeMillis();
+			IntStream.range(0, deployment.getXProbes().length).parallel().forEach(deployment::evalProbe);
+			tRun = System.currentTimeMillis() - t0;
+		}
+
+		// 10 tilts x 10 EIRP offsets
+		List<Point> points = new ArrayList<Point>();
+		for (int tilt = 0; tilt < 10; tilt++)
+			for (int eirp = 0; eirp < 10; eirp++)
+				points.add(new Point(tilt, Double.NaN, Double.NaN, eirp - 5));
+		long t0 = System.currentTimeMillis();
+		ParameterSweep sweep = new ParameterSweep(deployment);
+		long tCache = System.currentTimeMillis() - t0;
+		double[][] E = new double[points.size()][];
+		double[][] TER = new double[points.size()][];
+		sweep.run(points, E, TER);
+		long tSweep = System.currentTimeMillis() - t0 - tCache;
+
+		System.out.println("One run (parallel): " + tRun + " ms, " + points.size() + " runs: " + points.size()*tRun + " ms");
+		System.out.println(points.size() + " points: " + tCache + " ms (geometry) + " + tSweep + " ms (" + sweep.getNHeightEvaluations() 
+				+ " heights, " + sweep.getNEvaluations() + " evaluations), "
+				+ "speedup " + (double) points.size()*tRun/(tCache + tSweep));
+		for (int j = 0; j < points.size(); j += 10) {
+			double mean = 0;
+			for (double v : TER[j + 5])
+				mean += v;
+			System.out.println("tilt = " + points.get(j).getTiltDegree() + ": mean TER = " + mean/TER[j + 5].length);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package telecom.simulation;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import telecom.nir.NIR;
+import telecom.util.Pair;
+import telecom.util.Point3D;
+import telecom.util.RunningStatistics;
+
+/**
+ * Runs a scenario as a three stage pipeline:
+ * 
+ * 	generate (calling thread) -> evaluate (pool of nThreads) -> format and write (writer thread)
+ * 
+ * The generator draws the probes in blocks of blockSize, in the same order as Test.simulate,
+ * and submits each block to the evaluation pool. The futures of the blocks go through a
+ * bounded queue of queueDepth entries to the writer, which takes them in submission order. So
+ * the output is the same as Test.simulate, formatting and disk writes overlap with the
+ * evaluation, and at most queueDepth + 1 blocks are in memory at any time: when the writer
+ * falls behind, the generator blocks (backpressure).
+ */
+public class PipelinedSimulation {
+	private static final double[] END = new double[0];
+
+	private Scenario scenario;
+	private int nThreads;
+	private int blockSize;
+	private int queueDepth;
+	private RunningStatistics eStats;
+	private RunningStatistics terStats;
+
+	public PipelinedSimulation(Scenario scenario, int nThreads, int blockSize, int queueDepth) {
+		this.scenario = scenario;
+		this.nThreads = Math.max(1, nThreads);
+		this.blockSize = Math.max(1, blockSize);
+		this.queueDepth = Math.max(1, queueDepth);
+	}
+	public RunningStatistics getEStatistics() {
+		return eStats;
+	}
+	public RunningStatistics getTERStatistics() {
+		return terStats;
+	}
+
+	// Writes the base stations and the probes files, as Test.simulateAndSaveResults
+	public void run(String bsFileName, String nirFileName) throws Exception {
+		Deployment deployment = new Deployment(scenario, false);
+		Writer bsFile = new FileWriter(bsFileName);
+		try {
+			bsFile.write(deployment.formatBaseStations());
+		} finally {
+			bsFile.close();
+		}
+		Writer nirFile = new BufferedWriter(new FileWriter(nirFileName), 1 << 16);
+		try {
+			run(deployment, nirFile);
+		} finally {
+			nirFile.close();
+		}
+	}
+	// Writes the probes (header included) to out
+	public void run(Writer out) throws Exception {
+		run(new Deployment(scenario, false), out);
+	}
+
+	private void run(Deployment deployment, Writer out) throws Exception {
+		eStats = new RunningStatistics();
+		terStats = new RunningStatistics();
+		NIR nir = deployment.getNIR();
+		double hProbe = scenario.getHProbe();
+		double minDist = deployment.getDistanceToNearestBS();
+
+		// Each block is {x0, y0, E0, TER0, x1, y1, ...}
+		ArrayBlockingQueue<Future<double[]>> queue = new ArrayBlockingQueue<Future<double[]>>(queueDepth);
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		AtomicReference<Exception> writerError = new AtomicReference<Exception>();
+		Thread writer = new Thread(() -> write(queue, out, writerError), "pipeline-writer");
+		writer.start();
+
+		try {
+			Random random = deployment.getProbeRandom();
+			double L = scenario.getSide();
+			double[] xy = new double[2];
+			int nProbes = scenario.getNProbes();
+			for (int first = 0; first < nProbes && writerError.get() == null; first += blockSize) {
+				int count = Math.min(blockSize, nProbes - first);
+				double[] block = new double[4*count];
+				for (int i = 0; i < count; i++) {
+					Deployment.nextProbe(random, L, xy);
+					block[4*i] = xy[0];
+					block[4*i + 1] = xy[1];
+				}
+				queue.put(pool.submit(() -> {
+					for (int i = 0; i < count; i++) {
+						Pair<Double, Double> eAndTer = nir.evalEandTERAtProbe(new Point3D(block[4*i], block[4*i + 1], hProbe), minDist);
+						block[4*i + 2] = eAndTer.getFirst();
+						block[4*i + 3] = eAndTer.getSecond();
+					}
+					return block;
+				}));
+			}
+		} finally {
+			queue.put(pool.submit(() -> END));
+			writer.join();
+			pool.shutdown();
+		}
+		if (writerError.get() != null)
+			throw writerError.get();
+	}
+
+	private void write(ArrayBlockingQueue<Future<double[]>> queue, Writer out, AtomicReference<Exception> error) {
+		try {
+			out.write(Deployment.PROBES_HEADER);
+			while (true) {
+				double[] block = queue.take().get();
+				if (block == END)
+					break;
+				StringBuilder sb = new StringBuilder(block.length*20);
+				for (int i = 0; i < block.length; i += 4) {
+					sb.append(block[i] + "\t" + block[i + 1] + "\t" + block[i + 2] + "\t" + block[i + 3] + "\n");
+					eStats.add(block[i + 2]);
+					terStats.add(block[i + 3]);
+				}
+				out.write(sb.toString());
+			}
+			out.flush();
+		} catch (IOException | ExecutionException e) {
+			error.set(e);
+			// Keep draining, so the generator is never blocked on a full queue
+			drain(queue);
+		} catch (InterruptedException e) {
+			error.set(e);
+			Thread.currentThread().interrupt();
+		}
+	}
+	private static void drain(ArrayBlockingQueue<Future<double[]>> queue) {
+		try {
+			while (true) {
+				Future<double[]> future = queue.take();
+				try {
+					if (future.get() == END)
+						return;
+				} catch (ExecutionException e) {
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
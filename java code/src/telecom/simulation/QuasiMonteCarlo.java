@@ -0,0 +1,142 @@
+package telecom.simulation;
+
+import static java.lang.Math.sqrt;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import telecom.util.HaltonSequence;
+import telecom.util.LowDiscrepancySequence;
+import telecom.util.Pair;
+import telecom.util.Point3D;
+import telecom.util.RunningStatistics;
+import telecom.util.SobolSequence;
+
+/**
+ * Estimates the mean E, the mean TER and the CDF of the TER of a Scenario with independent
+ * randomized replicas. The probes of each replica are placed either pseudo-randomly (as in
+ * Test.simulate) or on a randomized low-discrepancy sequence (Halton or Sobol), and the base
+ * stations optionally as well. The spread between replicas gives the standard error of each
+ * estimate, so the placements can be compared at the same number of NIR evaluations.
+ * 
+ * When the stations are not placed quasi-randomly, every replica uses the stations of the scenario
+ * (same seed), and the estimates are conditional on that deployment.
+ */
+public class QuasiMonteCarlo {
+	public enum Placement {PSEUDO_RANDOM, HALTON, SOBOL}
+
+	private Scenario scenario;
+	private Placement probePlacement;
+	private boolean quasiRandomStations;
+	private int nReplicas = 16;
+	private double[] terLevels = {};
+
+	private RunningStatistics meanE;
+	private RunningStatistics meanTER;
+	private RunningStatistics[] cdf;
+
+	public QuasiMonteCarlo(Scenario scenario, Placement probePlacement, boolean quasiRandomStations) {
+		this.scenario = scenario;
+		this.probePlacement = probePlacement;
+		this.quasiRandomStations = quasiRandomStations;
+	}
+	public void setNReplicas(int nReplicas) {
+		if (nReplicas < 2)
+			throw new IllegalArgumentException("At least 2 replicas are needed to estimate the error");
+		this.nReplicas = nReplicas;
+	}
+	// TER values (%) where the CDF is estimated
+	public void setTERLevels(double[] terLevels) {
+		this.terLevels = terLevels;
+	}
+
+	public void run() {
+		meanE = new RunningStatistics();
+		meanTER = new RunningStatistics();
+		cdf = new RunningStatistics[terLevels.length];
+		for (int k = 0; k < cdf.length; k++)
+			cdf[k] = new RunningStatistics();
+		Deployment fixed = quasiRandomStations ? null : new Deployment(scenario, false);
+
+		for (int r = 0; r < nReplicas; r++) {
+			Random random = new Random(scenario.getSeed() + 1 + r);
+			Deployment deployment = fixed != null ? fixed : new Deployment(scenario, new SobolSequence(random));
+			runReplica(deployment, random);
+		}
+	}
+	private void runReplica(Deployment deployment, Random random) {
+		double L = scenario.getSide();
+		int n = scenario.getNProbes();
+		double[] x = new double[n];
+		double[] y = new double[n];
+		double[] xy = new double[2];
+		LowDiscrepancySequence sequence = createSequence(random);
+		for (int i = 0; i < n; i++) {
+			if (sequence == null)
+				Deployment.nextProbe(random, L, xy);
+			else
+				Deployment.nextProbe(sequence, L, xy);
+			x[i] = xy[0];
+			y[i] = xy[1];
+		}
+		double[] e = new double[n];
+		double[] ter = new double[n];
+		double hProbe = scenario.getHProbe();
+		IntStream.range(0, n).parallel().forEach(i -> {
+			Pair<Double, Double> eAndTer = deployment.getNIR().evalEandTERAtProbe(new Point3D(x[i], y[i], hProbe), deployment.getDistanceToNearestBS());
+			e[i] = eAndTer.getFirst();
+			ter[i] = eAndTer.getSecond();
+		});
+
+		double sumE = 0, sumTER = 0;
+		int[] below = new int[terLevels.length];
+		for (int i = 0; i < n; i++) {
+			sumE += e[i];
+			sumTER += ter[i];
+			for (int k = 0; k < terLevels.length; k++)
+				if (ter[i] <= terLevels[k])
+					below[k]++;
+		}
+		meanE.add(sumE/n);
+		meanTER.add(sumTER/n);
+		for (int k = 0; k < terLevels.length; k++)
+			cdf[k].add((double)below[k]/n);
+	}
+	private LowDiscrepancySequence createSequence(Random random) {
+		switch (probePlacement) {
+		case HALTON: return new HaltonSequence(2, random);
+		case SOBOL: return new SobolSequence(random);
+		default: return null;
+		}
+	}
+
+	// Mean over the replicas and standard error of the mean
+	public Pair<Double, Double> getMeanE() {
+		return estimate(meanE);
+	}
+	public Pair<Double, Double> getMeanTER() {
+		return estimate(meanTER);
+	}
+	// P(TER <= terLevels[k])
+	public Pair<Double, Double> getCDF(int k) {
+		return estimate(cdf[k]);
+	}
+	private Pair<Double, Double> estimate(RunningStatistics s) {
+		return new Pair<Double, Double>(s.getMean(), s.getStandardDeviation()/sqrt(s.getCount()));
+	}
+
+	public static void main(String[] args) {
+		int nProbes = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		Scenario scenario = new Scenario(5, 30, 850, 3, 10, 60, nProbes, 1.5);
+		for (boolean stations : new boolean[] {false, true}) {
+			System.out.println(stations ? "Quasi-random stations:" : "Fixed stations:");
+			for (Placement placement : Placement.values()) {
+				QuasiMonteCarlo qmc = new QuasiMonteCarlo(scenario, placement, stations);
+				qmc.setTERLevels(new double[] {0.11});
+				qmc.run();
+				System.out.println("  " + placement + ": mean TER = " + qmc.getMeanTER().getFirst() + " +/- " + qmc.getMeanTER().getSecond()
+						+ ", P(TER <= 0.11%) = " + qmc.getCDF(0).getFirst() + " +/- " + qmc.getCDF(0).getSecond());
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package telecom.simulation;
+
+import static java.lang.Math.ceil;
+
+import java.util.Random;
+import java.util.StringTokenizer;
+
+/**
+ * Parameters of a Monte Carlo simulation as run by telecom.tests.Test.simulate: nBS base stations
+ * uniformly placed in a L x L square and nProbes probes uniformly placed in the central
+ * L/2 x L/2 square.
+ *
+ * A scenario is a plain description. It can be encoded as a single line (toString/fromString),
+ * so another process can rebuild exactly the same Deployment from it.
+ */
+public class Scenario {
+	// Initialize seed as 42 (an obvious reference to The Hitchhiker's Guide to the Galaxy)
+	public static final long DEFAULT_SEED = 42;
+	public static final double DEFAULT_SIDE = 10000;
+
+	private double bsDensity;
+	private double hBS;
+	private double freq;
+	private double tilt;
+	private double teta_bw;
+	private double eirp;
+	private int nProbes;
+	private double hProbe;
+	private double side = DEFAULT_SIDE;
+	private long seed = DEFAULT_SEED;
+
+	// bsDensity: Minimum BS density (bs/km2)
+	// hBS: base station height (meters)
+	// freq: transmitting frequency (MHz)
+	// tilt: tilt of the base stations (degree)
+	// teta_bw: vertical beamwidth (degree)
+	// eirp: (dBm)
+	// nProbes: number of probes
+	// hProbe: height of the probes
+	public Scenario(double bsDensity, double hBS, double freq,
+			double tilt, double teta_bw, double eirp, int nProbes,
+			double hProbe) {
+		this.bsDensity = bsDensity;
+		this.hBS = hBS;
+		this.freq = freq;
+		this.tilt = tilt;
+		this.teta_bw = teta_bw;
+		this.eirp = eirp;
+		this.nProbes = nProbes;
+		this.hProbe = hProbe;
+	}
+
+	// Same scenario (same base stations) with a different number of probes
+	public Scenario withNProbes(int nProbes) {
+		Scenario scenario = new Scenario(bsDensity, hBS, freq, tilt, teta_bw, eirp, nProbes, hProbe);
+		scenario.setSide(side);
+		scenario.setSeed(seed);
+		return scenario;
+	}
+	// Same scenario with a different base station density
+	public Scenario withBsDensity(double bsDensity) {
+		Scenario scenario = new Scenario(bsDensity, hBS, freq, tilt, teta_bw, eirp, nProbes, hProbe);
+		scenario.setSide(side);
+		scenario.setSeed(seed);
+		return scenario;
+	}
+	public Random createRandom() {
+		Random random = new Random();
+		random.setSeed(seed);
+		return random;
+	}
+	// Total of base stations
+	public int getNBaseStations() {
+		return (int)ceil(bsDensity*side*side/1e6);
+	}
+	public double getBsDensity() {
+		return bsDensity;
+	}
+	public double getHBS() {
+		return hBS;
+	}
+	public double getFreqMHz() {
+		return freq;
+	}
+	public double getTiltDegree() {
+		return tilt;
+	}
+	public double getThetaBwDegree() {
+		return teta_bw;
+	}
+	public double getEirpdBm() {
+		return eirp;
+	}
+	public int getNProbes() {
+		return nProbes;
+	}
+	public double getHProbe() {
+		return hProbe;
+	}
+	// Analysis in a L x L square, where L is the side of the square in meters
+	public double getSide() {
+		return side;
+	}
+	public void setSide(double side) {
+		this.side = side;
+	}
+	public long getSeed() {
+		return seed;
+	}
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public String toString() {
+		return bsDensity + "\t" + hBS + "\t" + freq + "\t" + tilt + "\t" + teta_bw + "\t"
+				+ eirp + "\t" + nProbes + "\t" + hProbe + "\t" + side + "\t" + seed;
+	}
+	public static Scenario fromString(String str) {
+		StringTokenizer tokenizer = new StringTokenizer(str, "\t");
+		double bsDensity = Double.parseDouble(tokenizer.nextToken());
+		double hBS = Double.parseDouble(tokenizer.nextToken());
+		double freq = Double.parseDouble(tokenizer.nextToken());
+		double tilt = Double.parseDouble(tokenizer.nextToken());
+		double teta_bw = Double.parseDouble(tokenizer.nextToken());
+		double eirp = Double.parseDouble(tokenizer.nextToken());
+		int nProbes = Integer.parseInt(tokenizer.nextToken());
+		double hProbe = Double.parseDouble(tokenizer.nextToken());
+
+		Scenario scenario = new Scenario(bsDensity, hBS, freq, tilt, teta_bw, eirp, nProbes, hProbe);
+		scenario.setSide(Double.parseDouble(tokenizer.nextToken()));
+		scenario.setSeed(Long.parseLong(tokenizer.nextToken()));
+		return scenario;
+	}
+}
@@ -0,0 +1,318 @@
+package telecom.simulation;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import telecom.util.Pair;
+import telecom.util.RunningStatistics;
+
+/**
+ * Runs a Test.simulate-style job split in probe ranges (shards) over several worker JVMs
+ * (see ShardWorker) started on the local machine. The coordinator and the workers talk
+ * through pipes (the standard input/output of the worker processes), so no external service
+ * is needed.
+ * 
+ * Each worker rebuilds the deployment once from the scenario and then evaluates any number
+ * of shards. Shards are handed out dynamically. If a worker dies or answers something
+ * unexpected, it is replaced by a new process and the shard is evaluated again (up to
+ * maxAttempts times). A worker that does not answer within timeoutSeconds (from a command to each
+ * line of its answer) is considered hung and replaced the same way.
+ * 
+ * The results and the statistics are merged in shard order, so the output is the same as 
+ * Test.simulate, regardless of the number of workers and of which worker evaluated each shard.
+ * run(Path) streams the answer of each worker to a spool file and appends the spool files to the
+ * output in shard order as soon as all the previous shards are done, so the coordinator never 
+ * holds the results in memory.
+ */
+public class ShardCoordinator {
+	private Scenario scenario;
+	private int nWorkers;
+	private int nShards;
+	private int maxAttempts = 3;
+	private long timeoutSeconds = 600;
+	private List<String> jvmOptions = new ArrayList<String>();
+
+	// Shards whose spool file is complete; nextShard is the first shard not yet in the output
+	private boolean[] shardDone;
+	private int nextShard;
+	private Path spoolDir;
+	private BufferedWriter output;
+	private RunningStatistics[] shardEStats;
+	private RunningStatistics[] shardTERStats;
+	private int[] attempts;
+	private RunningStatistics eStats;
+	private RunningStatistics terStats;
+
+	public ShardCoordinator(Scenario scenario, int nWorkers, int nShards) {
+		this.scenario = scenario;
+		this.nWorkers = Math.max(1, nWorkers);
+		this.nShards = Math.max(1, Math.min(nShards, scenario.getNProbes()));
+	}
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+	// Maximum time (s) waiting for the worker to start or for each line of its answers
+	public void setTimeoutSeconds(long timeoutSeconds) {
+		this.timeoutSeconds = timeoutSeconds;
+	}
+	// Options passed to the worker JVMs (e.g., -Xmx2g)
+	public void addJvmOption(String option) {
+		jvmOptions.add(option);
+	}
+	public int getFrom(int shard) {
+		return (int)((long)scenario.getNProbes()*shard/nShards);
+	}
+	public int getTo(int shard) {
+		return getFrom(shard + 1);
+	}
+
+	// Return Pair<String, String> = <baseStations, probes>, as in Test.simulate. The probes are
+	// read back into memory: use run(Path) for large runs
+	public Pair<String, String> run() throws Exception {
+		Path file = Files.createTempFile("probes", ".txt");
+		try {
+			String baseStations = run(file);
+			return new Pair<String, String>(baseStations, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+	// Writes the probes (Deployment.PROBES_HEADER and one line per probe) to probesFile and returns
+	// the base stations, as formatted by Deployment.formatBaseStations
+	public String run(Path probesFile) throws Exception {
+		shardDone = new boolean[nShards];
+		nextShard = 0;
+		shardEStats = new RunningStatistics[nShards];
+		shardTERStats = new RunningStatistics[nShards];
+		attempts = new int[nShards];
+		spoolDir = Files.createTempDirectory("shards");
+		output = Files.newBufferedWriter(probesFile, StandardCharsets.UTF_8);
+
+		try {
+			output.write(Deployment.PROBES_HEADER);
+			LinkedBlockingQueue<Integer> pending = new LinkedBlockingQueue<Integer>();
+			for (int shard = 0; shard < nShards; shard++)
+				pending.add(shard);
+			AtomicInteger remaining = new AtomicInteger(nShards);
+			List<String> failures = new ArrayList<String>();
+	
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int w = 0; w < Math.min(nWorkers, nShards); w++) {
+				Thread t = new Thread(() -> serve(pending, remaining, failures), "shard-worker-" + w);
+				threads.add(t);
+				t.start();
+			}
+			for (Thread t : threads)
+				t.join();
+	
+			if (!failures.isEmpty())
+				throw new Exception("Sharded simulation failed: " + failures);
+		} finally {
+			output.close();
+			for (int shard = 0; shard < nShards; shard++)
+				Files.deleteIfExists(getSpoolFile(shard));
+			Files.deleteIfExists(spoolDir);
+		}
+
+		eStats = new RunningStatistics();
+		terStats = new RunningStatistics();
+		for (int shard = 0; shard < nShards; shard++) {
+			eStats.merge(shardEStats[shard]);
+			terStats.merge(shardTERStats[shard]);
+		}
+		// The base station list is cheap to build and identical in every worker
+		Deployment deployment = new Deployment(scenario.withNProbes(0));
+		return deployment.formatBaseStations();
+	}
+	private Path getSpoolFile(int shard) {
+		return spoolDir.resolve("shard-" + shard + ".txt");
+	}
+	// Appends the spool files of the shards that are done and follow the output, in order
+	private synchronized void shardFinished(int shard) throws IOException {
+		shardDone[shard] = true;
+		while (nextShard < nShards && shardDone[nextShard]) {
+			Path spool = getSpoolFile(nextShard);
+			try (BufferedReader reader = Files.newBufferedReader(spool, StandardCharsets.UTF_8)) {
+				char[] buffer = new char[1 << 16];
+				int n;
+				while ((n = reader.read(buffer)) > 0)
+					output.write(buffer, 0, n);
+			}
+			Files.delete(spool);
+			nextShard++;
+		}
+	}
+	public RunningStatistics getEStatistics() {
+		return eStats;
+	}
+	public RunningStatistics getTERStatistics() {
+		return terStats;
+	}
+
+	// Body of each coordinator thread: owns one worker process at a time
+	private void serve(LinkedBlockingQueue<Integer> pending, AtomicInteger remaining, List<String> failures) {
+		WorkerProcess worker = null;
+		try {
+			while (remaining.get() > 0) {
+				Integer shard = pending.poll(100, TimeUnit.MILLISECONDS);
+				if (shard == null)
+					continue;
+				synchronized (failures) {
+					if (!failures.isEmpty())
+						return;
+				}
+				try {
+					if (worker == null)
+						worker = new WorkerProcess();
+					worker.evaluate(shard);
+					remaining.decrementAndGet();
+				} catch (Exception e) {
+					if (worker != null) {
+						worker.destroy();
+						worker = null;
+					}
+					if (++attempts[shard] < maxAttempts) {
+						pending.add(shard);
+					} else {
+						synchronized (failures) {
+							failures.add("shard " + shard + ": " + e.getMessage());
+						}
+						remaining.set(0);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (worker != null)
+				worker.close();
+		}
+	}
+
+	private class WorkerProcess {
+		private Process process;
+		private PrintWriter toWorker;
+		// Lines of the worker, read by a separate thread so that reads can time out
+		private LinkedBlockingQueue<String> fromWorker = new LinkedBlockingQueue<String>(10000);
+		private final String endOfStream = new String("EOF");
+
+		WorkerProcess() throws IOException {
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			List<String> command = new ArrayList<String>();
+			command.add(java);
+			command.addAll(jvmOptions);
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(ShardWorker.class.getName());
+
+			ProcessBuilder pb = new ProcessBuilder(command);
+			pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+			process = pb.start();
+			toWorker = new PrintWriter(new OutputStreamWriter(process.getOutputStream(), "UTF-8"), false);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+			Thread readerThread = new Thread(() -> {
+				try {
+					String line;
+					while ((line = reader.readLine()) != null)
+						fromWorker.put(line);
+				} catch (IOException e) {
+					// The process was destroyed or its pipe broke: end of stream
+				} catch (InterruptedException e) {
+					return;
+				}
+				try {
+					fromWorker.put(endOfStream);
+				} catch (InterruptedException e) {
+					// Nobody is waiting for the end of the stream
+				}
+			}, "shard-reader");
+			readerThread.setDaemon(true);
+			readerThread.start();
+
+			toWorker.print(scenario.toString() + "\n");
+			toWorker.flush();
+			String answer = readLine();
+			if (!ShardWorker.READY.equals(answer))
+				throw new IOException("Worker did not start: " + answer);
+		}
+		// Next line of the worker (null at the end of the stream)
+		private String readLine() throws IOException {
+			String line;
+			try {
+				line = fromWorker.poll(timeoutSeconds, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for the worker");
+			}
+			if (line == null)
+				throw new IOException("Worker did not answer within " + timeoutSeconds + " s");
+			if (line == endOfStream) {
+				// Later reads see the end of the stream again
+				fromWorker.offer(endOfStream);
+				return null;
+			}
+			return line;
+		}
+		void evaluate(int shard) throws IOException {
+			int from = getFrom(shard);
+			int to = getTo(shard);
+			toWorker.print(ShardWorker.RANGE + " " + shard + " " + from + " " + to + "\n");
+			toWorker.flush();
+			if (toWorker.checkError())
+				throw new IOException("Worker pipe is closed");
+
+			int nLines = 0;
+			String line;
+			try (BufferedWriter spool = Files.newBufferedWriter(getSpoolFile(shard), StandardCharsets.UTF_8)) {
+				while ((line = readLine()) != null && !line.startsWith(ShardWorker.DONE)) {
+					spool.write(line);
+					spool.write('\n');
+					nLines++;
+				}
+			}
+			if (line == null)
+				throw new IOException("Worker exited while evaluating shard " + shard);
+
+			StringTokenizer tokenizer = new StringTokenizer(line, " ");
+			tokenizer.nextToken();
+			int doneShard = Integer.parseInt(tokenizer.nextToken());
+			int count = Integer.parseInt(tokenizer.nextToken());
+			if (doneShard != shard || count != to - from || nLines != count)
+				throw new IOException("Unexpected answer for shard " + shard + ": " + line);
+
+			shardEStats[shard] = RunningStatistics.fromString(tokenizer.nextToken());
+			shardTERStats[shard] = RunningStatistics.fromString(tokenizer.nextToken());
+			shardFinished(shard);
+		}
+		void close() {
+			toWorker.print(ShardWorker.EXIT + "\n");
+			toWorker.flush();
+			try {
+				if (!process.waitFor(10, TimeUnit.SECONDS))
+					process.destroyForcibly();
+			} catch (InterruptedException e) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+		void destroy() {
+			process.destroyForcibly();
+			// Unblocks the reader thread if the queue is full
+			fromWorker.clear();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package telecom.simulation;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+import telecom.nir.NIR;
+import telecom.util.Pair;
+import telecom.util.Point3D;
+import telecom.util.RunningStatistics;
+
+/**
+ * Worker process started by ShardCoordinator. It talks to the coordinator through its
+ * standard input/output (one command or answer per line):
+ * 
+ * 	coordinator -> worker:	<Scenario.toString()>			(once, first line)
+ * 	worker -> coordinator:	READY
+ * 	coordinator -> worker:	RANGE <shard> <from> <to>		(any number of times)
+ * 	worker -> coordinator:	<one line per probe, as in Test.simulate>
+ * 							DONE <shard> <nProbes> <E statistics> <TER statistics>
+ * 	coordinator -> worker:	EXIT
+ * 
+ * The base stations are built once, when the scenario is received, and reused for every range.
+ * The probes are not stored: the worker keeps the probe random generator of the deployment and,
+ * for each range, skips the positions up to <from> and draws only [from, to). The coordinator
+ * hands out the shards in increasing order, so a worker only moves forward; a range before the
+ * current position (a shard evaluated again) rebuilds the deployment to rewind the generator.
+ */
+public class ShardWorker {
+	public static final String READY = "READY";
+	public static final String RANGE = "RANGE";
+	public static final String DONE = "DONE";
+	public static final String EXIT = "EXIT";
+
+	public static void main(String args[]) throws Exception {
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"), false);
+
+		String line = in.readLine();
+		if (line == null)
+			return;
+		Scenario scenario = Scenario.fromString(line);
+		Deployment deployment = new Deployment(scenario, false);
+		Random random = deployment.getProbeRandom();
+		// Index of the probe that random draws next
+		int nextProbe = 0;
+		double L = scenario.getSide();
+		double hProbe = scenario.getHProbe();
+		double[] xy = new double[2];
+		out.print(READY + "\n");
+		out.flush();
+
+		while ((line = in.readLine()) != null) {
+			StringTokenizer tokenizer = new StringTokenizer(line, " ");
+			String command = tokenizer.nextToken();
+			if (command.equals(EXIT))
+				break;
+			if (!command.equals(RANGE))
+				throw new IllegalArgumentException("Unknown command: " + line);
+
+			int shard = Integer.parseInt(tokenizer.nextToken());
+			int from = Integer.parseInt(tokenizer.nextToken());
+			int to = Integer.parseInt(tokenizer.nextToken());
+
+			if (from < nextProbe) {
+				deployment = new Deployment(scenario, false);
+				random = deployment.getProbeRandom();
+				nextProbe = 0;
+			}
+			for (; nextProbe < from; nextProbe++)
+				Deployment.nextProbe(random, L, xy);
+
+			StringBuilder sb = new StringBuilder();
+			RunningStatistics eStats = new RunningStatistics();
+			RunningStatistics terStats = new RunningStatistics();
+			NIR nir = deployment.getNIR();
+			double minDist = deployment.getDistanceToNearestBS();
+			for (; nextProbe < to; nextProbe++) {
+				Deployment.nextProbe(random, L, xy);
+				Pair<Double, Double> eAndTer = nir.evalEandTERAtProbe(new Point3D(xy[0], xy[1], hProbe), minDist);
+				sb.append(Deployment.formatProbe(xy[0], xy[1], eAndTer));
+				eStats.add(eAndTer.getFirst());
+				terStats.add(eAndTer.getSecond());
+			}
+			out.print(sb);
+			out.print(DONE + " " + shard + " " + (to - from) + " " + eStats + " " + terStats + "\n");
+			out.flush();
+		}
+	}
+}
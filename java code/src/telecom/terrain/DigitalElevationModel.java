@@ -0,0 +1,231 @@
+package telecom.terrain;
+
+import static java.lang.Math.floor;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ground elevation (meters) from a raw float32 grid in the local (x, y) plane of the simulation,
+ * as written by GIS tools in the ESRI "EHdr" format: a .flt data file and a .hdr header with
+ * 
+ * 	ncols         1000
+ * 	nrows         800
+ * 	xllcorner     0
+ * 	yllcorner     0
+ * 	cellsize      30
+ * 	NODATA_value  -9999
+ * 	byteorder     LSBFIRST
+ * 
+ * The first row of the file is the northernmost one. GeoTIFF files can be converted to this format
+ * (e.g., gdal_translate -of EHdr -ot Float32 dem.tif dem.flt) after reprojecting to the local plane.
+ * 
+ * The header may give the lower left corner (xllcorner, yllcorner), the center of the lower left
+ * cell (xllcenter, yllcenter) or the center of the upper left cell (ulxmap, ulymap), and the cell
+ * size as cellsize or xdim/ydim (square cells only).
+ * 
+ * The grid is never read into the heap: it is split in bands of tileRows rows that are
+ * memory-mapped when first used. Mapped bands are read without locking, so parallel evaluations do
+ * not contend; only mapping a band takes a lock. At most maxHotTiles bands stay mapped (bands not
+ * used since the last eviction sweep are released to the garbage collector, which unmaps them).
+ * 
+ * The elevation is interpolated bilinearly between cell centers. NODATA cells and points outside
+ * the grid have elevation 0.
+ */
+public class DigitalElevationModel {
+	private FileChannel channel;
+	private int nCols;
+	private int nRows;
+	private double xll;
+	private double yll;
+	private double cellSize;
+	private double noData = -9999;
+	private ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
+	private int tileRows = 256;
+	private int maxHotTiles = 16;
+	// Mapped bands, read without locking. Bands are mapped and evicted under the lock of the model
+	private volatile AtomicReferenceArray<MappedByteBuffer> tiles;
+	// Second chance (clock) eviction: a band used since the last sweep is kept once more
+	private volatile boolean[] referenced;
+	private int[] mapped;
+	private int nMapped = 0;
+	private int clockHand = 0;
+	private long tileLoads = 0;
+
+	// header: the .hdr file; data: the .flt file
+	public DigitalElevationModel(String header, String data) throws IOException {
+		readHeader(header);
+		channel = FileChannel.open(Path.of(data), StandardOpenOption.READ);
+		clearHotTiles();
+		if (channel.size() < 4L*nCols*nRows)
+			throw new IOException("The data file has " + channel.size() + " bytes, expected " + 4L*nCols*nRows);
+	}
+	// Opens name.hdr and name.flt
+	public static DigitalElevationModel open(String name) throws IOException {
+		return new DigitalElevationModel(name + ".hdr", name + ".flt");
+	}
+	private void readHeader(String header) throws IOException {
+		// Corner or cell center of the lower left cell, or cell center of the upper left cell (ulxmap, ulymap)
+		double xllCorner = Double.NaN, yllCorner = Double.NaN;
+		double xllCenter = Double.NaN, yllCenter = Double.NaN;
+		double ulxmap = Double.NaN, ulymap = Double.NaN;
+		double xdim = Double.NaN, ydim = Double.NaN;
+		BufferedReader reader = new BufferedReader(new FileReader(header));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				StringTokenizer tokenizer = new StringTokenizer(line);
+				if (tokenizer.countTokens() < 2)
+					continue;
+				String key = tokenizer.nextToken().toLowerCase();
+				String value = tokenizer.nextToken();
+				switch (key) {
+				case "ncols": nCols = Integer.parseInt(value); break;
+				case "nrows": nRows = Integer.parseInt(value); break;
+				case "xllcorner": xllCorner = Double.parseDouble(value); break;
+				case "yllcorner": yllCorner = Double.parseDouble(value); break;
+				case "xllcenter": xllCenter = Double.parseDouble(value); break;
+				case "yllcenter": yllCenter = Double.parseDouble(value); break;
+				case "ulxmap": ulxmap = Double.parseDouble(value); break;
+				case "ulymap": ulymap = Double.parseDouble(value); break;
+				case "cellsize": cellSize = Double.parseDouble(value); break;
+				case "xdim": xdim = Double.parseDouble(value); break;
+				case "ydim": ydim = Double.parseDouble(value); break;
+				case "nodata_value": case "nodata": noData = Double.parseDouble(value); break;
+				case "byteorder": byteOrder = value.toUpperCase().startsWith("M") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN; break;
+				default: break;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (cellSize <= 0 && !Double.isNaN(xdim)) {
+			if (xdim != ydim)
+				throw new IOException("Only square cells are supported (xdim = " + xdim + ", ydim = " + ydim + ") in " + header);
+			cellSize = xdim;
+		}
+		if (nCols <= 0 || nRows <= 0 || cellSize <= 0)
+			throw new IOException("Invalid or missing ncols, nrows or cellsize in " + header);
+		if (!Double.isNaN(xllCorner) && !Double.isNaN(yllCorner)) {
+			xll = xllCorner;
+			yll = yllCorner;
+		} else if (!Double.isNaN(xllCenter) && !Double.isNaN(yllCenter)) {
+			xll = xllCenter - cellSize/2;
+			yll = yllCenter - cellSize/2;
+		} else if (!Double.isNaN(ulxmap) && !Double.isNaN(ulymap)) {
+			xll = ulxmap - cellSize/2;
+			yll = ulymap + cellSize/2 - nRows*cellSize;
+		} else {
+			throw new IOException("Missing xllcorner/yllcorner, xllcenter/yllcenter or ulxmap/ulymap in " + header);
+		}
+	}
+	// The tile settings must be changed before the evaluations start
+	public void setTileRows(int tileRows) {
+		this.tileRows = tileRows;
+		clearHotTiles();
+	}
+	public void setMaxHotTiles(int maxHotTiles) {
+		this.maxHotTiles = maxHotTiles;
+		clearHotTiles();
+	}
+	public synchronized void clearHotTiles() {
+		int nTiles = (nRows + tileRows - 1)/tileRows;
+		tiles = new AtomicReferenceArray<MappedByteBuffer>(nTiles);
+		referenced = new boolean[nTiles];
+		mapped = new int[max(1, maxHotTiles)];
+		nMapped = 0;
+		clockHand = 0;
+	}
+	public void close() throws IOException {
+		clearHotTiles();
+		channel.close();
+	}
+
+	// Elevation of the cell (col, row), row 0 = north
+	public double getCellElevation(int col, int row) {
+		if (col < 0 || row < 0 || col >= nCols || row >= nRows)
+			return 0;
+		MappedByteBuffer tile = getTile(row / tileRows);
+		float v = tile.getFloat(4*((row % tileRows)*nCols + col));
+		return v == noData || Float.isNaN(v) ? 0 : v;
+	}
+	public double getElevation(double x, double y) {
+		// Position in cell-center units (col, row from north)
+		double c = (x - xll)/cellSize - 0.5;
+		double r = nRows - (y - yll)/cellSize - 0.5;
+		c = max(0, min(nCols - 1, c));
+		r = max(0, min(nRows - 1, r));
+		if (x < xll || y < yll || x > xll + nCols*cellSize || y > yll + nRows*cellSize)
+			return 0;
+		int c0 = (int) floor(c), r0 = (int) floor(r);
+		int c1 = min(c0 + 1, nCols - 1), r1 = min(r0 + 1, nRows - 1);
+		double fc = c - c0, fr = r - r0;
+		return (1 - fr)*((1 - fc)*getCellElevation(c0, r0) + fc*getCellElevation(c1, r0))
+				+ fr*((1 - fc)*getCellElevation(c0, r1) + fc*getCellElevation(c1, r1));
+	}
+	private MappedByteBuffer getTile(int tile) {
+		MappedByteBuffer buffer = tiles.get(tile);
+		if (buffer != null) {
+			boolean[] r = referenced;
+			if (!r[tile])
+				r[tile] = true;
+			return buffer;
+		}
+		return loadTile(tile);
+	}
+	private synchronized MappedByteBuffer loadTile(int tile) {
+		MappedByteBuffer buffer = tiles.get(tile);
+		if (buffer != null)
+			return buffer;
+		long firstRow = (long) tile*tileRows;
+		long rows = min(tileRows, nRows - firstRow);
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 4*firstRow*nCols, 4*rows*nCols);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not map rows " + firstRow + " to " + (firstRow + rows) + " of the DEM", e);
+		}
+		buffer.order(byteOrder);
+		tileLoads++;
+		int slot;
+		if (nMapped < mapped.length) {
+			slot = nMapped++;
+		} else {
+			// Evicted bands are released to the garbage collector (readers holding them can still use them)
+			for (int sweep = 0; sweep < mapped.length && referenced[mapped[clockHand]]; sweep++) {
+				referenced[mapped[clockHand]] = false;
+				clockHand = (clockHand + 1) % mapped.length;
+			}
+			slot = clockHand;
+			tiles.set(mapped[slot], null);
+			clockHand = (clockHand + 1) % mapped.length;
+		}
+		mapped[slot] = tile;
+		referenced[tile] = false;
+		tiles.set(tile, buffer);
+		return buffer;
+	}
+
+	public int getNCols() {
+		return nCols;
+	}
+	public int getNRows() {
+		return nRows;
+	}
+	public double getCellSize() {
+		return cellSize;
+	}
+	// Number of bands mapped so far (including the bands mapped again after being evicted)
+	public synchronized long getTileLoads() {
+		return tileLoads;
+	}
+}
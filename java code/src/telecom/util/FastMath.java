@@ -0,0 +1,309 @@
+package telecom.util;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.sqrt;
+
+import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
+
+import telecom.basestation.DirectivityCat2BSWith3Sectors;
+import telecom.simulation.Deployment;
+import telecom.simulation.Scenario;
+
+/**
+ * Table-based approximations of atan2, log10, 10^(x/10) and sin, with guaranteed error bounds,
+ * sized for an error budget in dB. Install one with Functions.setFastMath to use it in the
+ * elevation and azimuth angles, the vertical radiation pattern, the free space path loss and the
+ * dB to watt conversions (by default Functions uses java.lang.Math).
+ *
+ * Each function is a linear interpolation of a smooth function on a uniform table, after an exact
+ * argument reduction, so its error is bounded by h^2/8*max|f''|:
+ *
+ *   dB2Watt: 2^f on [0, 1] (10^(x/10) = 2^n*2^f), relative error <= (h*ln2)^2/8*2^h
+ *   log10:   log2(m) on [1, 2] (x = 2^e*m), absolute error <= h^2/(8*ln2)*log10(2)
+ *   atan2:   atan(z) on [0, 1] (octant symmetry), absolute error <= h^2/8*3*sqrt(3)/8 rad
+ *   sin:     sin(r)/r on [0, pi/2] (x = k*pi + r), relative error <= h^2/8*(1/3)/(2/pi)
+ *
+ * The bounds do not include the rounding of the double operations (a few ulps). Non finite,
+ * subnormal or very large arguments are passed to java.lang.Math.
+ *
+ * The budget is split in four equal parts, one per function, assuming the evaluation of a source
+ * uses each of them as NIR.evalEandTERAtProbe does with the FreeSpace model: 10^(x/10) once,
+ * 10*log10 the equivalent of 5 times (two 20*log10 in the path loss and one 10*log10 in the
+ * vertical pattern), atan2 once for the elevation and once for the azimuth and sin in the main lobe
+ * of the vertical pattern (sin(theta - tilt), c = 1.392/sin(bw/2) and sin(aux)). An angle error e
+ * changes a pattern by at most maxSlopedBPerRad*e dB; a relative error e of sin(theta - tilt) or of c
+ * is an angle error of at most e*tan(theta - tilt) <= e*tan(30 degrees) (first null within 30 degrees
+ * of the tilt) and a relative error e of sin(aux) changes the pattern by at most 20*log10(1 + e) dB.
+ * With these, the dB error of the contribution of each source (and so of E^2 and TER) is at most
+ * the budget. The only exception is getFvdB's step at |theta - tilt| = 0.00175 rad (0 dB inside, the
+ * main lobe outside, about -0.01 dB for a 3.5 degree beamwidth): an elevation within the atan2
+ * bound of the step may land on the other side of it.
+ */
+public class FastMath {
+	private static final double LN2 = Math.log(2);
+	private static final double LOG10_2 = Math.log10(2);
+	private static final double LOG2_10_OVER_10 = Math.log(10)/Math.log(2)/10;
+	private static final double MAX_TAN_MAIN_LOBE = Math.tan(PI/6);
+	private static final int MAX_TABLE_SIZE = 1 << 22;
+
+	private final double errorBudgetdB;
+	private final double maxSlopedBPerRad;
+	// Tables with n + 1 samples of the functions, from the start to the end of the interval
+	private final double[] exp2;
+	private final double[] log2;
+	private final double[] atan;
+	private final double[] sinc;
+	private final double sincStep;
+	// Guaranteed bounds (see the class comment)
+	private final double dB2WattBound;
+	private final double log10Bound;
+	private final double atan2Bound;
+	private final double sinBound;
+
+	// errorBudgetdB: maximum error (dB) of the contribution of each source
+	// maxSlopedBPerRad: maximum slope (dB/rad) of the vertical and horizontal radiation patterns
+	// (see getMaxVerticalSlopedBPerRad and getMaxHorizontalSlopedBPerRad)
+	public FastMath(double errorBudgetdB, double maxSlopedBPerRad) {
+		if (!(errorBudgetdB > 0))
+			throw new IllegalArgumentException("The error budget must be positive: " + errorBudgetdB);
+		if (!(maxSlopedBPerRad >= 0))
+			throw new IllegalArgumentException("The pattern slope must be non negative: " + maxSlopedBPerRad);
+		this.errorBudgetdB = errorBudgetdB;
+		this.maxSlopedBPerRad = maxSlopedBPerRad;
+		double part = errorBudgetdB/4;
+
+		// 10*log10(1 + e) <= part
+		double maxRelative = Math.pow(10, part/10) - 1;
+		int n = tableSize(h -> (h*LN2)*(h*LN2)/8*Math.pow(2, h), 1, maxRelative);
+		exp2 = new double[n + 1];
+		for (int i = 0; i <= n; i++)
+			exp2[i] = Math.pow(2, (double)i/n);
+		dB2WattBound = (LN2/n)*(LN2/n)/8*Math.pow(2, 1.0/n);
+
+		// 5 uses of 10*log10
+		double maxLog10 = part/50;
+		n = tableSize(h -> h*h/(8*LN2)*LOG10_2, 1, maxLog10);
+		log2 = new double[n + 1];
+		for (int i = 0; i <= n; i++)
+			log2[i] = Math.log(1 + (double)i/n)/LN2;
+		log10Bound = 1.0/n/n/(8*LN2)*LOG10_2;
+
+		// Elevation and azimuth
+		double maxAngle = maxSlopedBPerRad == 0 ? 1e-3 : part/(2*maxSlopedBPerRad);
+		n = tableSize(h -> h*h/8*3*sqrt(3)/8, 1, maxAngle);
+		atan = new double[n + 1];
+		for (int i = 0; i <= n; i++)
+			atan[i] = Math.atan((double)i/n);
+		atan2Bound = 1.0/n/n/8*3*sqrt(3)/8;
+
+		// sin(theta - tilt) and c as angle errors, sin(aux) in the pattern
+		double maxSin = part/(2*maxSlopedBPerRad*MAX_TAN_MAIN_LOBE + 20/Math.log(10));
+		n = tableSize(h -> h*h/8/3/(2/PI), PI/2, maxSin);
+		sinc = new double[n + 1];
+		sincStep = (PI/2)/n;
+		for (int i = 0; i <= n; i++)
+			sinc[i] = i == 0 ? 1 : Math.sin(i*sincStep)/(i*sincStep);
+		sinBound = sincStep*sincStep/8/3/(2/PI);
+	}
+	// Smallest power of two number of intervals for which the bound of the interpolation error is at
+	// most maxError
+	private static int tableSize(DoubleUnaryOperator bound, double length, double maxError) {
+		int n = 16;
+		while (bound.applyAsDouble(length/n) > maxError) {
+			n *= 2;
+			if (n > MAX_TABLE_SIZE)
+				throw new IllegalArgumentException("Error budget too small for the table sizes: " + maxError);
+		}
+		return n;
+	}
+
+	// 10^(db/10)
+	public double dB2Watt(double db) {
+		double t = db*LOG2_10_OVER_10;
+		if (!(abs(t) < 1000))
+			return Math.pow(10, db/10);
+		double floor = Math.floor(t);
+		double x = (t - floor)*(exp2.length - 1);
+		int i = (int) x;
+		if (i == exp2.length - 1)
+			i--;
+		double v = exp2[i] + (x - i)*(exp2[i + 1] - exp2[i]);
+		return Math.scalb(v, (int) floor);
+	}
+	public double log10(double x) {
+		if (!(x >= Double.MIN_NORMAL) || x == Double.POSITIVE_INFINITY)
+			return Math.log10(x);
+		long bits = Double.doubleToRawLongBits(x);
+		int exponent = (int)((bits >>> 52) & 0x7ff) - 1023;
+		// Mantissa - 1, in [0, 1)
+		double m = Double.longBitsToDouble((bits & 0x000fffffffffffffL) | 0x3ff0000000000000L) - 1;
+		double t = m*(log2.length - 1);
+		int i = (int) t;
+		return (exponent + log2[i] + (t - i)*(log2[i + 1] - log2[i]))*LOG10_2;
+	}
+	public double atan2(double y, double x) {
+		if (y == 0 || x == 0 || !(abs(y) < Double.POSITIVE_INFINITY) || !(abs(x) < Double.POSITIVE_INFINITY))
+			return Math.atan2(y, x);
+		double ay = abs(y);
+		double ax = abs(x);
+		double a = ay <= ax ? atan(ay/ax) : PI/2 - atan(ax/ay);
+		if (x < 0)
+			a = PI - a;
+		return y < 0 ? -a : a;
+	}
+	// atan(z), 0 <= z <= 1
+	private double atan(double z) {
+		double t = z*(atan.length - 1);
+		int i = (int) t;
+		if (i == atan.length - 1)
+			return atan[i];
+		return atan[i] + (t - i)*(atan[i + 1] - atan[i]);
+	}
+	public double sin(double x) {
+		if (!(abs(x) < 1e5))
+			return Math.sin(x);
+		double k = Math.rint(x/PI);
+		double r = x - k*PI;
+		double ar = abs(r);
+		double t = ar/sincStep;
+		int i = (int) t;
+		if (i >= sinc.length - 1)
+			i = sinc.length - 2;
+		double s = r*(sinc[i] + (t - i)*(sinc[i + 1] - sinc[i]));
+		return ((long) k & 1) == 0 ? s : -s;
+	}
+
+	public double getErrorBudgetdB() {
+		return errorBudgetdB;
+	}
+	public double getMaxSlopedBPerRad() {
+		return maxSlopedBPerRad;
+	}
+	// Relative error bound of dB2Watt
+	public double getDB2WattBound() {
+		return dB2WattBound;
+	}
+	// Absolute error bound of log10
+	public double getLog10Bound() {
+		return log10Bound;
+	}
+	// Absolute error bound of atan2 (rad)
+	public double getAtan2Bound() {
+		return atan2Bound;
+	}
+	// Relative error bound of sin
+	public double getSinBound() {
+		return sinBound;
+	}
+	// Memory used by the tables, in bytes
+	public long getMemoryBytes() {
+		return 8L*(exp2.length + log2.length + atan.length + sinc.length);
+	}
+
+	// Maximum slope (dB/rad) of DirectivityCat2BSWith3Sectors.getFvdB in the main lobe, above the
+	// envelope (sampled with steps of 1e-5 rad from the step at 0.00175 rad; the slope is the largest
+	// next to the envelope)
+	public static double getMaxVerticalSlopedBPerRad(double theta_bw_vertical_rad, double envelope_db) {
+		double firstNull = 2.257*theta_bw_vertical_rad/2;
+		double step = 1e-5;
+		double maxSlope = 0;
+		double previous = DirectivityCat2BSWith3Sectors.getFvdB(0.00175 + step, 0, theta_bw_vertical_rad, envelope_db);
+		for (double delta = 0.00175 + 2*step; delta <= firstNull + step; delta += step) {
+			double fv = DirectivityCat2BSWith3Sectors.getFvdB(delta, 0, theta_bw_vertical_rad, envelope_db);
+			maxSlope = max(maxSlope, abs(fv - previous)/step);
+			previous = fv;
+		}
+		return maxSlope;
+	}
+	// Maximum slope (dB/rad) of a horizontal radiation pattern sampled every degree
+	public static double getMaxHorizontalSlopedBPerRad(double[] horizontal_rp) {
+		double maxSlope = 0;
+		for (int i = 1; i < horizontal_rp.length; i++)
+			maxSlope = max(maxSlope, abs(horizontal_rp[i] - horizontal_rp[i - 1]));
+		return maxSlope*Constants.RAD_TO_DEGREE;
+	}
+
+	// Validation report against java.lang.Math over the ranges of the simulations (Test.main):
+	// bands of 700 to 2600 MHz, beamwidths of 3.5 to 11.3 degrees, envelope of -20 dB
+	public static void main(String args[]) {
+		double budget = args.length > 0 ? Double.parseDouble(args[0]) : 0.01;
+		double[] freq = 	{700,	850,	1800,	2100,	2600};
+		double[] hBS =  	{30, 	30,		25,		20,		20};
+		double[] tilt = 	{3,		3,		10,		10,		10};
+		double[] teta_bw = 	{11.3,	10,		5.8,	5.8,	3.5};
+
+		double slope = getMaxHorizontalSlopedBPerRad(DirectivityCat2BSWith3Sectors.get3GPPHorizontalRP());
+		for (double bw : teta_bw)
+			slope = max(slope, getMaxVerticalSlopedBPerRad(Functions.deg2rad(bw), -20));
+		FastMath fm = new FastMath(budget, slope);
+		System.out.println("Error budget: " + budget + " dB, pattern slope: " + slope + " dB/rad, tables: " + fm.getMemoryBytes() + " bytes");
+		System.out.println("function\trange\tbound\tmax error");
+
+		Random random = new Random(0);
+		int n = 2000000;
+		double maxError = 0;
+		for (int i = 0; i < n; i++) {
+			double db = -200 + 300*random.nextDouble();
+			double exact = Math.pow(10, db/10);
+			maxError = max(maxError, abs(fm.dB2Watt(db) - exact)/exact);
+		}
+		System.out.println("dB2Watt (relative)\t[-200, 100] dB\t" + fm.getDB2WattBound() + "\t" + maxError);
+
+		maxError = 0;
+		for (int i = 0; i < n; i++) {
+			// Distances of 1 m to 100 km, frequencies, linear gains and powers
+			double x = Math.pow(10, -20 + 25*random.nextDouble());
+			maxError = max(maxError, abs(fm.log10(x) - Math.log10(x)));
+		}
+		System.out.println("log10 (absolute)\t[1e-20, 1e5]\t" + fm.getLog10Bound() + "\t" + maxError);
+
+		maxError = 0;
+		for (int i = 0; i < n; i++) {
+			// Elevation: height differences up to 100 m, distances of 1 m to 20 km; azimuth: any direction
+			double y = i % 2 == 0 ? -100 + 200*random.nextDouble() : -20000 + 40000*random.nextDouble();
+			double x = i % 2 == 0 ? 1 + 20000*random.nextDouble() : -20000 + 40000*random.nextDouble();
+			maxError = max(maxError, abs(fm.atan2(y, x) - Math.atan2(y, x)));
+		}
+		System.out.println("atan2 (absolute, rad)\televation and azimuth\t" + fm.getAtan2Bound() + "\t" + maxError);
+
+		maxError = 0;
+		for (int i = 0; i < n; i++) {
+			// theta - tilt in the main lobe, bw/2 and aux (up to pi)
+			double x = -PI + 2*PI*random.nextDouble();
+			double exact = Math.sin(x);
+			maxError = max(maxError, abs(fm.sin(x) - exact)/abs(exact));
+		}
+		System.out.println("sin (relative)\t[-pi, pi]\t" + fm.getSinBound() + "\t" + maxError);
+
+		// End to end: E^2 error (dB) of the deployments of Test.main
+		System.out.println("band\tmax E^2 error (dB)\tmax TER error (dB)\texact (ms)\tfast (ms)");
+		for (int b = 0; b < freq.length; b++) {
+			Deployment deployment = new Deployment(new Scenario(21, hBS[b], freq[b], tilt[b], teta_bw[b], 60, 2000, 1.5));
+			int nProbes = deployment.getXProbes().length;
+			double[] e = new double[nProbes];
+			double[] ter = new double[nProbes];
+			Functions.setFastMath(null);
+			long t0 = System.nanoTime();
+			for (int i = 0; i < nProbes; i++) {
+				Pair<Double, Double> eAndTer = deployment.evalProbe(i);
+				e[i] = eAndTer.getFirst();
+				ter[i] = eAndTer.getSecond();
+			}
+			long t1 = System.nanoTime();
+			Functions.setFastMath(fm);
+			double maxE = 0;
+			double maxTER = 0;
+			for (int i = 0; i < nProbes; i++) {
+				Pair<Double, Double> eAndTer = deployment.evalProbe(i);
+				maxE = max(maxE, abs(20*Math.log10(eAndTer.getFirst()/e[i])));
+				maxTER = max(maxTER, abs(10*Math.log10(eAndTer.getSecond()/ter[i])));
+			}
+			long t2 = System.nanoTime();
+			Functions.setFastMath(null);
+			System.out.println((int)freq[b] + " MHz\t" + maxE + "\t" + maxTER + "\t" + (t1 - t0)/1e6 + "\t" + (t2 - t1)/1e6);
+		}
+	}
+}
@@ -3,11 +3,8 @@ package telecom.util;
 import static java.lang.Math.PI;
 import static java.lang.Math.abs;
 import static java.lang.Math.acos;
-import static java.lang.Math.atan2;
 import static java.lang.Math.cos;
-import static java.lang.Math.log10;
 import static java.lang.Math.pow;
-import static java.lang.Math.sin;
 import static java.lang.Math.sqrt;
 import static telecom.util.Constants.DEGREE_TO_RAD;
 import static telecom.util.Constants.RAD_TO_DEGREE;
@@ -15,12 +12,35 @@ import static telecom.util.Constants.RAD_TO_DEGREE;
 import java.util.Random;
 
 public class Functions {
+	// Approximations used by dB2Watt, watt2dB, log10, atan2, sin and the angle functions
+	// (null: java.lang.Math). Set it before the evaluations start
+	private static volatile FastMath fastMath = null;
+	
+	public static void setFastMath(FastMath fastMath) {
+		Functions.fastMath = fastMath;
+	}
+	public static FastMath getFastMath() {
+		return fastMath;
+	}
+	public static double log10(double x) {
+		FastMath fm = fastMath;
+		return fm == null ? Math.log10(x) : fm.log10(x);
+	}
+	public static double atan2(double y, double x) {
+		FastMath fm = fastMath;
+		return fm == null ? Math.atan2(y, x) : fm.atan2(y, x);
+	}
+	public static double sin(double x) {
+		FastMath fm = fastMath;
+		return fm == null ? Math.sin(x) : fm.sin(x);
+	}
 	
 	public static boolean between(double min, double val, double max) {
 		return val >= min && val <= max;
 	}
 	public static double dB2Watt(double db) {
-		return pow(10, db/10);
+		FastMath fm = fastMath;
+		return fm == null ? pow(10, db/10) : fm.dB2Watt(db);
 	}
 	public static double[] dB2Watt(double[] db) {
 		double watt[] = new double[db.length];
@@ -0,0 +1,41 @@
+package telecom.util;
+
+import java.util.Random;
+
+/**
+ * Halton sequence (radical inverse of the index in the first prime bases) randomized by a
+ * Cranley-Patterson rotation: a uniform random shift, modulo 1, per dimension. The first point
+ * (index 0, the origin) is skipped.
+ */
+public class HaltonSequence extends LowDiscrepancySequence {
+	private static final int[] PRIMES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53};
+	private long index = 1;
+	private double[] shift;
+
+	public HaltonSequence(int dimension, Random random) {
+		super(dimension);
+		if (dimension > PRIMES.length)
+			throw new IllegalArgumentException("Halton sequence supports up to " + PRIMES.length + " dimensions");
+		shift = new double[dimension];
+		for (int k = 0; k < dimension; k++)
+			shift[k] = random == null ? 0 : random.nextDouble();
+	}
+	public void next(double[] point) {
+		for (int k = 0; k < getDimension(); k++) {
+			double v = radicalInverse(index, PRIMES[k]) + shift[k];
+			point[k] = v >= 1 ? v - 1 : v;
+		}
+		index++;
+	}
+	public static double radicalInverse(long i, int base) {
+		double inverse = 0;
+		double f = 1.0/base;
+		double factor = f;
+		while (i > 0) {
+			inverse += (i % base)*factor;
+			i /= base;
+			factor *= f;
+		}
+		return inverse;
+	}
+}
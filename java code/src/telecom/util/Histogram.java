@@ -0,0 +1,73 @@
+package telecom.util;
+
+import static java.lang.Math.floor;
+
+/**
+ * Histogram with nBins bins of equal width in [min, max[. Values below min and above max are
+ * counted in the underflow and overflow counters.
+ */
+public class Histogram {
+	private double min;
+	private double max;
+	private double binWidth;
+	private long[] counts;
+	private long underflow;
+	private long overflow;
+	private long total;
+
+	public Histogram(double min, double max, int nBins) {
+		this.min = min;
+		this.max = max;
+		this.binWidth = (max - min)/nBins;
+		this.counts = new long[nBins];
+	}
+	public void add(double value) {
+		total++;
+		if (value < min) {
+			underflow++;
+		} else if (value >= max) {
+			overflow++;
+		} else {
+			int bin = (int)floor((value - min)/binWidth);
+			counts[Math.min(bin, counts.length - 1)]++;
+		}
+	}
+	public int getNBins() {
+		return counts.length;
+	}
+	public double getBinStart(int bin) {
+		return min + bin*binWidth;
+	}
+	public double getBinEnd(int bin) {
+		return min + (bin + 1)*binWidth;
+	}
+	public long getCount(int bin) {
+		return counts[bin];
+	}
+	public long getUnderflow() {
+		return underflow;
+	}
+	public long getOverflow() {
+		return overflow;
+	}
+	public long getTotal() {
+		return total;
+	}
+	// Tab separated table: bin start, bin end, count, fraction, cumulative fraction
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		long cumulative = underflow;
+		sb.append("-Infinity\t" + min + "\t" + underflow + "\t" + fraction(underflow) + "\t" + fraction(cumulative) + "\n");
+		for (int i = 0; i < counts.length; i++) {
+			cumulative += counts[i];
+			sb.append(getBinStart(i) + "\t" + getBinEnd(i) + "\t" + counts[i] + "\t" 
+					+ fraction(counts[i]) + "\t" + fraction(cumulative) + "\n");
+		}
+		cumulative += overflow;
+		sb.append(max + "\tInfinity\t" + overflow + "\t" + fraction(overflow) + "\t" + fraction(cumulative) + "\n");
+		return sb.toString();
+	}
+	private double fraction(long count) {
+		return total == 0 ? 0 : (double)count/total;
+	}
+}
@@ -0,0 +1,76 @@
+package telecom.util;
+
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+import static telecom.util.Constants.DEGREE_TO_RAD;
+
+/**
+ * Projects geographic coordinates (latitude, longitude, in degrees) to the local (x, y) plane, in
+ * meters, used by the rest of the code. The x axis points to the east (longitude) and the y axis
+ * points to the north (latitude), which is the convention of Functions.getPhiDegree.
+ * 
+ * The projection is a local equirectangular projection around the origin (lat0, lon0), using the
+ * WGS84 meridional and prime vertical radii of curvature at lat0. For a city-sized area (tens of
+ * km) the error is well below the uncertainty of a measurement position.
+ */
+public class LocalProjection {
+	private static final double WGS84_A = 6378137.0;
+	private static final double WGS84_E2 = 6.69437999014e-3;
+
+	private double lat0;
+	private double lon0;
+	// Meters per degree of latitude and longitude at the origin
+	private double mPerDegLat;
+	private double mPerDegLon;
+
+	public LocalProjection(double lat0, double lon0) {
+		this.lat0 = lat0;
+		this.lon0 = lon0;
+		double s = sin(lat0*DEGREE_TO_RAD);
+		double w = sqrt(1 - WGS84_E2*s*s);
+		double M = WGS84_A*(1 - WGS84_E2)/(w*w*w);
+		double N = WGS84_A/w;
+		mPerDegLat = M*DEGREE_TO_RAD;
+		mPerDegLon = N*cos(lat0*DEGREE_TO_RAD)*DEGREE_TO_RAD;
+	}
+	// Projection centered at the centroid of the points
+	public static LocalProjection centeredAt(double[] lat, double[] lon) {
+		double sumLat = 0, sumLon = 0;
+		for (int i = 0; i < lat.length; i++) {
+			sumLat += lat[i];
+			sumLon += lon[i];
+		}
+		return new LocalProjection(sumLat/lat.length, sumLon/lon.length);
+	}
+	public double getOriginLatitude() {
+		return lat0;
+	}
+	public double getOriginLongitude() {
+		return lon0;
+	}
+
+	public Point2D project(double lat, double lon) {
+		return new Point2D((lon - lon0)*mPerDegLon, (lat - lat0)*mPerDegLat);
+	}
+	// Batch version: x and y must have the same length as lat and lon
+	public void project(double[] lat, double[] lon, double[] x, double[] y) {
+		for (int i = 0; i < lat.length; i++) {
+			x[i] = (lon[i] - lon0)*mPerDegLon;
+			y[i] = (lat[i] - lat0)*mPerDegLat;
+		}
+	}
+	// Returns {latitude, longitude}
+	public double[] unproject(double x, double y) {
+		return new double[] {lat0 + y/mPerDegLat, lon0 + x/mPerDegLon};
+	}
+	public double getMetersPerDegreeLatitude() {
+		return mPerDegLat;
+	}
+	public double getMetersPerDegreeLongitude() {
+		return mPerDegLon;
+	}
+	public String toString() {
+		return "LocalProjection(" + lat0 + ", " + lon0 + ")";
+	}
+}
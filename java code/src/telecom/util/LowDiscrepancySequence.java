@@ -0,0 +1,24 @@
+package telecom.util;
+
+/**
+ * Points in the unit hypercube [0, 1[^d that fill the space more evenly than pseudo-random points
+ * (quasi-Monte Carlo). Means and distribution functions estimated over n low-discrepancy points
+ * converge close to O(1/n) instead of O(1/sqrt(n)).
+ * 
+ * The implementations are randomized (each instance applies a random shift drawn from the Random
+ * given to its constructor), so independent replicas give an error estimate.
+ */
+public abstract class LowDiscrepancySequence {
+	private int dimension;
+
+	public LowDiscrepancySequence(int dimension) {
+		if (dimension < 1)
+			throw new IllegalArgumentException("Invalid dimension: " + dimension);
+		this.dimension = dimension;
+	}
+	public int getDimension() {
+		return dimension;
+	}
+	// Writes the next point of the sequence into point (point.length >= dimension)
+	public abstract void next(double[] point);
+}
@@ -0,0 +1,188 @@
+package telecom.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes double matrices to a MATLAB MAT-file (level 5, little endian, uncompressed), so the
+ * results can be loaded with load() without any text formatting or parsing.
+ * 
+ * A matrix can be written at once (writeMatrix) or streamed column by column (beginMatrix, append,
+ * endMatrix): the number of columns and the element sizes are patched when the matrix ends, so the
+ * number of columns does not need to be known in advance. MATLAB stores matrices in column-major
+ * order, so a streamed matrix has one column per record (e.g., a 4 x N matrix with one probe per
+ * column: nir = data.nir.' gives the N x 4 layout of the text files).
+ * 
+ * Each matrix is limited to 2^32 - 1 bytes (the size field of the format).
+ */
+public class MatFileWriter implements Closeable {
+	private static final int MI_INT8 = 1;
+	private static final int MI_INT32 = 5;
+	private static final int MI_UINT32 = 6;
+	private static final int MI_DOUBLE = 9;
+	private static final int MI_MATRIX = 14;
+	private static final int MX_DOUBLE_CLASS = 6;
+	private static final long MAX_ELEMENT_SIZE = 0xFFFFFFFFL;
+
+	private FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+	private long position = 0;
+
+	// Streamed matrix
+	private boolean streaming = false;
+	private int nRows;
+	private long nValues;
+	private long matrixStart;
+	private long dimensionsPosition;
+	private long dataStart;
+
+	public MatFileWriter(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, 
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		writeHeader();
+	}
+	private void writeHeader() throws IOException {
+		byte[] text = new byte[116];
+		byte[] description = "MATLAB 5.0 MAT-file, created by telecom.util.MatFileWriter".getBytes(StandardCharsets.US_ASCII);
+		for (int i = 0; i < text.length; i++)
+			text[i] = i < description.length ? description[i] : (byte) ' ';
+		put(text);
+		// Subsystem data offset (none), version, endian indicator
+		putLong(0);
+		putShort((short) 0x0100);
+		put(new byte[] {'I', 'M'});
+	}
+
+	// Writes a nRows x nColumns matrix, given in column-major order
+	public void writeMatrix(String name, int nRows, int nColumns, double[] columnMajor) throws IOException {
+		if (columnMajor.length != (long) nRows*nColumns)
+			throw new IllegalArgumentException("Expected " + (long) nRows*nColumns + " values, got " + columnMajor.length);
+		beginMatrix(name, nRows);
+		for (double v : columnMajor)
+			append(v);
+		endMatrix();
+	}
+	// Starts a matrix with nRows rows. The values are given with append, column by column
+	public void beginMatrix(String name, int nRows) throws IOException {
+		if (streaming)
+			throw new IllegalStateException("The previous matrix was not ended");
+		if (nRows < 1)
+			throw new IllegalArgumentException("Invalid number of rows: " + nRows);
+		streaming = true;
+		this.nRows = nRows;
+		nValues = 0;
+
+		matrixStart = position;
+		putInt(MI_MATRIX);
+		putInt(0); // patched by endMatrix
+		// Array flags
+		putInt(MI_UINT32);
+		putInt(8);
+		putInt(MX_DOUBLE_CLASS);
+		putInt(0);
+		// Dimensions
+		putInt(MI_INT32);
+		putInt(8);
+		putInt(nRows);
+		dimensionsPosition = position;
+		putInt(0); // patched by endMatrix
+		// Name
+		byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+		putInt(MI_INT8);
+		putInt(bytes.length);
+		put(bytes);
+		pad();
+		// Real part
+		putInt(MI_DOUBLE);
+		dataStart = position;
+		putInt(0); // patched by endMatrix
+	}
+	public void append(double value) throws IOException {
+		if (!streaming)
+			throw new IllegalStateException("No matrix was started");
+		if (buffer.remaining() < 8)
+			flush();
+		buffer.putDouble(value);
+		position += 8;
+		nValues++;
+	}
+	public void append(double[] values) throws IOException {
+		for (double v : values)
+			append(v);
+	}
+	public void endMatrix() throws IOException {
+		if (!streaming)
+			throw new IllegalStateException("No matrix was started");
+		if (nValues % nRows != 0)
+			throw new IllegalStateException("Incomplete column: " + nValues + " values for " + nRows + " rows");
+		long dataSize = nValues*8;
+		long matrixSize = position - matrixStart - 8;
+		if (matrixSize > MAX_ELEMENT_SIZE || nValues/nRows > Integer.MAX_VALUE)
+			throw new IOException("Matrix too large for a MAT-file v5 element: " + matrixSize + " bytes");
+		// Doubles are always 8 bytes aligned, no padding needed
+		flush();
+		patchInt(matrixStart + 4, (int) matrixSize);
+		patchInt(dimensionsPosition, (int) (nValues/nRows));
+		patchInt(dataStart, (int) dataSize);
+		streaming = false;
+	}
+	public void close() throws IOException {
+		try {
+			if (streaming)
+				endMatrix();
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void put(byte[] bytes) throws IOException {
+		for (byte b : bytes) {
+			if (!buffer.hasRemaining())
+				flush();
+			buffer.put(b);
+		}
+		position += bytes.length;
+	}
+	private void putInt(int v) throws IOException {
+		if (buffer.remaining() < 4)
+			flush();
+		buffer.putInt(v);
+		position += 4;
+	}
+	private void putShort(short v) throws IOException {
+		if (buffer.remaining() < 2)
+			flush();
+		buffer.putShort(v);
+		position += 2;
+	}
+	private void putLong(long v) throws IOException {
+		if (buffer.remaining() < 8)
+			flush();
+		buffer.putLong(v);
+		position += 8;
+	}
+	// Pads to 8 bytes
+	private void pad() throws IOException {
+		while (position % 8 != 0)
+			put(new byte[1]);
+	}
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+	private void patchInt(long at, int v) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(v);
+		b.flip();
+		while (b.hasRemaining())
+			channel.write(b, at + b.position());
+	}
+}
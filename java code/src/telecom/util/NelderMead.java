@@ -0,0 +1,125 @@
+package telecom.util;
+
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Derivative free minimization of a function of n variables with the Nelder-Mead simplex method
+ * (standard coefficients: reflection 1, expansion 2, contraction 0.5, shrink 0.5).
+ */
+public class NelderMead {
+	private int maxIterations = 5000;
+	private double tolerance = 1e-8;
+	private int iterations;
+	private int evaluations;
+
+	public NelderMead() { }
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+	// Stops when the difference between the worst and the best value in the simplex is below tolerance
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+	public int getIterations() {
+		return iterations;
+	}
+	public int getEvaluations() {
+		return evaluations;
+	}
+
+	// x0: initial point. step: initial size of the simplex in each direction
+	public double[] minimize(ToDoubleFunction<double[]> f, double[] x0, double[] step) {
+		int n = x0.length;
+		double[][] simplex = new double[n + 1][];
+		double[] values = new double[n + 1];
+		evaluations = 0;
+		iterations = 0;
+		// Nothing to minimize
+		if (n == 0)
+			return x0.clone();
+
+		for (int i = 0; i <= n; i++) {
+			simplex[i] = x0.clone();
+			if (i > 0)
+				simplex[i][i - 1] += step[i - 1];
+			values[i] = eval(f, simplex[i]);
+		}
+
+		Integer[] order = new Integer[n + 1];
+		for (iterations = 0; iterations < maxIterations; iterations++) {
+			for (int i = 0; i <= n; i++)
+				order[i] = i;
+			final double[] v = values;
+			Arrays.sort(order, (a, b) -> Double.compare(v[a], v[b]));
+			int best = order[0];
+			int worst = order[n];
+			int secondWorst = order[n - 1];
+			
+			if (values[worst] - values[best] <= tolerance)
+				break;
+
+			// Centroid of all points but the worst
+			double[] centroid = new double[n];
+			for (int i = 0; i <= n; i++) {
+				if (i == worst)
+					continue;
+				for (int j = 0; j < n; j++)
+					centroid[j] += simplex[i][j]/n;
+			}
+
+			double[] reflected = combine(centroid, simplex[worst], -1);
+			double fReflected = eval(f, reflected);
+			if (fReflected < values[best]) {
+				double[] expanded = combine(centroid, simplex[worst], -2);
+				double fExpanded = eval(f, expanded);
+				if (fExpanded < fReflected) {
+					simplex[worst] = expanded;
+					values[worst] = fExpanded;
+				} else {
+					simplex[worst] = reflected;
+					values[worst] = fReflected;
+				}
+			} else if (fReflected < values[secondWorst]) {
+				simplex[worst] = reflected;
+				values[worst] = fReflected;
+			} else {
+				boolean outside = fReflected < values[worst];
+				double[] contracted = outside ? combine(centroid, simplex[worst], -0.5) 
+						: combine(centroid, simplex[worst], 0.5);
+				double fContracted = eval(f, contracted);
+				if (fContracted < Math.min(fReflected, values[worst])) {
+					simplex[worst] = contracted;
+					values[worst] = fContracted;
+				} else {
+					// Shrink towards the best point
+					for (int i = 0; i <= n; i++) {
+						if (i == best)
+							continue;
+						for (int j = 0; j < n; j++)
+							simplex[i][j] = simplex[best][j] + 0.5*(simplex[i][j] - simplex[best][j]);
+						values[i] = eval(f, simplex[i]);
+					}
+				}
+			}
+		}
+
+		int best = 0;
+		for (int i = 1; i <= n; i++)
+			if (values[i] < values[best])
+				best = i;
+		return simplex[best];
+	}
+	// centroid + t*(point - centroid)
+	private static double[] combine(double[] centroid, double[] point, double t) {
+		double[] result = new double[centroid.length];
+		for (int j = 0; j < centroid.length; j++)
+			result[j] = centroid[j] + t*(point[j] - centroid[j]);
+		return result;
+	}
+	private double eval(ToDoubleFunction<double[]> f, double[] x) {
+		evaluations++;
+		return f.applyAsDouble(x);
+	}
+}
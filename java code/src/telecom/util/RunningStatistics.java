@@ -0,0 +1,84 @@
+package telecom.util;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.sqrt;
+
+/**
+ * Streaming accumulator of count, mean, variance, minimum and maximum (Welford's algorithm).
+ * Two accumulators can be merged (Chan et al. pairwise update), so partial statistics computed
+ * over disjoint sets of samples can be combined. Merging in a fixed order gives a deterministic
+ * result.
+ */
+public class RunningStatistics {
+	private long n = 0;
+	private double mean = 0;
+	private double m2 = 0;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public RunningStatistics() { }
+
+	public void add(double value) {
+		n++;
+		double delta = value - mean;
+		mean += delta/n;
+		m2 += delta*(value - mean);
+		min = min(min, value);
+		max = max(max, value);
+	}
+	public void merge(RunningStatistics other) {
+		if (other.n == 0)
+			return;
+		if (n == 0) {
+			n = other.n;
+			mean = other.mean;
+			m2 = other.m2;
+			min = other.min;
+			max = other.max;
+			return;
+		}
+		long total = n + other.n;
+		double delta = other.mean - mean;
+		mean += delta*other.n/total;
+		m2 += other.m2 + delta*delta*((double)n*other.n/total);
+		n = total;
+		min = min(min, other.min);
+		max = max(max, other.max);
+	}
+	public long getCount() {
+		return n;
+	}
+	public double getMean() {
+		return n == 0 ? Double.NaN : mean;
+	}
+	public double getVariance() {
+		return n < 2 ? 0 : m2/(n - 1);
+	}
+	public double getStandardDeviation() {
+		return sqrt(getVariance());
+	}
+	public double getMin() {
+		return min;
+	}
+	public double getMax() {
+		return max;
+	}
+
+	// Lossless encoding (Double.toString round trips) without whitespaces, so it can be used
+	// as a single token in tab separated files
+	public String toString() {
+		return n + ";" + Parser.codeDoubleArray(new double[] {mean, m2, min, max});
+	}
+	public static RunningStatistics fromString(String str) {
+		int sep = str.indexOf(';');
+		double[] values = Parser.uncodeDoubleArray(str.substring(sep + 1));
+		RunningStatistics stats = new RunningStatistics();
+		stats.n = Long.parseLong(str.substring(0, sep));
+		stats.mean = values[0];
+		stats.m2 = values[1];
+		stats.min = values[2];
+		stats.max = values[3];
+		return stats;
+	}
+}
@@ -0,0 +1,67 @@
+package telecom.util;
+
+import java.util.Random;
+
+/**
+ * Two-dimensional Sobol sequence (first dimension: van der Corput in base 2; second dimension:
+ * primitive polynomial x + 1, m_1 = 1), generated in Gray code order and scrambled with a random
+ * linear matrix scramble (Matousek): the binary digits of each coordinate are multiplied by a random
+ * lower triangular matrix with unit diagonal, then XORed with a random digital shift. The scramble is
+ * linear, so it is applied once to the direction numbers. It keeps the net property: the first n = 2^k
+ * points are a (0, k, 2)-net (every elementary interval of area 1/n has exactly one point), so
+ * n = 2^k points give the best results.
+ * 
+ * With a null Random the sequence is the unscrambled one (starting at the origin, shifted by half
+ * of the last digit).
+ */
+public class SobolSequence extends LowDiscrepancySequence {
+	private static final int BITS = 32;
+	private static final double SCALE = 1.0/(1L << BITS);
+	private long[][] direction = new long[2][BITS];
+	private long[] x = new long[2];
+	private long[] shift = new long[2];
+	private long index = 0;
+
+	public SobolSequence(Random random) {
+		super(2);
+		long m = 1;
+		for (int k = 0; k < BITS; k++) {
+			direction[0][k] = 1L << (BITS - 1 - k);
+			// m_k = 2*m_{k-1} xor m_{k-1}
+			if (k > 0)
+				m = (m << 1) ^ m;
+			direction[1][k] = m << (BITS - 1 - k);
+		}
+		for (int d = 0; d < 2; d++) {
+			if (random == null)
+				continue;
+			scramble(direction[d], random);
+			shift[d] = random.nextLong() & 0xFFFFFFFFL;
+		}
+	}
+	// Multiplies the digits of the direction numbers by a random lower triangular matrix with unit
+	// diagonal: the digit j (bit BITS - 1 - j) becomes the parity of the digits i <= j selected by row j
+	private static void scramble(long[] direction, Random random) {
+		long[] row = new long[BITS];
+		for (int j = 0; j < BITS; j++) {
+			long higher = j == 0 ? 0 : (random.nextLong() & 0xFFFFFFFFL) & ~((1L << (BITS - j)) - 1);
+			row[j] = higher | (1L << (BITS - 1 - j));
+		}
+		for (int k = 0; k < BITS; k++) {
+			long v = direction[k];
+			long scrambled = 0;
+			for (int j = 0; j < BITS; j++)
+				scrambled |= (long) (Long.bitCount(row[j] & v) & 1) << (BITS - 1 - j);
+			direction[k] = scrambled;
+		}
+	}
+	public void next(double[] point) {
+		for (int d = 0; d < 2; d++)
+			point[d] = ((x[d] ^ shift[d]) + 0.5)*SCALE;
+		// Gray code: flip the direction number of the lowest zero bit of the index
+		int c = Long.numberOfTrailingZeros(~index);
+		for (int d = 0; d < 2; d++)
+			x[d] ^= direction[d][c];
+		index++;
+	}
+}
@@ -0,0 +1,81 @@
+package telecom.util;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable sparse matrix in compressed sparse row (CSR) format. The matrix-vector product is
+ * parallelized by rows (each output element is written by a single thread and summed in column
+ * order, so the result does not depend on the thread scheduling).
+ */
+public class SparseMatrix {
+	private int nRows;
+	private int nColumns;
+	// Row i has the elements rowStart[i] to rowStart[i+1]-1 of column and value
+	private long[] rowStart;
+	private int[] column;
+	private double[] value;
+
+	// Builds the matrix from its rows: row i has the nonzero values rowValues[i] at the columns
+	// rowColumns[i] (in increasing order)
+	public SparseMatrix(int nColumns, int[][] rowColumns, double[][] rowValues) {
+		if (rowColumns.length != rowValues.length)
+			throw new IllegalArgumentException("rowColumns and rowValues must have the same number of rows");
+		this.nRows = rowColumns.length;
+		this.nColumns = nColumns;
+		rowStart = new long[nRows + 1];
+		for (int i = 0; i < nRows; i++) {
+			if (rowColumns[i].length != rowValues[i].length)
+				throw new IllegalArgumentException("Row " + i + ": different number of columns and values");
+			rowStart[i + 1] = rowStart[i] + rowColumns[i].length;
+		}
+		if (rowStart[nRows] > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many nonzero elements: " + rowStart[nRows]);
+		column = new int[(int) rowStart[nRows]];
+		value = new double[(int) rowStart[nRows]];
+		for (int i = 0; i < nRows; i++) {
+			int k = (int) rowStart[i];
+			for (int j = 0; j < rowColumns[i].length; j++) {
+				int c = rowColumns[i][j];
+				if (c < 0 || c >= nColumns || (j > 0 && c <= rowColumns[i][j-1]))
+					throw new IllegalArgumentException("Row " + i + ": invalid or unsorted column " + c);
+				column[k + j] = c;
+				value[k + j] = rowValues[i][j];
+			}
+		}
+	}
+
+	public int getNRows() {
+		return nRows;
+	}
+	public int getNColumns() {
+		return nColumns;
+	}
+	public int getNNonZeros() {
+		return value.length;
+	}
+	public double getElement(int i, int j) {
+		int from = (int) rowStart[i];
+		int to = (int) rowStart[i + 1];
+		int k = Arrays.binarySearch(column, from, to, j);
+		return k >= 0 ? value[k] : 0;
+	}
+	// out = this*v
+	public void multiply(double[] v, double[] out) {
+		if (v.length != nColumns || out.length != nRows)
+			throw new IllegalArgumentException("Incompatible sizes: " + nRows + "x" + nColumns 
+					+ " matrix, vector of " + v.length + ", result of " + out.length);
+		IntStream.range(0, nRows).parallel().forEach(i -> out[i] = multiplyRow(i, v));
+	}
+	public double multiplyRow(int i, double[] v) {
+		double s = 0;
+		int to = (int) rowStart[i + 1];
+		for (int k = (int) rowStart[i]; k < to; k++)
+			s += value[k]*v[column[k]];
+		return s;
+	}
+	// Memory used by the arrays, in bytes
+	public long getMemoryBytes() {
+		return 8L*rowStart.length + 12L*value.length;
+	}
+}
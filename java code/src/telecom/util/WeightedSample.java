@@ -0,0 +1,106 @@
+package telecom.util;
+
+import static java.lang.Math.sqrt;
+
+import java.util.Arrays;
+
+/**
+ * Weighted samples (e.g., importance sampling with likelihood weights p/q). The estimates are
+ * self-normalized (the weights are divided by their sum), so they only need the weights up to a
+ * constant factor. The effective sample size (sum w)^2/sum(w^2) tells how many uniform samples the
+ * weighted set is worth.
+ */
+public class WeightedSample {
+	private double[] value;
+	private double[] weight;
+	private int n = 0;
+	private boolean sorted = true;
+	private double sumW = 0;
+	private double sumW2 = 0;
+
+	public WeightedSample() {
+		this(1024);
+	}
+	public WeightedSample(int initialCapacity) {
+		value = new double[initialCapacity];
+		weight = new double[initialCapacity];
+	}
+
+	public void add(double v, double w) {
+		if (w < 0)
+			throw new IllegalArgumentException("Negative weight: " + w);
+		if (n == value.length) {
+			value = Arrays.copyOf(value, 2*n + 1);
+			weight = Arrays.copyOf(weight, 2*n + 1);
+		}
+		if (n > 0 && v < value[n-1])
+			sorted = false;
+		value[n] = v;
+		weight[n] = w;
+		n++;
+		sumW += w;
+		sumW2 += w*w;
+	}
+	public int getCount() {
+		return n;
+	}
+	public double getSumOfWeights() {
+		return sumW;
+	}
+	public double getEffectiveSampleSize() {
+		return sumW2 == 0 ? 0 : sumW*sumW/sumW2;
+	}
+	public double getMean() {
+		double s = 0;
+		for (int i = 0; i < n; i++)
+			s += weight[i]*value[i];
+		return s/sumW;
+	}
+	public double getStandardDeviation() {
+		double mean = getMean();
+		double s = 0;
+		for (int i = 0; i < n; i++)
+			s += weight[i]*(value[i] - mean)*(value[i] - mean);
+		return sqrt(s/sumW);
+	}
+	// Weighted probability of value > threshold
+	public double getExceedanceProbability(double threshold) {
+		double s = 0;
+		for (int i = 0; i < n; i++)
+			if (value[i] > threshold)
+				s += weight[i];
+		return s/sumW;
+	}
+	// Smallest sample value whose weighted cumulative distribution reaches p (0 <= p <= 1)
+	public double getQuantile(double p) {
+		if (n == 0)
+			return Double.NaN;
+		sort();
+		double target = p*sumW;
+		double cumulative = 0;
+		for (int i = 0; i < n; i++) {
+			cumulative += weight[i];
+			if (cumulative >= target && weight[i] > 0)
+				return value[i];
+		}
+		return value[n-1];
+	}
+	private void sort() {
+		if (sorted)
+			return;
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		double[] v = value;
+		Arrays.sort(order, (a, b) -> Double.compare(v[a], v[b]));
+		double[] newValue = new double[value.length];
+		double[] newWeight = new double[weight.length];
+		for (int i = 0; i < n; i++) {
+			newValue[i] = value[order[i]];
+			newWeight[i] = weight[order[i]];
+		}
+		value = newValue;
+		weight = newWeight;
+		sorted = true;
+	}
+}